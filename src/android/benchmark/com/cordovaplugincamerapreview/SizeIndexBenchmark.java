@@ -0,0 +1,83 @@
+package com.cordovaplugincamerapreview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preview and picture size selection with {@link SizeIndex} against the
+ * linear scans it replaced, for size lists as long as cameras report.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SizeIndexBenchmark {
+    @Param({"10", "40"})
+    public int sizeCount;
+
+    private List<CameraSize> sizes;
+    private SizeIndex index;
+    private double[] targetRatios;
+    private int[] targetHeights;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        sizes = SizeIndexTest.randomSizes(random, sizeCount);
+        index = new SizeIndex(sizes);
+        targetRatios = new double[256];
+        targetHeights = new int[256];
+        for (int i = 0; i < targetRatios.length; i++) {
+            targetRatios[i] = 0.5 + random.nextDouble() * 2;
+            targetHeights[i] = 100 + random.nextInt(2000);
+        }
+    }
+
+    private int nextTarget() {
+        next = (next + 1) & 255;
+        return next;
+    }
+
+    @Benchmark
+    public CameraSize previewSizeLinear() {
+        return LinearSizeSelection.bestAspect(sizes, targetRatios[nextTarget()]);
+    }
+
+    @Benchmark
+    public CameraSize previewSizeIndexed() {
+        return index.largestClosestRatio(targetRatios[nextTarget()]);
+    }
+
+    @Benchmark
+    public CameraSize pictureSizeLinear() {
+        int i = nextTarget();
+        return LinearSizeSelection.optimal(sizes, targetRatios[i], 0.1, targetHeights[i]);
+    }
+
+    @Benchmark
+    public CameraSize pictureSizeIndexed() {
+        int i = nextTarget();
+        return index.closestHeight(targetRatios[i], 0.1, targetHeights[i]);
+    }
+
+    @Benchmark
+    public SizeIndex buildIndex() {
+        return new SizeIndex(sizes);
+    }
+}
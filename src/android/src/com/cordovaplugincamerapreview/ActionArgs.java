@@ -0,0 +1,319 @@
+package com.cordovaplugincamerapreview;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Typed arguments of the plugin actions, in the positional layout
+ * www/CameraPreview.js sends them. Each type comes with the
+ * {@link ActionTable.Parser} that builds it; required arguments throw
+ * JSONException when missing, optional ones fall back to their defaults.
+ */
+final class ActionArgs {
+    private ActionArgs() {
+    }
+
+    static ActionTable.Parser<Integer> requiredIntArg(final int index) {
+        return new ActionTable.Parser<Integer>() {
+            @Override
+            public Integer parse(JSONArray args) throws JSONException {
+                return args.getInt(index);
+            }
+        };
+    }
+
+    static ActionTable.Parser<Long> longArg(final int index, final long defaultValue) {
+        return new ActionTable.Parser<Long>() {
+            @Override
+            public Long parse(JSONArray args) {
+                return args.optLong(index, defaultValue);
+            }
+        };
+    }
+
+    static ActionTable.Parser<Boolean> booleanArg(final int index, final boolean defaultValue) {
+        return new ActionTable.Parser<Boolean>() {
+            @Override
+            public Boolean parse(JSONArray args) {
+                return args.optBoolean(index, defaultValue);
+            }
+        };
+    }
+
+    static ActionTable.Parser<String> stringArg(final int index, final String defaultValue) {
+        return new ActionTable.Parser<String>() {
+            @Override
+            public String parse(JSONArray args) {
+                return args.isNull(index) ? defaultValue : args.optString(index, defaultValue);
+            }
+        };
+    }
+
+    static ActionTable.Parser<String> requiredStringArg(final int index) {
+        return new ActionTable.Parser<String>() {
+            @Override
+            public String parse(JSONArray args) throws JSONException {
+                return args.getString(index);
+            }
+        };
+    }
+
+    // Positions and sizes are in CSS pixels, converted by the plugin.
+    static final class StartCamera {
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        final String defaultCamera;
+        final boolean tapToTakePicture;
+        final boolean dragEnabled;
+        final boolean toBack;
+        final float alpha;
+        final String backend;
+        final String previewMode;
+
+        StartCamera(JSONArray args) throws JSONException {
+            x = args.getInt(0);
+            y = args.getInt(1);
+            width = args.getInt(2);
+            height = args.getInt(3);
+            defaultCamera = args.getString(4);
+            tapToTakePicture = args.getBoolean(5);
+            dragEnabled = args.getBoolean(6);
+            toBack = args.getBoolean(7);
+            alpha = toBack ? 1 : parseAlpha(args.getString(8));
+            backend = args.optString(9, "auto");
+            previewMode = args.optString(10, "surface");
+        }
+
+        private static float parseAlpha(String alpha) throws JSONException {
+            try {
+                return Float.parseFloat(alpha);
+            } catch (NumberFormatException e) {
+                throw new JSONException("alpha is not a number: " + alpha);
+            }
+        }
+
+        static final ActionTable.Parser<StartCamera> PARSER = new ActionTable.Parser<StartCamera>() {
+            @Override
+            public StartCamera parse(JSONArray args) throws JSONException {
+                return new StartCamera(args);
+            }
+        };
+    }
+
+    static final class Picture {
+        final int maxWidth;
+        final int maxHeight;
+        final OutputMode outputMode;
+        final EncoderOptions encoder;
+        final long sharpestWithinMs;
+
+        Picture(JSONArray args) {
+            maxWidth = (int) Math.floor(args.optDouble(0, 0));
+            maxHeight = (int) Math.floor(args.optDouble(1, 0));
+            outputMode = OutputMode.fromJsName(args.optString(2, OutputMode.BASE64.getJsName()));
+            encoder = encoderOptions(args, 3);
+            sharpestWithinMs = args.optLong(6, 0);
+        }
+
+        static final ActionTable.Parser<Picture> PARSER = new ActionTable.Parser<Picture>() {
+            @Override
+            public Picture parse(JSONArray args) {
+                return new Picture(args);
+            }
+        };
+    }
+
+    static final class Burst {
+        final int count;
+        final long intervalMs;
+        final int maxWidth;
+        final int maxHeight;
+        final OutputMode outputMode;
+        final BurstController.Overflow overflow;
+        final EncoderOptions encoder;
+
+        Burst(JSONArray args) {
+            count = args.optInt(0, 1);
+            intervalMs = args.optLong(1, 0);
+            maxWidth = (int) Math.floor(args.optDouble(2, 0));
+            maxHeight = (int) Math.floor(args.optDouble(3, 0));
+            outputMode = OutputMode.fromJsName(args.optString(4, OutputMode.BASE64.getJsName()));
+            overflow = BurstController.Overflow.fromJsName(args.optString(5, "wait"));
+            encoder = encoderOptions(args, 6);
+        }
+
+        static final ActionTable.Parser<Burst> PARSER = new ActionTable.Parser<Burst>() {
+            @Override
+            public Burst parse(JSONArray args) {
+                return new Burst(args);
+            }
+        };
+    }
+
+    // [format, quality, targetBytes] starting at index first.
+    private static EncoderOptions encoderOptions(JSONArray args, int first) {
+        EncoderOptions.Format format = EncoderOptions.Format.fromJsName(args.optString(first, EncoderOptions.Format.JPEG.getJsName()));
+        if (format == null) {
+            throw new IllegalArgumentException("Unsupported format: " + args.optString(first));
+        }
+        boolean qualitySet = args.length() > first + 1 && !args.isNull(first + 1);
+        int quality = qualitySet ? args.optInt(first + 1, EncoderOptions.DEFAULT_QUALITY) : EncoderOptions.DEFAULT_QUALITY;
+        return new EncoderOptions(format, quality, qualitySet, args.optInt(first + 2, 0));
+    }
+
+    static final class ZeroShutterLag {
+        final boolean enabled;
+        final int frameCount;
+
+        ZeroShutterLag(JSONArray args) {
+            enabled = args.optBoolean(0, false);
+            frameCount = args.optInt(1, PreviewRingBuffer.DEFAULT_CAPACITY);
+        }
+
+        static final ActionTable.Parser<ZeroShutterLag> PARSER = new ActionTable.Parser<ZeroShutterLag>() {
+            @Override
+            public ZeroShutterLag parse(JSONArray args) {
+                return new ZeroShutterLag(args);
+            }
+        };
+    }
+
+    // Negative values leave the setting unchanged.
+    static final class PoolBudget {
+        final long bitmapBytes;
+        final long bufferBytes;
+        final int directFrames;
+        final long leakDeadlineMs;
+
+        PoolBudget(JSONArray args) {
+            bitmapBytes = args.optLong(0, -1);
+            bufferBytes = args.optLong(1, -1);
+            directFrames = args.optInt(2, -1);
+            leakDeadlineMs = args.optLong(3, -1);
+        }
+
+        static final ActionTable.Parser<PoolBudget> PARSER = new ActionTable.Parser<PoolBudget>() {
+            @Override
+            public PoolBudget parse(JSONArray args) {
+                return new PoolBudget(args);
+            }
+        };
+    }
+
+    static final class FrameStream {
+        final int fps;
+        final int maxWidth;
+
+        FrameStream(JSONArray args) {
+            fps = args.optInt(0, JsFrameStreamer.DEFAULT_FPS);
+            maxWidth = args.optInt(1, JsFrameStreamer.DEFAULT_MAX_WIDTH);
+        }
+
+        static final ActionTable.Parser<FrameStream> PARSER = new ActionTable.Parser<FrameStream>() {
+            @Override
+            public FrameStream parse(JSONArray args) {
+                return new FrameStream(args);
+            }
+        };
+    }
+
+    static final class ThumbnailStream {
+        final int fps;
+        final int maxWidth;
+        final int maxHeight;
+        final boolean jpeg;
+        final int quality;
+
+        ThumbnailStream(JSONArray args) {
+            fps = args.optInt(0, ThumbnailStreamer.DEFAULT_FPS);
+            maxWidth = args.optInt(1, ThumbnailStreamer.DEFAULT_WIDTH);
+            maxHeight = args.optInt(2, ThumbnailStreamer.DEFAULT_HEIGHT);
+            String format = args.optString(3, "jpeg");
+            if (!format.equals("jpeg") && !format.equals("rgb")) {
+                throw new IllegalArgumentException("Unsupported thumbnail format: " + format);
+            }
+            jpeg = format.equals("jpeg");
+            quality = args.optInt(4, ThumbnailStreamer.DEFAULT_QUALITY);
+        }
+
+        static final ActionTable.Parser<ThumbnailStream> PARSER = new ActionTable.Parser<ThumbnailStream>() {
+            @Override
+            public ThumbnailStream parse(JSONArray args) {
+                return new ThumbnailStream(args);
+            }
+        };
+    }
+
+    // Settings of the configure action; null fields are left unchanged.
+    static final class Configure {
+        final Boolean frontFacing;
+        final Integer flashMode;
+        final Integer focusMode;
+        final String colorEffect;
+
+        Configure(JSONArray args) throws JSONException {
+            JSONObject settings = args.getJSONObject(0);
+            String camera = settings.isNull("camera") ? null : settings.getString("camera");
+            if (camera != null && !camera.equals("front") && !camera.equals("back")) {
+                throw new IllegalArgumentException("Unknown camera: " + camera);
+            }
+            frontFacing = camera == null ? null : camera.equals("front");
+            flashMode = settings.isNull("flashMode") ? null : settings.getInt("flashMode");
+            focusMode = settings.isNull("focusMode") ? null : settings.getInt("focusMode");
+            colorEffect = settings.isNull("colorEffect") ? null : settings.getString("colorEffect");
+        }
+
+        static final ActionTable.Parser<Configure> PARSER = new ActionTable.Parser<Configure>() {
+            @Override
+            public Configure parse(JSONArray args) throws JSONException {
+                return new Configure(args);
+            }
+        };
+    }
+
+    static final class Analyzer {
+        final String type;
+        final int fps;
+        final long budgetNanos;
+
+        Analyzer(JSONObject config) {
+            type = config.optString("type");
+            if (!SharpnessAnalyzer.NAME.equals(type) && !ExposureAnalyzer.NAME.equals(type)
+                    && !MotionAnalyzer.NAME.equals(type) && !DocumentEdgeAnalyzer.NAME.equals(type)) {
+                throw new IllegalArgumentException("Unknown analyzer: " + type);
+            }
+            fps = config.optInt("fps", 5);
+            budgetNanos = (long) (config.optDouble("budgetMs", 5) * 1000000L);
+        }
+    }
+
+    static final class Analyzers {
+        final List<Analyzer> analyzers;
+
+        Analyzers(JSONArray args) throws JSONException {
+            JSONArray configs = args.optJSONArray(0);
+            if (configs == null || configs.length() == 0) {
+                throw new IllegalArgumentException("No analyzers given");
+            }
+            List<Analyzer> list = new ArrayList<Analyzer>(configs.length());
+            for (int i = 0; i < configs.length(); i++) {
+                list.add(new Analyzer(configs.getJSONObject(i)));
+            }
+            analyzers = Collections.unmodifiableList(list);
+        }
+
+        static final ActionTable.Parser<Analyzers> PARSER = new ActionTable.Parser<Analyzers>() {
+            @Override
+            public Analyzers parse(JSONArray args) throws JSONException {
+                return new Analyzers(args);
+            }
+        };
+    }
+}
@@ -0,0 +1,145 @@
+package com.cordovaplugincamerapreview;
+
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The plugin's actions by name. Each action declares the thread it runs on
+ * and a parser that turns its JSON arguments into a typed object once, on the
+ * bridge thread, so handlers never read the raw array and bad arguments are
+ * rejected before anything is scheduled. While metrics are enabled the time
+ * from the bridge call until the handler returns is recorded per action.
+ */
+class ActionTable {
+    private static final String TAG = "ActionTable";
+
+    enum Target {
+        // inline on the WebView bridge thread, for trivial bookkeeping
+        BRIDGE,
+        // the main thread, for views, fragments and main-thread state
+        UI,
+        // the camera thread, serialized with camera work
+        CAMERA,
+        // the shared Cordova thread pool
+        WORKER
+    }
+
+    interface Executor {
+        void execute(Target target, Runnable work);
+
+        // Checked on the target thread for actions that need a started camera.
+        boolean isCameraStarted();
+    }
+
+    // Throws JSONException or IllegalArgumentException for arguments the action can't take.
+    interface Parser<A> {
+        A parse(JSONArray args) throws JSONException;
+    }
+
+    interface Handler<A> {
+        void run(A args, CallbackContext callbackContext) throws JSONException;
+    }
+
+    static final Parser<Void> NO_ARGS = new Parser<Void>() {
+        @Override
+        public Void parse(JSONArray args) {
+            return null;
+        }
+    };
+
+    static final class Action<A> {
+        final String name;
+        final Target target;
+        final boolean needsCamera;
+        final LatencyHistogram latency = new LatencyHistogram();
+        private final Parser<A> parser;
+        private final Handler<A> handler;
+
+        private Action(String name, Target target, boolean needsCamera, Parser<A> parser, Handler<A> handler) {
+            this.name = name;
+            this.target = target;
+            this.needsCamera = needsCamera;
+            this.parser = parser;
+            this.handler = handler;
+        }
+    }
+
+    private final Map<String, Action<?>> actions = new LinkedHashMap<String, Action<?>>();
+    private final Executor executor;
+
+    ActionTable(Executor executor) {
+        this.executor = executor;
+    }
+
+    <A> void register(String name, Target target, boolean needsCamera, Parser<A> parser, Handler<A> handler) {
+        actions.put(name, new Action<A>(name, target, needsCamera, parser, handler));
+    }
+
+    // In registration order.
+    Collection<Action<?>> getActions() {
+        return actions.values();
+    }
+
+    void resetLatencies() {
+        for (Action<?> action : actions.values()) {
+            action.latency.reset();
+        }
+    }
+
+    // Returns false for unknown actions, like CordovaPlugin.execute.
+    boolean dispatch(String name, JSONArray args, CallbackContext callbackContext) {
+        Action<?> action = actions.get(name);
+        if (action == null) {
+            return false;
+        }
+        dispatch(action, args, callbackContext);
+        return true;
+    }
+
+    private <A> void dispatch(final Action<A> action, JSONArray args, final CallbackContext callbackContext) {
+        final long startNanos = System.nanoTime();
+        final A parsed;
+        try {
+            parsed = action.parser.parse(args);
+        } catch (JSONException e) {
+            callbackContext.error("Invalid arguments for " + action.name + ": " + e.getMessage());
+            return;
+        } catch (IllegalArgumentException e) {
+            callbackContext.error(e.getMessage());
+            return;
+        }
+
+        Runnable work = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (action.needsCamera && !executor.isCameraStarted()) {
+                        callbackContext.error("Camera is not started");
+                        return;
+                    }
+                    action.handler.run(parsed, callbackContext);
+                } catch (Exception e) {
+                    Log.e(TAG, "Action " + action.name + " failed", e);
+                    callbackContext.error(e.toString());
+                } finally {
+                    if (Metrics.isEnabled()) {
+                        action.latency.record(System.nanoTime() - startNanos);
+                    }
+                }
+            }
+        };
+
+        if (action.target == Target.BRIDGE) {
+            work.run();
+        } else {
+            executor.execute(action.target, work);
+        }
+    }
+}
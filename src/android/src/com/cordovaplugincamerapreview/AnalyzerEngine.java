@@ -0,0 +1,162 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Runs {@link FrameAnalyzer}s on live preview frames on a worker thread of its
+ * own, so analysis never holds up the camera callback or the UI. A frame is
+ * copied only when at least one analyzer is due; while the worker is busy a
+ * newer frame replaces the waiting one (keep-latest), so a slow pass drops
+ * frames rather than queueing them. {@link AnalyzerScheduler} picks which
+ * analyzers run on each frame.
+ *
+ * Plain Java, the two frame buffers are reused between frames.
+ */
+class AnalyzerEngine implements FrameConsumer {
+    interface Listener {
+        // Called on the worker thread; values are only valid during the call.
+        void onAnalyzerResult(String analyzer, long timestampNanos, float[] values);
+    }
+
+    private final AnalyzerScheduler scheduler = new AnalyzerScheduler();
+    private final Listener listener;
+    private final Object lock = new Object();
+    private byte[] pending;
+    private int pendingWidth;
+    private int pendingHeight;
+    private long pendingTimestamp;
+    private boolean hasPending;
+    private long droppedFrames;
+    private Thread worker;
+    private volatile boolean running;
+
+    AnalyzerEngine(Listener listener) {
+        this.listener = listener;
+    }
+
+    void addAnalyzer(FrameAnalyzer analyzer, int targetFps, long costBudgetNanos) {
+        scheduler.add(analyzer, targetFps, costBudgetNanos);
+    }
+
+    void removeAnalyzer(String name) {
+        scheduler.remove(name);
+    }
+
+    AnalyzerScheduler getScheduler() {
+        return scheduler;
+    }
+
+    // Frames copied for analysis but replaced by a newer one before the worker got to them.
+    long getDroppedFrames() {
+        synchronized (lock) {
+            return droppedFrames;
+        }
+    }
+
+    void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+            worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    analyzeLoop();
+                }
+            }, "FrameAnalyzer");
+            worker.setPriority(Thread.NORM_PRIORITY - 1);
+            worker.start();
+        }
+    }
+
+    void stop() {
+        synchronized (lock) {
+            running = false;
+            hasPending = false;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void onFrame(byte[] nv21, int width, int height, long timestampNanos) {
+        if (!running || !scheduler.offer(timestampNanos)) {
+            return;
+        }
+        int size = width * height * 3 / 2;
+        synchronized (lock) {
+            if (pending == null || pending.length < size) {
+                pending = new byte[size];
+            }
+            System.arraycopy(nv21, 0, pending, 0, size);
+            pendingWidth = width;
+            pendingHeight = height;
+            pendingTimestamp = timestampNanos;
+            if (hasPending) {
+                droppedFrames++;
+            }
+            hasPending = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void analyzeLoop() {
+        byte[] frame = null;
+        int frameWidth = 0;
+        int frameHeight = 0;
+        AnalyzerScheduler.Entry[] due = new AnalyzerScheduler.Entry[0];
+
+        while (true) {
+            long timestamp;
+            int width;
+            int height;
+            synchronized (lock) {
+                while (running && !hasPending) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+                if (!running || worker != Thread.currentThread()) {
+                    return;
+                }
+                // swap buffers, the camera thread fills the other one meanwhile
+                byte[] latest = pending;
+                pending = frame;
+                frame = latest;
+                width = pendingWidth;
+                height = pendingHeight;
+                timestamp = pendingTimestamp;
+                hasPending = false;
+            }
+
+            if (width != frameWidth || height != frameHeight) {
+                frameWidth = width;
+                frameHeight = height;
+                for (AnalyzerScheduler.Entry entry : scheduler.getEntries()) {
+                    entry.analyzer.reset();
+                }
+            }
+
+            if (due.length < scheduler.size()) {
+                due = new AnalyzerScheduler.Entry[scheduler.size()];
+            }
+            int count = scheduler.collectDue(timestamp, due);
+            for (int i = 0; i < count; i++) {
+                AnalyzerScheduler.Entry entry = due[i];
+                due[i] = null;
+                long start = System.nanoTime();
+                float[] values;
+                try {
+                    values = entry.analyzer.analyze(frame, width, height, timestamp);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    values = null;
+                }
+                scheduler.onAnalyzed(entry, timestamp, System.nanoTime() - start);
+                if (values != null) {
+                    listener.onAnalyzerResult(entry.analyzer.getName(), timestamp, values);
+                }
+            }
+        }
+    }
+}
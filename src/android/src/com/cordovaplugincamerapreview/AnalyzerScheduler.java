@@ -0,0 +1,144 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Decides which analyzers run on a frame. Each analyzer is registered with a
+ * target rate and a cost budget per run. It is due once its interval has passed
+ * since its last run; when its average run time exceeds the budget the interval
+ * is stretched in proportion, up to {@link #MAX_SLOWDOWN} times, so a slow
+ * analyzer skips frames instead of taking time from the others. Due analyzers
+ * are handed out most overdue first.
+ *
+ * Nothing here allocates per frame. Registration may happen on any thread.
+ */
+final class AnalyzerScheduler {
+    // weight of the latest run in the average cost
+    private static final double COST_SMOOTHING = 0.2d;
+    // an analyzer over budget still runs at a tenth of its target rate
+    private static final double MAX_SLOWDOWN = 10d;
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    static final class Entry {
+        final FrameAnalyzer analyzer;
+        final long minIntervalNanos;
+        final long costBudgetNanos;
+        private long intervalNanos;
+        private long nextDueNanos;
+        private long averageCostNanos;
+        private long offered;
+        private long analyzed;
+
+        Entry(FrameAnalyzer analyzer, int targetFps, long costBudgetNanos) {
+            this.analyzer = analyzer;
+            this.minIntervalNanos = 1000000000L / Math.max(1, targetFps);
+            this.costBudgetNanos = Math.max(1, costBudgetNanos);
+            this.intervalNanos = minIntervalNanos;
+        }
+
+        synchronized long getIntervalNanos() {
+            return intervalNanos;
+        }
+
+        synchronized long getAverageCostNanos() {
+            return averageCostNanos;
+        }
+
+        synchronized long getAnalyzed() {
+            return analyzed;
+        }
+
+        // Frames this analyzer did not run on.
+        synchronized long getSkipped() {
+            return offered - analyzed;
+        }
+    }
+
+    private volatile Entry[] entries = NO_ENTRIES;
+
+    synchronized Entry add(FrameAnalyzer analyzer, int targetFps, long costBudgetNanos) {
+        remove(analyzer.getName());
+        Entry entry = new Entry(analyzer, targetFps, costBudgetNanos);
+        Entry[] updated = new Entry[entries.length + 1];
+        System.arraycopy(entries, 0, updated, 0, entries.length);
+        updated[entries.length] = entry;
+        entries = updated;
+        return entry;
+    }
+
+    synchronized void remove(String name) {
+        Entry[] current = entries;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].analyzer.getName().equals(name)) {
+                Entry[] updated = new Entry[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, updated.length - i);
+                entries = updated.length == 0 ? NO_ENTRIES : updated;
+                return;
+            }
+        }
+    }
+
+    synchronized void clear() {
+        entries = NO_ENTRIES;
+    }
+
+    Entry[] getEntries() {
+        return entries;
+    }
+
+    int size() {
+        return entries.length;
+    }
+
+    // Counts the frame as offered to every analyzer and tells whether any of them wants it.
+    boolean offer(long timestampNanos) {
+        boolean due = false;
+        for (Entry entry : entries) {
+            synchronized (entry) {
+                entry.offered++;
+                if (timestampNanos >= entry.nextDueNanos) {
+                    due = true;
+                }
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Fills {@code due} with the analyzers due at {@code timestampNanos}, most
+     * overdue first, and returns how many there are. {@code due} must hold at
+     * least {@link #size()} entries.
+     */
+    int collectDue(long timestampNanos, Entry[] due) {
+        int count = 0;
+        for (Entry entry : entries) {
+            long overdue;
+            synchronized (entry) {
+                overdue = timestampNanos - entry.nextDueNanos;
+            }
+            if (overdue < 0 || count >= due.length) {
+                continue;
+            }
+            // insertion sort, there are only a handful of analyzers
+            int i = count++;
+            while (i > 0 && timestampNanos - due[i - 1].nextDueNanos < overdue) {
+                due[i] = due[i - 1];
+                i--;
+            }
+            due[i] = entry;
+        }
+        return count;
+    }
+
+    void onAnalyzed(Entry entry, long timestampNanos, long costNanos) {
+        synchronized (entry) {
+            entry.analyzed++;
+            entry.averageCostNanos = entry.analyzed == 1
+                    ? costNanos
+                    : (long) (entry.averageCostNanos + COST_SMOOTHING * (costNanos - entry.averageCostNanos));
+            entry.intervalNanos = entry.averageCostNanos > entry.costBudgetNanos
+                    ? (long) (entry.minIntervalNanos * Math.min(MAX_SLOWDOWN, entry.averageCostNanos / (double) entry.costBudgetNanos))
+                    : entry.minIntervalNanos;
+            entry.nextDueNanos = timestampNanos + entry.intervalNanos;
+        }
+    }
+}
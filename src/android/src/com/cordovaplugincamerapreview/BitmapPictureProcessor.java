@@ -0,0 +1,366 @@
+package com.cordovaplugincamerapreview;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.ImageFormat;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.YuvImage;
+import android.util.Log;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Produces the final picture with one region decode and one matrix transform.
+ * The crop rectangle and sample size come from {@link TransformPlanner}, so the
+ * decoded bitmap is at most twice the output size in each dimension instead of
+ * the full sensor resolution.
+ *
+ * Decode and transform targets come from a {@link BitmapPool} and go back to it
+ * once encoded, so repeated captures with the same settings reuse the same
+ * bitmaps. The matrix, canvas and paint are reused too; the pipeline calls a
+ * processor from its single worker thread only.
+ *
+ * Camera JPEGs that only need rotating or mirroring are not decoded at all: the
+ * original bytes are passed through with an EXIF orientation tag.
+ */
+class BitmapPictureProcessor implements CapturePipeline.PictureProcessor<BitmapPictureProcessor.Picture> {
+    private static final String TAG = "BitmapPictureProcessor";
+    private static final int PREVIEW_FRAME_QUALITY = 95;
+
+    private final BitmapPool bitmapPool;
+    private final ByteArrayPool bufferPool;
+    private final Matrix matrix = new Matrix();
+    private final RectF bounds = new RectF();
+    private final Canvas canvas = new Canvas();
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    // size the last region decode actually produced, to look up the matching pooled bitmap
+    private int lastCropWidth;
+    private int lastCropHeight;
+    private int lastSampleSize;
+    private int lastDecodedWidth;
+    private int lastDecodedHeight;
+
+    BitmapPictureProcessor(BitmapPool bitmapPool, ByteArrayPool bufferPool) {
+        this.bitmapPool = bitmapPool;
+        this.bufferPool = bufferPool;
+    }
+
+    static class Picture {
+        final Bitmap bitmap;
+        final TransformPlanner.Plan plan;
+        // set instead of bitmap when the camera JPEG is passed through
+        final byte[] jpeg;
+
+        Picture(Bitmap bitmap, TransformPlanner.Plan plan) {
+            this(bitmap, plan, null);
+        }
+
+        Picture(Bitmap bitmap, TransformPlanner.Plan plan, byte[] jpeg) {
+            this.bitmap = bitmap;
+            this.plan = plan;
+            this.jpeg = jpeg;
+        }
+    }
+
+    @Override
+    public Picture decode(CaptureRequest request) throws IOException {
+        if (request.nv21) {
+            return decodePreviewFrame(request);
+        }
+
+        Picture passthrough = passthrough(request);
+        if (passthrough != null) {
+            return passthrough;
+        }
+
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(request.data, 0, request.data.length, false);
+        try {
+            TransformPlanner.Plan plan = TransformPlanner.plan(
+                    decoder.getWidth(),
+                    decoder.getHeight(),
+                    request.displayOrientation,
+                    request.mirror,
+                    request.viewWidth,
+                    request.viewHeight,
+                    request.maxWidth,
+                    request.maxHeight
+            );
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Decoding " + decoder.getWidth() + "x" + decoder.getHeight() + " with " + plan);
+            }
+
+            BitmapFactory.Options options = decodeOptions(plan);
+            Rect region = new Rect(plan.cropLeft, plan.cropTop, plan.cropLeft + plan.cropWidth, plan.cropTop + plan.cropHeight);
+
+            Bitmap bitmap;
+            try {
+                bitmap = decoder.decodeRegion(region, options);
+            } catch (IllegalArgumentException e) {
+                // the pooled bitmap was not accepted, decode into a fresh one
+                bitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+                bitmap = decoder.decodeRegion(region, options);
+            }
+            if (bitmap == null) {
+                throw new IOException("Could not decode picture region");
+            }
+            rememberDecodedSize(plan, bitmap);
+            return new Picture(bitmap, plan);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    // Only reads the JPEG header; returns null when the picture needs cropping, scaling or re-encoding.
+    private Picture passthrough(CaptureRequest request) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(request.data, 0, request.data.length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+
+        TransformPlanner.Plan plan = TransformPlanner.plan(
+                bounds.outWidth,
+                bounds.outHeight,
+                request.displayOrientation,
+                request.mirror,
+                request.viewWidth,
+                request.viewHeight,
+                request.maxWidth,
+                request.maxHeight
+        );
+        if (!request.encoder.allowsPassthrough(request.data.length)
+                || !plan.isLossless(bounds.outWidth, bounds.outHeight)
+                || !JpegOrientation.canWrite(request.data)) {
+            return null;
+        }
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Passing through " + bounds.outWidth + "x" + bounds.outHeight + " with " + plan);
+        }
+        return new Picture(null, plan, request.data);
+    }
+
+    // Zero shutter lag: compress only the crop region of the NV21 frame, then decode it subsampled.
+    private Picture decodePreviewFrame(CaptureRequest request) throws IOException {
+        TransformPlanner.Plan plan = TransformPlanner.plan(
+                request.frameWidth,
+                request.frameHeight,
+                request.displayOrientation,
+                request.mirror,
+                request.viewWidth,
+                request.viewHeight,
+                request.maxWidth,
+                request.maxHeight
+        );
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Decoding preview frame " + request.frameWidth + "x" + request.frameHeight + " with " + plan);
+        }
+
+        YuvImage yuvImage = new YuvImage(request.data, ImageFormat.NV21, request.frameWidth, request.frameHeight, null);
+        Rect region = new Rect(plan.cropLeft, plan.cropTop, plan.cropLeft + plan.cropWidth, plan.cropTop + plan.cropHeight);
+        ByteArrayPool.Stream jpeg = bufferPool.openStream(plan.cropWidth * plan.cropHeight / 4);
+        try {
+            if (!yuvImage.compressToJpeg(region, PREVIEW_FRAME_QUALITY, jpeg)) {
+                throw new IOException("Could not compress preview frame");
+            }
+            request.releaseData();
+
+            BitmapFactory.Options options = decodeOptions(plan);
+            Bitmap bitmap;
+            try {
+                bitmap = BitmapFactory.decodeByteArray(jpeg.getBuffer(), 0, jpeg.size(), options);
+            } catch (IllegalArgumentException e) {
+                bitmapPool.put(options.inBitmap);
+                options.inBitmap = null;
+                bitmap = BitmapFactory.decodeByteArray(jpeg.getBuffer(), 0, jpeg.size(), options);
+            }
+            if (bitmap == null) {
+                throw new IOException("Could not decode preview frame");
+            }
+            rememberDecodedSize(plan, bitmap);
+            return new Picture(bitmap, plan);
+        } finally {
+            jpeg.release();
+        }
+    }
+
+    @Override
+    public Picture transform(Picture picture, CaptureRequest request) {
+        if (picture.jpeg != null) {
+            return picture;
+        }
+
+        Bitmap bitmap = picture.bitmap;
+        TransformPlanner.Plan plan = picture.plan;
+
+        int targetWidth = plan.getUnrotatedOutputWidth();
+        int targetHeight = plan.getUnrotatedOutputHeight();
+
+        if (bitmap.getWidth() == targetWidth && bitmap.getHeight() == targetHeight && plan.rotation == 0 && !plan.mirror) {
+            return picture;
+        }
+
+        // scale, mirror and rotate to screen orientation in one pass
+        matrix.setScale(
+                (plan.mirror ? -1.0f : 1.0f) * targetWidth / (float) bitmap.getWidth(),
+                targetHeight / (float) bitmap.getHeight()
+        );
+        matrix.postRotate(plan.rotation);
+
+        // move the result back to the origin, like createBitmap does
+        bounds.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        matrix.mapRect(bounds);
+        matrix.postTranslate(-bounds.left, -bounds.top);
+
+        try {
+            Bitmap target = bitmapPool.get(plan.outputWidth, plan.outputHeight, Bitmap.Config.ARGB_8888);
+            if (target == null) {
+                target = Bitmap.createBitmap(plan.outputWidth, plan.outputHeight, Bitmap.Config.ARGB_8888);
+            }
+            canvas.setBitmap(target);
+            canvas.drawBitmap(bitmap, matrix, paint);
+            canvas.setBitmap(null);
+            return new Picture(target, plan);
+        } catch (OutOfMemoryError oom) {
+            // You can run out of memory if the image is very large:
+            // http://simonmacdonald.blogspot.ca/2012/07/change-to-camera-code-in-phonegap-190.html
+            // If this happens, return the cropped region untransformed rather than crashing the app.
+            Log.w(TAG, "Out of memory while transforming picture, returning it untransformed");
+            return picture;
+        }
+    }
+
+    @Override
+    public EncodeResult encode(Picture picture, CaptureRequest request, OutputStream output) throws IOException {
+        EncoderOptions options = request.encoder;
+        if (picture.jpeg != null) {
+            int bytes = JpegOrientation.write(picture.jpeg, JpegOrientation.fromTransform(picture.plan.rotation, picture.plan.mirror), output);
+            return new EncodeResult(EncoderOptions.Format.JPEG, EncodeResult.UNKNOWN_QUALITY, bytes);
+        }
+        if (options.targetBytes > 0) {
+            return encodeToTarget(picture.bitmap, options, output);
+        }
+
+        CountingOutputStream counted = new CountingOutputStream(output);
+        compress(picture.bitmap, options.format, options.quality, counted);
+        return new EncodeResult(options.format, options.quality, counted.count);
+    }
+
+    /**
+     * Binary search for the highest quality whose output fits the byte budget,
+     * starting with the requested quality since most pictures fit right away.
+     * Attempts are encoded into two pooled buffers that swap roles, the best fit
+     * so far and the next attempt. If nothing fits the minimum quality is used.
+     */
+    private EncodeResult encodeToTarget(Bitmap bitmap, EncoderOptions options, OutputStream output) throws IOException {
+        ByteArrayPool.Stream attempt = bufferPool.openStream(options.targetBytes + options.targetBytes / 4);
+        ByteArrayPool.Stream best = null;
+        int bestQuality = EncoderOptions.MIN_QUALITY;
+        int low = EncoderOptions.MIN_QUALITY;
+        int high = options.quality;
+        int quality = high;
+        int attempts = 0;
+        try {
+            while (true) {
+                attempt.reset();
+                compress(bitmap, options.format, quality, attempt);
+                attempts++;
+                if (attempt.size() <= options.targetBytes) {
+                    ByteArrayPool.Stream previous = best;
+                    best = attempt;
+                    bestQuality = quality;
+                    attempt = previous != null ? previous : bufferPool.openStream(best.size());
+                    low = quality + 1;
+                } else {
+                    high = quality - 1;
+                }
+                if (low > high) {
+                    break;
+                }
+                quality = (low + high) >>> 1;
+            }
+
+            // nothing fit: the last attempt was the minimum quality
+            ByteArrayPool.Stream result = best != null ? best : attempt;
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Encoded at quality " + bestQuality + " to " + result.size() + " bytes in " + attempts + " attempts");
+            }
+            output.write(result.getBuffer(), 0, result.size());
+            return new EncodeResult(options.format, bestQuality, result.size());
+        } finally {
+            attempt.release();
+            if (best != null) {
+                best.release();
+            }
+        }
+    }
+
+    static void compress(Bitmap bitmap, EncoderOptions.Format format, int quality, OutputStream output) throws IOException {
+        Bitmap.CompressFormat compressFormat = format == EncoderOptions.Format.WEBP ? Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.JPEG;
+        if (!bitmap.compress(compressFormat, quality, output)) {
+            throw new IOException("Could not encode picture");
+        }
+    }
+
+    @Override
+    public void recycle(Picture picture) {
+        if (picture != null) {
+            bitmapPool.put(picture.bitmap);
+        }
+    }
+
+    private BitmapFactory.Options decodeOptions(TransformPlanner.Plan plan) {
+        int width;
+        int height;
+        if (plan.cropWidth == lastCropWidth && plan.cropHeight == lastCropHeight && plan.sampleSize == lastSampleSize) {
+            width = lastDecodedWidth;
+            height = lastDecodedHeight;
+        } else {
+            width = (plan.cropWidth + plan.sampleSize - 1) / plan.sampleSize;
+            height = (plan.cropHeight + plan.sampleSize - 1) / plan.sampleSize;
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = plan.sampleSize;
+        options.inMutable = true;
+        options.inBitmap = bitmapPool.get(width, height, Bitmap.Config.ARGB_8888);
+        return options;
+    }
+
+    private void rememberDecodedSize(TransformPlanner.Plan plan, Bitmap bitmap) {
+        lastCropWidth = plan.cropWidth;
+        lastCropHeight = plan.cropHeight;
+        lastSampleSize = plan.sampleSize;
+        lastDecodedWidth = bitmap.getWidth();
+        lastDecodedHeight = bitmap.getHeight();
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        int count;
+
+        CountingOutputStream(OutputStream output) {
+            super(output);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.cordovaplugincamerapreview;
+
+import android.graphics.Bitmap;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Keeps mutable bitmaps of earlier captures for reuse as decode targets
+ * ({@code inBitmap}) and transform targets, so repeated captures at the same
+ * settings stop allocating full-size bitmaps. Bitmaps are matched by exact
+ * width, height and config. The pool holds at most {@code budget} bytes; the
+ * least recently returned bitmaps are recycled first.
+ */
+class BitmapPool {
+    // least recently returned first
+    private final LinkedList<Bitmap> bitmaps = new LinkedList<Bitmap>();
+    private long budget;
+    private long size;
+    private int hits;
+    private int misses;
+    private int evictions;
+
+    BitmapPool(long budget) {
+        this.budget = budget;
+    }
+
+    // Returns a pooled bitmap of exactly this size and config, or null.
+    synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        Iterator<Bitmap> iterator = bitmaps.descendingIterator();
+        while (iterator.hasNext()) {
+            Bitmap bitmap = iterator.next();
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                iterator.remove();
+                size -= bitmap.getByteCount();
+                hits++;
+                return bitmap;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    // Hands a bitmap back; it is recycled right away if it can't be pooled.
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        if (!bitmap.isMutable() || bitmap.getByteCount() > budget) {
+            bitmap.recycle();
+            return;
+        }
+        bitmaps.addLast(bitmap);
+        size += bitmap.getByteCount();
+        trimTo(budget);
+    }
+
+    synchronized void setBudget(long budget) {
+        this.budget = Math.max(0, budget);
+        trimTo(this.budget);
+    }
+
+    synchronized void clear() {
+        trimTo(0);
+    }
+
+    synchronized long getBudget() {
+        return budget;
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    synchronized int getHits() {
+        return hits;
+    }
+
+    synchronized int getMisses() {
+        return misses;
+    }
+
+    synchronized int getEvictions() {
+        return evictions;
+    }
+
+    synchronized double getHitRate() {
+        int requests = hits + misses;
+        return requests == 0 ? 0 : hits / (double) requests;
+    }
+
+    private void trimTo(long maxSize) {
+        while (size > maxSize && !bitmaps.isEmpty()) {
+            Bitmap evicted = bitmaps.removeFirst();
+            size -= evicted.getByteCount();
+            evicted.recycle();
+            evictions++;
+        }
+    }
+}
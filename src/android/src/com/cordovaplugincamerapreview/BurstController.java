@@ -0,0 +1,128 @@
+package com.cordovaplugincamerapreview;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Paces a burst of N shots at a target interval. The next shutter is scheduled
+ * as soon as the previous JPEG callback has returned and the preview has been
+ * restarted; encoding happens in the capture pipeline meanwhile. When the
+ * pipeline queue is full the burst either waits for it to drain
+ * ({@link Overflow#WAIT}) or lets the pipeline drop its oldest queued shot
+ * ({@link Overflow#DROP_OLDEST}).
+ */
+class BurstController {
+    private static final String TAG = "BurstController";
+    private static final long BACKPRESSURE_POLL_MS = 10;
+
+    enum Overflow {
+        WAIT,
+        DROP_OLDEST;
+
+        static Overflow fromJsName(String name) {
+            return "dropOldest".equalsIgnoreCase(name) ? DROP_OLDEST : WAIT;
+        }
+    }
+
+    interface Shutter {
+        // Triggers one shot; returns false if the camera could not take it.
+        boolean shoot(int sequence, boolean dropOldest);
+
+        boolean isQueueFull();
+    }
+
+    interface Listener {
+        void onBurstFinished(int taken, int requested);
+    }
+
+    private final Handler handler;
+    private final Shutter shutter;
+    private Listener listener;
+    private Overflow overflow;
+    private long intervalMs;
+    private int requested;
+    private int taken;
+    private int nextSequence;
+    private long lastShutterAt;
+    private boolean running;
+    private boolean shotInFlight;
+
+    private final Runnable shootNext = new Runnable() {
+        @Override
+        public void run() {
+            if (!running) {
+                return;
+            }
+            if (nextSequence >= requested) {
+                finish();
+                return;
+            }
+            if (overflow == Overflow.WAIT && shutter.isQueueFull()) {
+                handler.postDelayed(this, BACKPRESSURE_POLL_MS);
+                return;
+            }
+
+            lastShutterAt = SystemClock.elapsedRealtime();
+            shotInFlight = true;
+            if (!shutter.shoot(nextSequence++, overflow == Overflow.DROP_OLDEST)) {
+                Log.w(TAG, "Burst aborted, camera could not take picture " + (nextSequence - 1));
+                shotInFlight = false;
+                finish();
+            }
+        }
+    };
+
+    BurstController(Handler handler, Shutter shutter) {
+        this.handler = handler;
+        this.shutter = shutter;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    void start(int count, long intervalMs, Overflow overflow, Listener listener) {
+        this.requested = count;
+        this.intervalMs = Math.max(0, intervalMs);
+        this.overflow = overflow;
+        this.listener = listener;
+        this.taken = 0;
+        this.nextSequence = 0;
+        this.running = true;
+        this.shotInFlight = false;
+        handler.post(shootNext);
+    }
+
+    // Called from the JPEG callback once the shot has been handed to the pipeline.
+    void onShutterComplete() {
+        shotInFlight = false;
+        taken++;
+        if (!running) {
+            return;
+        }
+        long elapsed = SystemClock.elapsedRealtime() - lastShutterAt;
+        handler.postDelayed(shootNext, Math.max(0, intervalMs - elapsed));
+    }
+
+    void cancel() {
+        if (running) {
+            handler.removeCallbacks(shootNext);
+            finish();
+        }
+    }
+
+    boolean isShotInFlight() {
+        return shotInFlight;
+    }
+
+    private void finish() {
+        running = false;
+        handler.removeCallbacks(shootNext);
+        if (listener != null) {
+            Listener current = listener;
+            listener = null;
+            current.onBurstFinished(taken, requested);
+        }
+    }
+}
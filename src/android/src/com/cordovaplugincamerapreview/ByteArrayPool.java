@@ -0,0 +1,124 @@
+package com.cordovaplugincamerapreview;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Reusable backing arrays for encoder output. {@link #openStream(int)} returns
+ * a {@link ByteArrayOutputStream} that starts on a pooled array of at least the
+ * expected size, so the encoder neither grows nor copies it; readers take the
+ * bytes straight from {@link Stream#getBuffer()}. Arrays are returned with
+ * {@link Stream#release()} and evicted least recently used first once the pool
+ * exceeds its budget.
+ */
+class ByteArrayPool {
+    // least recently returned first
+    private final LinkedList<byte[]> arrays = new LinkedList<byte[]>();
+    private long budget;
+    private long size;
+    private int hits;
+    private int misses;
+    private int evictions;
+
+    ByteArrayPool(long budget) {
+        this.budget = budget;
+    }
+
+    class Stream extends ByteArrayOutputStream {
+        private boolean released;
+
+        Stream(byte[] buffer) {
+            super(0);
+            buf = buffer;
+        }
+
+        // The backing array; valid bytes are 0 to size().
+        byte[] getBuffer() {
+            return buf;
+        }
+
+        // Returns the backing array to the pool; the stream must not be used afterwards.
+        void release() {
+            if (!released) {
+                released = true;
+                put(buf);
+                buf = null;
+            }
+        }
+    }
+
+    Stream openStream(int expectedSize) {
+        return new Stream(get(expectedSize));
+    }
+
+    // Returns the smallest pooled array of at least minSize bytes, or a new one.
+    synchronized byte[] get(int minSize) {
+        byte[] best = null;
+        Iterator<byte[]> iterator = arrays.iterator();
+        while (iterator.hasNext()) {
+            byte[] array = iterator.next();
+            if (array.length >= minSize && (best == null || array.length < best.length)) {
+                best = array;
+            }
+        }
+        if (best != null) {
+            arrays.remove(best);
+            size -= best.length;
+            hits++;
+            return best;
+        }
+        misses++;
+        return new byte[minSize];
+    }
+
+    synchronized void put(byte[] array) {
+        if (array == null || array.length == 0 || array.length > budget) {
+            return;
+        }
+        arrays.addLast(array);
+        size += array.length;
+        trimTo(budget);
+    }
+
+    synchronized void setBudget(long budget) {
+        this.budget = Math.max(0, budget);
+        trimTo(this.budget);
+    }
+
+    synchronized void clear() {
+        trimTo(0);
+    }
+
+    synchronized long getBudget() {
+        return budget;
+    }
+
+    synchronized long getSize() {
+        return size;
+    }
+
+    synchronized int getHits() {
+        return hits;
+    }
+
+    synchronized int getMisses() {
+        return misses;
+    }
+
+    synchronized int getEvictions() {
+        return evictions;
+    }
+
+    synchronized double getHitRate() {
+        int requests = hits + misses;
+        return requests == 0 ? 0 : hits / (double) requests;
+    }
+
+    private void trimTo(long maxSize) {
+        while (size > maxSize && !arrays.isEmpty()) {
+            size -= arrays.removeFirst().length;
+            evictions++;
+        }
+    }
+}
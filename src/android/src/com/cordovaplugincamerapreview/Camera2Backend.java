@@ -0,0 +1,1054 @@
+package com.cordovaplugincamerapreview;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link CameraBackend} on top of {@code android.hardware.camera2}. All camera
+ * work runs on a private handler thread; results are posted back to the main
+ * thread. The capture session holds the preview surface, a JPEG reader for
+ * stills and, while frame consumers are registered, a YUV reader whose frames
+ * are converted to NV21 for the {@link PreviewFrameDispatcher}.
+ *
+ * Stills follow the usual sequence: AE precapture when flash may fire, then a
+ * still capture request on the JPEG reader.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+class Camera2Backend implements CameraBackend, PreviewFrameDispatcher.Source {
+    private static final String TAG = "Camera2Backend";
+    private static final long OPEN_TIMEOUT_MS = 2500;
+    private static final long CLOSE_TIMEOUT_MS = 2500;
+    // give up waiting for AE/AF convergence after this many preview frames
+    private static final int MAX_WAIT_FRAMES = 30;
+
+    private static final int STATE_PREVIEW = 0;
+    private static final int STATE_WAITING_FOCUS = 1;
+    private static final int STATE_WAITING_PRECAPTURE = 2;
+    private static final int STATE_WAITING_NON_PRECAPTURE = 3;
+
+    private final CameraManager manager;
+    private final String[] cameraIds;
+    private final CameraCharacteristics[] characteristics;
+    private final CameraCapabilities[] capabilities;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private HandlerThread thread;
+    private Handler handler;
+    private volatile CameraDevice device;
+    private volatile int cameraId = -1;
+    private CameraCaptureSession session;
+    private CaptureRequest.Builder previewBuilder;
+    private volatile SurfaceHolder holder;
+    private volatile SurfaceTexture texture;
+    // wraps texture for the current session, camera handler thread only
+    private Surface textureSurface;
+    private volatile CameraSize previewSize;
+    // preview size the current session was built for, camera handler thread only
+    private CameraSize sessionPreviewSize;
+    private ImageReader jpegReader;
+    private ImageReader frameReader;
+    private PreviewFrameDispatcher frameDispatcher;
+    private int frameIndex;
+    private boolean previewRequested;
+    // the session is kept but no repeating request runs
+    private boolean previewPaused;
+    private CountDownLatch previewStarted;
+    private boolean updateScheduled;
+
+    private int flashMode = FLASH_AUTO;
+    private int focusMode = FOCUS_CONTINUOUS;
+    private int effectMode = CaptureRequest.CONTROL_EFFECT_MODE_OFF;
+
+    private int state = STATE_PREVIEW;
+    private int waitFrames;
+    // written on the camera2 thread, checked by takePicture
+    private volatile PictureCallback pendingPicture;
+    private FocusCallback pendingFocus;
+
+    Camera2Backend(Context context) throws IOException {
+        manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        try {
+            cameraIds = manager.getCameraIdList();
+            characteristics = new CameraCharacteristics[cameraIds.length];
+            capabilities = new CameraCapabilities[cameraIds.length];
+            for (int i = 0; i < cameraIds.length; i++) {
+                characteristics[i] = manager.getCameraCharacteristics(cameraIds[i]);
+            }
+        } catch (CameraAccessException e) {
+            throw new IOException("Could not enumerate cameras", e);
+        }
+    }
+
+    /**
+     * Camera2 is only worth it when every camera implements it natively; on
+     * LEGACY and LIMITED devices it is a shim over the old HAL.
+     */
+    static boolean isPreferred(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+        try {
+            CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            String[] ids = manager.getCameraIdList();
+            if (ids.length == 0) {
+                return false;
+            }
+            for (String id : ids) {
+                Integer level = manager.getCameraCharacteristics(id).get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL);
+                if (level == null
+                        || level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LEGACY
+                        || level == CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL_LIMITED) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Could not query camera2 support", e);
+            return false;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "camera2";
+    }
+
+    @Override
+    public int getNumberOfCameras() {
+        return cameraIds.length;
+    }
+
+    @Override
+    public boolean isFrontFacing(int cameraId) {
+        Integer facing = characteristics[cameraId].get(CameraCharacteristics.LENS_FACING);
+        return facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT;
+    }
+
+    @Override
+    public int getSensorOrientation(int cameraId) {
+        Integer orientation = characteristics[cameraId].get(CameraCharacteristics.SENSOR_ORIENTATION);
+        return orientation == null ? 0 : orientation;
+    }
+
+    @Override
+    public void open(final int cameraId) throws IOException {
+        thread = new HandlerThread(TAG);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+
+        final CountDownLatch opened = new CountDownLatch(1);
+        final String[] error = new String[1];
+        try {
+            manager.openCamera(cameraIds[cameraId], new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(CameraDevice camera) {
+                    device = camera;
+                    opened.countDown();
+                }
+
+                @Override
+                public void onDisconnected(CameraDevice camera) {
+                    camera.close();
+                    error[0] = "disconnected";
+                    device = null;
+                    opened.countDown();
+                }
+
+                @Override
+                public void onError(CameraDevice camera, int code) {
+                    camera.close();
+                    error[0] = "error " + code;
+                    device = null;
+                    opened.countDown();
+                }
+            }, handler);
+
+            if (!opened.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                error[0] = "timeout";
+            }
+        } catch (CameraAccessException e) {
+            error[0] = e.toString();
+        } catch (SecurityException e) {
+            error[0] = e.toString();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error[0] = "interrupted";
+        }
+
+        if (device == null) {
+            quitThread();
+            throw new IOException("Could not open camera " + cameraId + ": " + error[0]);
+        }
+
+        this.cameraId = cameraId;
+        getCapabilities(cameraId);
+        previewSize = null;
+        if (frameDispatcher != null) {
+            frameDispatcher.setSource(this);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (handler == null) {
+            return;
+        }
+
+        final CountDownLatch closed = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                previewRequested = false;
+                previewPaused = false;
+                closeSession();
+                if (device != null) {
+                    device.close();
+                    device = null;
+                }
+                failPicture("Camera closed");
+                pendingFocus = null;
+                signalPreviewStarted();
+                closed.countDown();
+            }
+        });
+        try {
+            closed.await(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        quitThread();
+        cameraId = -1;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return device != null;
+    }
+
+    @Override
+    public int getCameraId() {
+        return cameraId;
+    }
+
+    @Override
+    public CameraCapabilities getCapabilities() {
+        return capabilities[cameraId];
+    }
+
+    // Characteristics are read up front, so this never needs the camera open.
+    @Override
+    public CameraCapabilities getCapabilities(int cameraId) {
+        if (capabilities[cameraId] == null) {
+            capabilities[cameraId] = readCapabilities(cameraId);
+            Log.d(TAG, capabilities[cameraId].toString());
+        }
+        return capabilities[cameraId];
+    }
+
+    @Override
+    public List<CameraSize> getSupportedPreviewSizes() {
+        return capabilities[cameraId].previewSizes;
+    }
+
+    @Override
+    public List<CameraSize> getSupportedPictureSizes() {
+        return capabilities[cameraId].pictureSizes;
+    }
+
+    @Override
+    public CameraSize getPreviewSize() {
+        CameraSize size = previewSize;
+        if (size == null) {
+            size = getSupportedPreviewSizes().get(0);
+        }
+        return size;
+    }
+
+    @Override
+    public void setPreviewSize(int width, int height) {
+        final CameraSize size = new CameraSize(width, height);
+        if (size.equals(previewSize)) {
+            return;
+        }
+        previewSize = size;
+
+        SurfaceHolder current = holder;
+        if (current != null) {
+            current.setFixedSize(width, height);
+        }
+        SurfaceTexture currentTexture = texture;
+        if (currentTexture != null) {
+            currentTexture.setDefaultBufferSize(width, height);
+        }
+        reconfigure();
+    }
+
+    // The JPEG reader always has the largest picture size, so changing the
+    // picture size never rebuilds the session; the capture pipeline scales
+    // the picture down to the requested size.
+    @Override
+    public void setPictureSize(int width, int height) {
+    }
+
+    @Override
+    public void setDisplayOrientation(int degrees) {
+        // SurfaceView outputs are rotated by the framework; the capture pipeline
+        // applies the orientation to pictures itself.
+    }
+
+    @Override
+    public void setPreviewDisplay(SurfaceHolder holder) {
+        this.texture = null;
+        this.holder = holder;
+        CameraSize size = previewSize;
+        if (holder != null && size != null) {
+            holder.setFixedSize(size.width, size.height);
+        }
+    }
+
+    @Override
+    public void setPreviewTexture(SurfaceTexture texture) {
+        this.holder = null;
+        this.texture = texture;
+        CameraSize size = previewSize;
+        if (texture != null && size != null) {
+            texture.setDefaultBufferSize(size.width, size.height);
+        }
+    }
+
+    // Blocks until the session is configured and the repeating request is running.
+    @Override
+    public void startPreview() {
+        final CountDownLatch started = new CountDownLatch(1);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                previewRequested = true;
+                previewPaused = false;
+                if (session == null) {
+                    previewStarted = started;
+                    createSession();
+                } else {
+                    started.countDown();
+                }
+            }
+        });
+        try {
+            if (!started.await(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Timed out waiting for the preview to start");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void stopPreview() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                previewRequested = false;
+                previewPaused = false;
+                closeSession();
+            }
+        });
+    }
+
+    // Keeps the session, recreating it is what makes a full restart slow.
+    @Override
+    public void pausePreview() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                previewPaused = true;
+                // a pending still needs the repeating request for its precapture; it stops once the picture is done
+                if (pendingPicture == null) {
+                    stopRepeating();
+                }
+            }
+        });
+    }
+
+    // Camera2 thread only.
+    private void stopRepeating() {
+        if (session == null) {
+            return;
+        }
+        try {
+            session.stopRepeating();
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Could not pause preview", e);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Session closed while pausing preview", e);
+        }
+    }
+
+    @Override
+    public void resumePreview() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                previewPaused = false;
+                updatePreview();
+            }
+        });
+    }
+
+    @Override
+    public boolean takePicture(final PictureCallback callback) {
+        if (device == null) {
+            return false;
+        }
+        if (pendingPicture != null) {
+            Log.w(TAG, "takePicture while another picture is pending");
+            return false;
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (pendingPicture != null) {
+                    // lost the race with another takePicture
+                    deliverPictureFailure(callback, "Another picture is pending");
+                    return;
+                }
+                pendingPicture = callback;
+                if (session != null) {
+                    startStillSequence();
+                }
+                // otherwise the sequence starts once the session is configured
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public void autoFocus(final FocusCallback callback) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (session == null || previewBuilder == null) {
+                    deliverFocus(callback, false);
+                    return;
+                }
+                pendingFocus = callback;
+                state = STATE_WAITING_FOCUS;
+                waitFrames = 0;
+                previewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_START);
+                capturePreviewTrigger();
+                previewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+            }
+        });
+    }
+
+    @Override
+    public void cancelAutoFocus() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (session == null || previewBuilder == null) {
+                    return;
+                }
+                if (state == STATE_WAITING_FOCUS) {
+                    state = STATE_PREVIEW;
+                    pendingFocus = null;
+                }
+                previewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
+                capturePreviewTrigger();
+                previewBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+            }
+        });
+    }
+
+    @Override
+    public void setFlashMode(final int flashMode) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Camera2Backend.this.flashMode = flashMode;
+                scheduleUpdatePreview();
+            }
+        });
+    }
+
+    @Override
+    public void setFocusMode(final int focusMode) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Camera2Backend.this.focusMode = focusMode;
+                scheduleUpdatePreview();
+            }
+        });
+    }
+
+    @Override
+    public boolean setColorEffect(String effect) {
+        if (!capabilities[cameraId].supportsColorEffect(effect)) {
+            return false;
+        }
+        final int mode = toEffectMode(effect);
+        post(new Runnable() {
+            @Override
+            public void run() {
+                effectMode = mode;
+                scheduleUpdatePreview();
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public void setFrameDispatcher(PreviewFrameDispatcher frameDispatcher) {
+        this.frameDispatcher = frameDispatcher;
+        if (frameDispatcher != null && device != null) {
+            frameDispatcher.setSource(this);
+        }
+    }
+
+    @Override
+    public void onFrameConsumersChanged(boolean active) {
+        // the YUV reader stays in the session; frameListener drops its images while inactive
+    }
+
+    private void reconfigure() {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                if (session != null) {
+                    if (previewSize == null || previewSize.equals(sessionPreviewSize)) {
+                        return;
+                    }
+                    closeSession();
+                }
+                if (previewRequested) {
+                    createSession();
+                }
+            }
+        });
+    }
+
+    private void createSession() {
+        SurfaceHolder currentHolder = holder;
+        SurfaceTexture currentTexture = texture;
+        CameraSize currentPreviewSize = previewSize;
+        if (device == null || (currentHolder == null && currentTexture == null) || currentPreviewSize == null) {
+            signalPreviewStarted();
+            return;
+        }
+
+        CameraSize pictureSize = largest(getSupportedPictureSizes());
+
+        final Surface previewSurface;
+        if (currentHolder != null) {
+            previewSurface = currentHolder.getSurface();
+        } else {
+            if (textureSurface != null) {
+                textureSurface.release();
+            }
+            textureSurface = new Surface(currentTexture);
+            previewSurface = textureSurface;
+        }
+        List<Surface> surfaces = new ArrayList<Surface>(3);
+        surfaces.add(previewSurface);
+
+        jpegReader = ImageReader.newInstance(pictureSize.width, pictureSize.height, ImageFormat.JPEG, 2);
+        jpegReader.setOnImageAvailableListener(jpegListener, handler);
+        surfaces.add(jpegReader.getSurface());
+
+        // always attached, so adding or removing frame consumers needs no new session
+        frameReader = ImageReader.newInstance(currentPreviewSize.width, currentPreviewSize.height, ImageFormat.YUV_420_888, 2);
+        frameReader.setOnImageAvailableListener(frameListener, handler);
+        surfaces.add(frameReader.getSurface());
+        sessionPreviewSize = currentPreviewSize;
+
+        try {
+            final CameraDevice currentDevice = device;
+            currentDevice.createCaptureSession(surfaces, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession configured) {
+                    if (device != currentDevice || !previewRequested) {
+                        configured.close();
+                        signalPreviewStarted();
+                        return;
+                    }
+                    session = configured;
+                    try {
+                        previewBuilder = currentDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+                        previewBuilder.addTarget(previewSurface);
+                        previewBuilder.addTarget(frameReader.getSurface());
+                        updatePreview();
+                    } catch (CameraAccessException e) {
+                        Log.e(TAG, "Could not start preview", e);
+                    }
+                    signalPreviewStarted();
+
+                    if (pendingPicture != null) {
+                        startStillSequence();
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession failed) {
+                    Log.e(TAG, "Could not configure capture session");
+                    signalPreviewStarted();
+                }
+            }, handler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Could not create capture session", e);
+            signalPreviewStarted();
+        }
+    }
+
+    private void signalPreviewStarted() {
+        if (previewStarted != null) {
+            previewStarted.countDown();
+            previewStarted = null;
+        }
+    }
+
+    private void closeSession() {
+        if (session != null) {
+            session.close();
+            session = null;
+        }
+        previewBuilder = null;
+        sessionPreviewSize = null;
+        if (jpegReader != null) {
+            jpegReader.close();
+            jpegReader = null;
+        }
+        if (frameReader != null) {
+            frameReader.close();
+            frameReader = null;
+        }
+        if (textureSurface != null) {
+            textureSurface.release();
+            textureSurface = null;
+        }
+        state = STATE_PREVIEW;
+    }
+
+    // Settings changed back to back go out in one repeating request.
+    private void scheduleUpdatePreview() {
+        if (!updateScheduled) {
+            updateScheduled = true;
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    updateScheduled = false;
+                    updatePreview();
+                }
+            });
+        }
+    }
+
+    private void updatePreview() {
+        if (session == null || previewBuilder == null || previewPaused) {
+            return;
+        }
+        applySettings(previewBuilder);
+        try {
+            session.setRepeatingRequest(previewBuilder.build(), captureCallback, handler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Could not update preview", e);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Session closed while updating preview", e);
+        }
+    }
+
+    private void capturePreviewTrigger() {
+        try {
+            session.capture(previewBuilder.build(), captureCallback, handler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Could not send trigger", e);
+        }
+    }
+
+    private void applySettings(CaptureRequest.Builder builder) {
+        builder.set(CaptureRequest.CONTROL_MODE, CaptureRequest.CONTROL_MODE_AUTO);
+
+        CameraCapabilities current = capabilities[cameraId];
+        if (focusMode == FOCUS_CONTINUOUS && current.supportsFocusMode(FOCUS_CONTINUOUS)) {
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+        } else if (current.supportsFocusMode(FOCUS_AUTO)) {
+            builder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_AUTO);
+        }
+
+        if (!flashMayFire()) {
+            builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+            builder.set(CaptureRequest.FLASH_MODE, CaptureRequest.FLASH_MODE_OFF);
+        } else if (flashMode == FLASH_ON) {
+            builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_ALWAYS_FLASH);
+        } else {
+            builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON_AUTO_FLASH);
+        }
+
+        builder.set(CaptureRequest.CONTROL_EFFECT_MODE, effectMode);
+    }
+
+    private boolean flashMayFire() {
+        return flashMode != FLASH_OFF && capabilities[cameraId].supportsFlashMode(flashMode);
+    }
+
+    private void startStillSequence() {
+        if (flashMayFire()) {
+            state = STATE_WAITING_PRECAPTURE;
+            waitFrames = 0;
+            previewBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
+            capturePreviewTrigger();
+            previewBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER, CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
+        } else {
+            captureStill();
+        }
+    }
+
+    private void captureStill() {
+        state = STATE_PREVIEW;
+        try {
+            CaptureRequest.Builder builder = device.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            builder.addTarget(jpegReader.getSurface());
+            applySettings(builder);
+            session.capture(builder.build(), stillCallback, handler);
+        } catch (Exception e) {
+            Log.e(TAG, "Still capture failed", e);
+            failPicture("Still capture failed: " + e);
+        }
+    }
+
+    private final CameraCaptureSession.CaptureCallback stillCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureFailed(CameraCaptureSession session, CaptureRequest request, CaptureFailure failure) {
+            Log.e(TAG, "Still capture failed, reason " + failure.getReason());
+            failPicture("Still capture failed, reason " + failure.getReason());
+        }
+    };
+
+    // Camera2 thread only.
+    private void failPicture(String message) {
+        PictureCallback callback = pendingPicture;
+        pendingPicture = null;
+        if (previewPaused) {
+            stopRepeating();
+        }
+        deliverPictureFailure(callback, message);
+    }
+
+    private void deliverPictureFailure(final PictureCallback callback, final String message) {
+        if (callback == null) {
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onPictureFailed(message);
+            }
+        });
+    }
+
+    private final CameraCaptureSession.CaptureCallback captureCallback = new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
+            process(result);
+        }
+    };
+
+    private void process(CaptureResult result) {
+        switch (state) {
+            case STATE_WAITING_FOCUS: {
+                Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+                boolean locked = afState != null && (afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED
+                        || afState == CaptureResult.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED);
+                if (locked || afState == null || ++waitFrames > MAX_WAIT_FRAMES) {
+                    state = STATE_PREVIEW;
+                    FocusCallback callback = pendingFocus;
+                    pendingFocus = null;
+                    deliverFocus(callback, afState != null && afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED);
+                }
+                break;
+            }
+            case STATE_WAITING_PRECAPTURE: {
+                Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+                if (aeState == null || aeState == CaptureResult.CONTROL_AE_STATE_PRECAPTURE
+                        || aeState == CaptureResult.CONTROL_AE_STATE_FLASH_REQUIRED) {
+                    state = STATE_WAITING_NON_PRECAPTURE;
+                } else if (++waitFrames > MAX_WAIT_FRAMES) {
+                    captureStill();
+                }
+                break;
+            }
+            case STATE_WAITING_NON_PRECAPTURE: {
+                Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+                if (aeState == null || aeState != CaptureResult.CONTROL_AE_STATE_PRECAPTURE || ++waitFrames > MAX_WAIT_FRAMES) {
+                    captureStill();
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private final ImageReader.OnImageAvailableListener jpegListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image = reader.acquireNextImage();
+            if (image == null) {
+                return;
+            }
+            final byte[] jpeg;
+            try {
+                ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+                jpeg = new byte[buffer.remaining()];
+                buffer.get(jpeg);
+            } finally {
+                image.close();
+            }
+
+            final PictureCallback callback = pendingPicture;
+            pendingPicture = null;
+            if (previewPaused) {
+                stopRepeating();
+            }
+            if (callback != null) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onPictureTaken(jpeg);
+                    }
+                });
+            }
+        }
+    };
+
+    private final ImageReader.OnImageAvailableListener frameListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            Image image = reader.acquireLatestImage();
+            if (image == null) {
+                return;
+            }
+            PreviewFrameDispatcher dispatcher = frameDispatcher;
+            if (dispatcher == null || !dispatcher.isActive()) {
+                image.close();
+                return;
+            }
+            int width = image.getWidth();
+            int height = image.getHeight();
+            byte[][] buffers = dispatcher.getBuffers(width, height);
+            byte[] nv21 = buffers[frameIndex++ % buffers.length];
+            try {
+                toNv21(image, nv21);
+            } finally {
+                image.close();
+            }
+            dispatcher.dispatch(nv21, width, height, System.nanoTime());
+        }
+    };
+
+    // Packs a YUV_420_888 image into NV21 (full Y plane followed by interleaved V/U).
+    private static void toNv21(Image image, byte[] out) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Image.Plane[] planes = image.getPlanes();
+
+        ByteBuffer y = planes[0].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        int position = 0;
+        if (yRowStride == width) {
+            y.get(out, 0, width * height);
+            position = width * height;
+        } else {
+            for (int row = 0; row < height; row++) {
+                y.position(row * yRowStride);
+                y.get(out, position, width);
+                position += width;
+            }
+        }
+
+        ByteBuffer u = planes[1].getBuffer();
+        ByteBuffer v = planes[2].getBuffer();
+        int uvRowStride = planes[1].getRowStride();
+        int uvPixelStride = planes[1].getPixelStride();
+        for (int row = 0; row < height / 2; row++) {
+            int offset = row * uvRowStride;
+            for (int col = 0; col < width / 2; col++) {
+                int index = offset + col * uvPixelStride;
+                out[position++] = v.get(index);
+                out[position++] = u.get(index);
+            }
+        }
+    }
+
+    private void deliverFocus(final FocusCallback callback, final boolean success) {
+        if (callback == null) {
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onFocus(success);
+            }
+        });
+    }
+
+    private void post(Runnable runnable) {
+        Handler current = handler;
+        if (current != null) {
+            current.post(runnable);
+        }
+    }
+
+    private void quitThread() {
+        if (thread != null) {
+            thread.quitSafely();
+            thread = null;
+            handler = null;
+        }
+    }
+
+    private CameraCapabilities readCapabilities(int cameraId) {
+        CameraCharacteristics camera = characteristics[cameraId];
+        StreamConfigurationMap map = camera.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+
+        Set<Integer> flashModes = new HashSet<Integer>();
+        flashModes.add(FLASH_OFF);
+        Boolean flashAvailable = camera.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+        if (flashAvailable != null && flashAvailable) {
+            flashModes.add(FLASH_ON);
+            flashModes.add(FLASH_AUTO);
+        }
+
+        Set<Integer> focusModes = new HashSet<Integer>();
+        int[] afModes = camera.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        if (contains(afModes, CaptureRequest.CONTROL_AF_MODE_AUTO)) {
+            focusModes.add(FOCUS_AUTO);
+        }
+        if (contains(afModes, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE)) {
+            focusModes.add(FOCUS_CONTINUOUS);
+        }
+
+        Set<String> colorEffects = new HashSet<String>();
+        int[] effects = camera.get(CameraCharacteristics.CONTROL_AVAILABLE_EFFECTS);
+        if (effects != null) {
+            for (int effect : effects) {
+                String name = toEffectName(effect);
+                if (name != null) {
+                    colorEffects.add(name);
+                }
+            }
+        }
+
+        return new CameraCapabilities(
+                cameraId,
+                isFrontFacing(cameraId),
+                getSensorOrientation(cameraId),
+                toCameraSizes(map.getOutputSizes(SurfaceHolder.class)),
+                toCameraSizes(map.getOutputSizes(ImageFormat.JPEG)),
+                flashModes,
+                focusModes,
+                colorEffects
+        );
+    }
+
+    private static final String[] EFFECT_NAMES = {
+            "aqua", "blackboard", "mono", "negative", "none", "posterize", "sepia", "solarize", "whiteboard"
+    };
+
+    private static String toEffectName(int mode) {
+        for (String name : EFFECT_NAMES) {
+            if (toEffectMode(name) == mode) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private static int toEffectMode(String effect) {
+        if (effect.equals("aqua")) {
+            return CaptureRequest.CONTROL_EFFECT_MODE_AQUA;
+        } else if (effect.equals("blackboard")) {
+            return CaptureRequest.CONTROL_EFFECT_MODE_BLACKBOARD;
+        } else if (effect.equals("mono")) {
+            return CaptureRequest.CONTROL_EFFECT_MODE_MONO;
+        } else if (effect.equals("negative")) {
+            return CaptureRequest.CONTROL_EFFECT_MODE_NEGATIVE;
+        } else if (effect.equals("none")) {
+            return CaptureRequest.CONTROL_EFFECT_MODE_OFF;
+        } else if (effect.equals("posterize")) {
+            return CaptureRequest.CONTROL_EFFECT_MODE_POSTERIZE;
+        } else if (effect.equals("sepia")) {
+            return CaptureRequest.CONTROL_EFFECT_MODE_SEPIA;
+        } else if (effect.equals("solarize")) {
+            return CaptureRequest.CONTROL_EFFECT_MODE_SOLARIZE;
+        } else if (effect.equals("whiteboard")) {
+            return CaptureRequest.CONTROL_EFFECT_MODE_WHITEBOARD;
+        }
+        return -1;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        if (values == null) {
+            return false;
+        }
+        for (int candidate : values) {
+            if (candidate == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static CameraSize largest(List<CameraSize> sizes) {
+        CameraSize largest = null;
+        for (CameraSize size : sizes) {
+            if (largest == null || size.area() > largest.area()) {
+                largest = size;
+            }
+        }
+        return largest;
+    }
+
+    private static List<CameraSize> toCameraSizes(Size[] sizes) {
+        if (sizes == null) {
+            return new ArrayList<CameraSize>();
+        }
+        List<CameraSize> result = new ArrayList<CameraSize>(sizes.length);
+        for (Size size : Arrays.asList(sizes)) {
+            result.add(new CameraSize(size.getWidth(), size.getHeight()));
+        }
+        return result;
+    }
+}
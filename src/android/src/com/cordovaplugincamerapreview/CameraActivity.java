@@ -1,40 +1,42 @@
 package com.cordovaplugincamerapreview;
 
 import android.app.Fragment;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Canvas;
-import android.graphics.Matrix;
-import android.hardware.Camera;
-import android.hardware.Camera.Parameters;
-import android.hardware.Camera.PictureCallback;
+import android.content.Context;
 import android.os.Bundle;
-import android.util.Base64;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.*;
 import android.widget.FrameLayout;
 import android.widget.RelativeLayout;
 
-import java.io.ByteArrayOutputStream;
 import java.util.List;
 
 public class CameraActivity extends Fragment {
-    private static final int FLASH_OFF = 0;
-    private static final int FLASH_ON = 1;
-    private static final int FLASH_AUTO = 2;
-    private static final int FOCUS_AUTO = 0;
-    private static final int FOCUS_CONTINUOUS = 1;
     private static final String TAG = "CameraActivity";
+    private static final long DEFAULT_BUFFER_POOL_BUDGET = 8 * 1024 * 1024;
+    // how long a sharpest-frame capture waits for the focus callback before scoring anyway
+    private static final long FOCUS_TIMEOUT_MS = 2000;
+    // how long past the window the preview may stay silent before the window is closed
+    private static final long FRAME_GRACE_MS = 200;
+    static final long DEFAULT_STANDBY_TIMEOUT_MS = 30000;
     String defaultCamera;
     boolean tapToTakePicture;
     boolean dragEnabled;
+    // "auto", "legacy" or "camera2"
+    String backendName = "auto";
+    // "surface" or "texture"
+    String previewMode = "surface";
+    float previewAlpha = 1;
     private CameraPreviewListener eventListener;
+    private PreviewFrameDispatcher frameDispatcher;
     private FrameLayout frameContainerLayout;
     private Preview mPreview;
-    private boolean canTakePicture = true;
+    private volatile boolean canTakePicture = true;
     private View view;
-    private Camera.Parameters cameraParameters;
-    private Camera mCamera;
+    private CameraBackend mCamera;
+    private volatile CameraController cameraController;
+    private CapabilityStore capabilityStore;
     private int numberOfCameras;
     private int cameraCurrentlyLocked;
     // The first rear facing camera
@@ -44,13 +46,31 @@ public class CameraActivity extends Fragment {
     private int x;
     private int y;
     private String appResourcesPackage;
-    private int currentFlashMode = FLASH_AUTO;
-    private int currentFocusMode = FOCUS_CONTINUOUS;
+    // camera thread only, see runOnCameraThread
+    private int currentFlashMode = CameraBackend.FLASH_AUTO;
+    private int currentFocusMode = CameraBackend.FOCUS_CONTINUOUS;
+    private String currentColorEffect;
+    private CapturePipeline<BitmapPictureProcessor.Picture> capturePipeline;
+    private BitmapPool bitmapPool;
+    private ByteArrayPool bufferPool;
+    private BurstController burstController;
+    private PreviewRingBuffer zslBuffer;
+    private final SharpFrameSelector sharpFrameSelector = new SharpFrameSelector();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // standby, main thread only
+    private boolean inStandby;
+    private boolean standbyReleased;
+    private long standbyResumeNanos;
+    private long switchRequestedNanos;
 
     void setEventListener(CameraPreviewListener listener) {
         eventListener = listener;
     }
 
+    void setFrameDispatcher(PreviewFrameDispatcher dispatcher) {
+        frameDispatcher = dispatcher;
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         appResourcesPackage = getActivity().getPackageName();
@@ -61,6 +81,47 @@ public class CameraActivity extends Fragment {
         return view;
     }
 
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        // a few full-size pictures worth of bitmaps, a handful of encoded JPEGs
+        bitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+        bufferPool = new ByteArrayPool(DEFAULT_BUFFER_POOL_BUDGET);
+        capturePipeline = new CapturePipeline<BitmapPictureProcessor.Picture>(
+                new BitmapPictureProcessor(bitmapPool, bufferPool),
+                new PictureSink(getActivity().getCacheDir(), bufferPool),
+                captureListener
+        );
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        setZeroShutterLag(false, 0);
+        mainHandler.removeCallbacksAndMessages(null);
+        sharpFrameSelector.cancel();
+        if (frameDispatcher != null) {
+            frameDispatcher.removeConsumer(sharpFrameSelector);
+        }
+
+        if (cameraController != null) {
+            cameraController.release();
+        }
+
+        if (capturePipeline != null) {
+            capturePipeline.shutdown();
+        }
+
+        // the worker may still be finishing a picture; bitmaps it returns later are
+        // pooled again and left to the garbage collector with the pool
+        if (bitmapPool != null) {
+            bitmapPool.clear();
+            bufferPool.clear();
+        }
+    }
+
     void setRect(int x, int y, int width, int height) {
         this.x = x;
         this.y = y;
@@ -70,7 +131,14 @@ public class CameraActivity extends Fragment {
 
     private void createCameraPreview() {
         if (mPreview == null) {
+            mCamera = createBackend();
+            mCamera.setFrameDispatcher(frameDispatcher);
+            capabilityStore = CapabilityStore.get(getActivity(), mCamera.getName());
+            cameraController = new CameraController(mCamera, capabilityStore, cameraListener);
+            Log.d(TAG, "camera backend: " + mCamera.getName());
             setDefaultCameraId();
+            // so the preview of a camera can be set up before it is open
+            cameraController.enumerateCameras();
 
             //set box position and size
             FrameLayout.LayoutParams layoutParams = new FrameLayout.LayoutParams(width, height);
@@ -79,7 +147,8 @@ public class CameraActivity extends Fragment {
             frameContainerLayout.setLayoutParams(layoutParams);
 
             //video view
-            mPreview = new Preview(getActivity());
+            mPreview = new Preview(getActivity(), "texture".equals(previewMode));
+            mPreview.setPreviewAlpha(previewAlpha);
             mPreview.setLayoutParams(new RelativeLayout.LayoutParams(RelativeLayout.LayoutParams.MATCH_PARENT, RelativeLayout.LayoutParams.MATCH_PARENT));
             mPreview.setEnabled(false);
 
@@ -113,14 +182,29 @@ public class CameraActivity extends Fragment {
                         private int mLastTouchY;
                         private int mPosX = 0;
                         private int mPosY = 0;
+                        private boolean dragging;
+                        private boolean framePosted;
+
+                        // Moves land here at most once per vsync, however fast the touch events arrive.
+                        private final Choreographer.FrameCallback dragFrame = new Choreographer.FrameCallback() {
+                            @Override
+                            public void doFrame(long frameTimeNanos) {
+                                framePosted = false;
+                                FrameLayout.LayoutParams layoutParams = (FrameLayout.LayoutParams) frameContainerLayout.getLayoutParams();
+                                frameContainerLayout.setTranslationX(mPosX - layoutParams.leftMargin);
+                                frameContainerLayout.setTranslationY(mPosY - layoutParams.topMargin);
+                            }
+                        };
 
                         @Override
                         public boolean onTouch(View v, MotionEvent event) {
-                            FrameLayout.LayoutParams layoutParams = (FrameLayout.LayoutParams) frameContainerLayout.getLayoutParams();
-
-
                             boolean isSingleTapTouch = gestureDetector.onTouchEvent(event);
                             if (event.getAction() != MotionEvent.ACTION_MOVE && isSingleTapTouch) {
+                                if (dragging) {
+                                    // moved, but within the tap slop
+                                    dragging = false;
+                                    commitDrag();
+                                }
                                 if (tapToTakePicture) {
                                     takePicture(0, 0);
                                 } else {
@@ -135,34 +219,37 @@ public class CameraActivity extends Fragment {
 
                                     switch (event.getAction()) {
                                         case MotionEvent.ACTION_DOWN:
-                                            if (mLastTouchX == 0 || mLastTouchY == 0) {
-                                                mLastTouchX = (int) event.getRawX() - layoutParams.leftMargin;
-                                                mLastTouchY = (int) event.getRawY() - layoutParams.topMargin;
-                                            } else {
-                                                mLastTouchX = (int) event.getRawX();
-                                                mLastTouchY = (int) event.getRawY();
-                                            }
+                                            FrameLayout.LayoutParams layoutParams = (FrameLayout.LayoutParams) frameContainerLayout.getLayoutParams();
+                                            mPosX = layoutParams.leftMargin;
+                                            mPosY = layoutParams.topMargin;
+                                            mLastTouchX = (int) event.getRawX();
+                                            mLastTouchY = (int) event.getRawY();
                                             break;
                                         case MotionEvent.ACTION_MOVE:
 
                                             x = (int) event.getRawX();
                                             y = (int) event.getRawY();
 
-                                            final float dx = x - mLastTouchX;
-                                            final float dy = y - mLastTouchY;
-
-                                            mPosX += dx;
-                                            mPosY += dy;
-
-                                            layoutParams.leftMargin = mPosX;
-                                            layoutParams.topMargin = mPosY;
+                                            mPosX += x - mLastTouchX;
+                                            mPosY += y - mLastTouchY;
+                                            dragging = true;
 
-                                            frameContainerLayout.setLayoutParams(layoutParams);
+                                            if (!framePosted) {
+                                                framePosted = true;
+                                                Choreographer.getInstance().postFrameCallback(dragFrame);
+                                            }
 
                                             // Remember this touch position for the next move event
                                             mLastTouchX = x;
                                             mLastTouchY = y;
 
+                                            break;
+                                        case MotionEvent.ACTION_UP:
+                                        case MotionEvent.ACTION_CANCEL:
+                                            if (dragging) {
+                                                dragging = false;
+                                                commitDrag();
+                                            }
                                             break;
                                         default:
                                             break;
@@ -171,6 +258,26 @@ public class CameraActivity extends Fragment {
                             }
                             return true;
                         }
+
+                        // One layout pass per gesture: the translation becomes the new margins.
+                        private void commitDrag() {
+                            if (framePosted) {
+                                framePosted = false;
+                                Choreographer.getInstance().removeFrameCallback(dragFrame);
+                            }
+                            FrameLayout.LayoutParams layoutParams = (FrameLayout.LayoutParams) frameContainerLayout.getLayoutParams();
+                            layoutParams.leftMargin = mPosX;
+                            layoutParams.topMargin = mPosY;
+                            frameContainerLayout.setTranslationX(0);
+                            frameContainerLayout.setTranslationY(0);
+                            frameContainerLayout.setLayoutParams(layoutParams);
+
+                            CameraActivity.this.x = mPosX;
+                            CameraActivity.this.y = mPosY;
+                            if (eventListener != null) {
+                                eventListener.onPreviewMoved(mPosX, mPosY, layoutParams.width, layoutParams.height);
+                            }
+                        }
                     });
                 }
             });
@@ -180,54 +287,135 @@ public class CameraActivity extends Fragment {
     // refocus function added
     public void refocusCamera()
     {
-        getActivity().runOnUiThread(new Runnable() {
+        if (cameraController == null) {
+            return;
+        }
+        cameraController.execute(new CameraController.CameraTask() {
             @Override
-            public void run() {
-                mCamera.cancelAutoFocus();
-                mCamera.autoFocus(new Camera.AutoFocusCallback() {
+            public void run(CameraBackend camera) {
+                camera.cancelAutoFocus();
+                camera.autoFocus(new CameraBackend.FocusCallback() {
                     @Override
-                    public void onAutoFocus(boolean success, Camera camera) {}
+                    public void onFocus(boolean success) {}
                 });
             }
         });
     }
 
+    // "camera2" or "legacy" for the backend option; createBackend still falls back to legacy if camera2 fails.
+    static String resolveBackendName(Context context, String backendName) {
+        boolean useCamera2 = backendName.equals("camera2")
+                || (backendName.equals("auto") && Camera2Backend.isPreferred(context));
+        return useCamera2 ? "camera2" : "legacy";
+    }
+
+    private CameraBackend createBackend() {
+        if (resolveBackendName(getActivity(), backendName).equals("camera2")) {
+            try {
+                return new Camera2Backend(getActivity());
+            } catch (Exception e) {
+                Log.w(TAG, "camera2 backend unavailable, falling back to legacy", e);
+            }
+        }
+        return new LegacyCameraBackend();
+    }
+
+    // Uses the cameras an earlier launch recorded in the capability store where it can.
     private void setDefaultCameraId() {
 
         // Find the total number of cameras available
-        numberOfCameras = Camera.getNumberOfCameras();
+        numberOfCameras = capabilityStore.getCameraCount();
+        if (numberOfCameras == 0) {
+            numberOfCameras = mCamera.getNumberOfCameras();
+        }
 
-        int camId = defaultCamera.equals("front") ? Camera.CameraInfo.CAMERA_FACING_FRONT : Camera.CameraInfo.CAMERA_FACING_BACK;
+        boolean front = defaultCamera.equals("front");
 
         // Find the ID of the default camera
-        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
         for (int i = 0; i < numberOfCameras; i++) {
-            Camera.getCameraInfo(i, cameraInfo);
-            if (cameraInfo.facing == camId) {
-                defaultCameraId = camId;
+            CameraCapabilities known = capabilityStore.get(i);
+            if ((known != null ? known.frontFacing : mCamera.isFrontFacing(i)) == front) {
+                defaultCameraId = i;
                 break;
             }
         }
     }
 
-    @Override
-    public void onResume() {
-        super.onResume();
+    /**
+     * Queues the open. If the camera's capabilities are already known the
+     * preview is set up right away and starts right behind the open and the
+     * settings restore; otherwise it is attached in onCameraOpened.
+     */
+    private void openCamera(int cameraId) {
+        cameraController.open(cameraId);
 
-        mCamera = Camera.open(defaultCameraId);
+        // restore flash, focus and effect; the settings are only touched on the camera thread
+        cameraController.execute(new CameraController.CameraTask() {
+            @Override
+            public void run(CameraBackend camera) {
+                camera.setFocusMode(currentFocusMode);
+                camera.setFlashMode(currentFlashMode);
+                applyColorEffect(camera);
+            }
+        });
 
-        if (cameraParameters != null) {
-            mCamera.setParameters(cameraParameters);
+        CameraCapabilities known = cameraController.getKnownCapabilities(cameraId);
+        if (known != null) {
+            mPreview.prepareCamera(cameraController, known);
         }
+    }
 
-        // set/restore flash and focus
-        setFocusMode(currentFocusMode);
-        setFlashMode(currentFlashMode);
+    private final CameraController.Listener cameraListener = new CameraController.Listener() {
+        @Override
+        public void onCameraOpened(CameraCapabilities capabilities) {
+            if (!isResumed()) {
+                // paused while the camera was opening, the close is already queued
+                return;
+            }
+            cameraCurrentlyLocked = capabilities.cameraId;
+            // a picture requested before a close is never delivered
+            canTakePicture = burstController == null || !burstController.isRunning();
+            Log.d(TAG, "cameraCurrentlyLocked:" + cameraCurrentlyLocked);
+            // frames of the previous camera may have arrived until it was closed
+            clearZeroShutterLagFrames();
+            mPreview.setCamera(cameraController, capabilities);
+            if (inStandby) {
+                // opened by a switch during standby; pauses once the preview is up
+                standbyReleased = false;
+                cameraController.pausePreview();
+            }
+        }
 
-        cameraCurrentlyLocked = defaultCameraId;
-        mPreview.setCamera(mCamera, cameraCurrentlyLocked);
+        @Override
+        public void onCameraError(int cameraId, String message) {
+            eventListener.onCameraError("Could not open camera " + cameraId + ": " + message);
+        }
 
-        Log.d(TAG, "cameraCurrentlyLocked:" + cameraCurrentlyLocked);
+        @Override
+        public void onPreviewStarted(int cameraId) {
+            if (standbyResumeNanos != 0) {
+                Metrics.recordSince(Metrics.STANDBY_RESUME, standbyResumeNanos);
+                standbyResumeNanos = 0;
+            }
+            if (switchRequestedNanos != 0) {
+                Metrics.recordSince(Metrics.SWITCH_TO_FIRST_FRAME, switchRequestedNanos);
+                switchRequestedNanos = 0;
+            }
+            eventListener.onCameraStarted();
+        }
+    };
+
+    @Override
+    public void onResume() {
+        super.onResume();
+
+        clearZeroShutterLagFrames();
+        if (inStandby) {
+            // stays closed until resumeFromStandby
+            standbyReleased = true;
+        } else {
+            openCamera(defaultCameraId);
+        }
 
 //        final FrameLayout frameContainerLayout = (FrameLayout) view.findViewById(getResources().getIdentifier("frame_container", "id", appResourcesPackage));
         ViewTreeObserver viewTreeObserver = frameContainerLayout.getViewTreeObserver();
@@ -251,19 +439,81 @@ public class CameraActivity extends Fragment {
     public void onPause() {
         super.onPause();
 
+        stopBurst();
+        mainHandler.removeCallbacks(releaseIdleCamera);
+        clearZeroShutterLagFrames();
+
         // Because the Camera object is a shared resource, it's very
         // important to release it when the activity is paused.
-        if (mCamera != null) {
-            mPreview.setCamera(null, -1);
-            mCamera.release();
-            mCamera = null;
+        if (cameraController != null) {
+            standbyReleased = inStandby;
+            mPreview.setCamera(null, null);
+            cameraController.close();
         }
     }
 
-    Camera getCamera() {
-        return mCamera;
+    boolean isInStandby() {
+        return inStandby;
+    }
+
+    /**
+     * Stops frame delivery and hides the preview, but keeps the camera open
+     * and the preview configured, so {@link #resumeFromStandby()} only has to
+     * restart the stream. The camera is released once the standby has lasted
+     * idleTimeoutMs; 0 keeps it open until resumed. Calling this again while
+     * in standby restarts the timeout. Returns false if the camera view has
+     * not been created yet. Main thread only.
+     */
+    boolean enterStandby(long idleTimeoutMs) {
+        if (cameraController == null) {
+            return false;
+        }
+        mainHandler.removeCallbacks(releaseIdleCamera);
+        if (!inStandby) {
+            stopBurst();
+            inStandby = true;
+            standbyReleased = false;
+            standbyResumeNanos = 0;
+            clearZeroShutterLagFrames();
+            cameraController.pausePreview();
+            // A TextureView keeps its surface while invisible; a SurfaceView loses it,
+            // and its preview is then restarted on the new surface when resumed.
+            view.setVisibility(View.INVISIBLE);
+        }
+        if (idleTimeoutMs > 0 && !standbyReleased) {
+            mainHandler.postDelayed(releaseIdleCamera, idleTimeoutMs);
+        }
+        return true;
     }
 
+    // Main thread only.
+    void resumeFromStandby() {
+        if (!inStandby) {
+            return;
+        }
+        mainHandler.removeCallbacks(releaseIdleCamera);
+        inStandby = false;
+        standbyResumeNanos = System.nanoTime();
+        view.setVisibility(View.VISIBLE);
+        if (standbyReleased) {
+            standbyReleased = false;
+            openCamera(cameraCurrentlyLocked);
+        } else {
+            cameraController.resumePreview();
+        }
+    }
+
+    private final Runnable releaseIdleCamera = new Runnable() {
+        @Override
+        public void run() {
+            Log.d(TAG, "Standby timed out, releasing camera");
+            standbyReleased = true;
+            clearZeroShutterLagFrames();
+            mPreview.setCamera(null, null);
+            cameraController.close();
+        }
+    };
+
     void switchCamera() {
         // check for availability of multiple cameras
         if (numberOfCameras == 1) {
@@ -272,240 +522,619 @@ public class CameraActivity extends Fragment {
         }
         Log.d(TAG, "numberOfCameras: " + numberOfCameras);
 
-        // OK, we have multiple cameras.
-        // Release this camera -> cameraCurrentlyLocked
-        if (mCamera != null) {
-            mPreview.setCamera(null, -1);
-            mCamera = null;
-        }
+        switchTo((cameraCurrentlyLocked + 1) % numberOfCameras);
+    }
 
-        // Acquire the next camera and request Preview to reconfigure
-        // parameters.
-        mCamera = Camera.open((cameraCurrentlyLocked + 1) % numberOfCameras);
+    /**
+     * Opens another camera on the camera thread; the controller closes the
+     * current one first. If the new camera's capabilities are already known
+     * the last frame stays on screen until its preview runs, see openCamera.
+     * Main thread only.
+     */
+    private void switchTo(int cameraId) {
+        switchRequestedNanos = System.nanoTime();
+        clearZeroShutterLagFrames();
+        if (cameraController.getKnownCapabilities(cameraId) == null) {
+            // set up in onCameraOpened instead
+            mPreview.setCamera(null, null);
+        }
+        openCamera(cameraId);
+    }
 
-        if (cameraParameters != null) {
-            mCamera.setParameters(cameraParameters);
+    // Runs work on the camera thread, or on the main thread while there is no camera thread yet.
+    void runOnCameraThread(Runnable work) {
+        CameraController controller = cameraController;
+        if (controller != null) {
+            controller.post(work);
+        } else {
+            mainHandler.post(work);
         }
+    }
 
-        cameraCurrentlyLocked = (cameraCurrentlyLocked + 1) % numberOfCameras;
-        Log.d(TAG, "cameraCurrentlyLocked new: " + cameraCurrentlyLocked);
-        mPreview.setCamera(mCamera, cameraCurrentlyLocked);
+    interface ConfigureListener {
+        // Main thread. Modes are the ones the camera actually uses, after fallbacks for unsupported ones.
+        void onConfigured(int cameraId, boolean frontFacing, int flashMode, int focusMode, String colorEffect);
     }
 
-    void setFlashMode(int flashMode) {
+    /**
+     * Applies several settings in one camera thread task, so the backend
+     * commits them as one batch. A camera switch reopens once, with the new
+     * settings already in place when the preview starts. Camera thread only.
+     */
+    void configure(ActionArgs.Configure settings, final ConfigureListener listener) {
+        if (settings.flashMode != null) {
+            currentFlashMode = settings.flashMode;
+        }
+        if (settings.focusMode != null) {
+            currentFocusMode = settings.focusMode;
+        }
+        if (settings.colorEffect != null) {
+            currentColorEffect = settings.colorEffect;
+        }
 
-        Camera.Parameters parameters = mCamera.getParameters();
-        List<String> supportedFlashModes = parameters.getSupportedFlashModes();
-
-        if (supportedFlashModes != null) {
-            if (flashMode == FLASH_OFF && supportedFlashModes.contains(Parameters.FLASH_MODE_OFF)) {
-                parameters.setFlashMode(Parameters.FLASH_MODE_OFF);
-            } else if (flashMode == FLASH_ON && supportedFlashModes.contains(Parameters.FLASH_MODE_ON)) {
-                parameters.setFlashMode(Parameters.FLASH_MODE_ON);
-            } else if (flashMode == FLASH_AUTO && supportedFlashModes.contains(Parameters.FLASH_MODE_AUTO)) {
-                parameters.setFlashMode(Parameters.FLASH_MODE_AUTO);
-            } else if (flashMode == FLASH_AUTO && supportedFlashModes.contains(Parameters.FLASH_MODE_ON)) {
-                parameters.setFlashMode(Parameters.FLASH_MODE_ON);
+        final Runnable report = new Runnable() {
+            @Override
+            public void run() {
+                reportConfiguration(listener);
+            }
+        };
+
+        if (cameraController == null) {
+            // not set up yet, the first open uses the settings
+            if (settings.frontFacing != null) {
+                defaultCamera = settings.frontFacing ? "front" : "back";
             }
-            mCamera.setParameters(parameters);
+            report.run();
+            return;
         }
 
-        Log.d(TAG, "flash mode: " + flashMode);
+        final int switchTo = settings.frontFacing == null ? -1 : findCamera(settings.frontFacing);
+        if (switchTo >= 0 && switchTo != mCamera.getCameraId()) {
+            // the reopen restores the settings in one batch before the report runs
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    switchTo(switchTo);
+                    cameraController.post(report);
+                }
+            });
+            return;
+        }
 
-        currentFlashMode = flashMode;
+        if (cameraController.isOpen()) {
+            mCamera.setFocusMode(currentFocusMode);
+            mCamera.setFlashMode(currentFlashMode);
+            applyColorEffect(mCamera);
+        }
+        report.run();
     }
 
-    void setFocusMode(int focusMode) {
-        Camera.Parameters parameters = mCamera.getParameters();
-        List<String> supportedFocusModes = parameters.getSupportedFocusModes();
-
-        if (supportedFocusModes != null) {
-            if (focusMode == FOCUS_AUTO && supportedFocusModes.contains(Parameters.FOCUS_MODE_AUTO)) {
-                parameters.setFocusMode(Parameters.FOCUS_MODE_AUTO);
-            } else if (focusMode == FOCUS_CONTINUOUS && supportedFocusModes.contains(Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
-                parameters.setFocusMode(Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+    // Camera thread, or main thread before there is a camera thread.
+    private void reportConfiguration(final ConfigureListener listener) {
+        final int cameraId;
+        final boolean frontFacing;
+        final int flashMode;
+        final int focusMode;
+        final String colorEffect = currentColorEffect;
+        if (mCamera != null && mCamera.isOpen()) {
+            CameraCapabilities capabilities = mCamera.getCapabilities();
+            cameraId = capabilities.cameraId;
+            frontFacing = capabilities.frontFacing;
+            flashMode = capabilities.resolveFlashMode(currentFlashMode);
+            focusMode = capabilities.resolveFocusMode(currentFocusMode);
+        } else {
+            cameraId = -1;
+            frontFacing = "front".equals(defaultCamera);
+            flashMode = currentFlashMode;
+            focusMode = currentFocusMode;
+        }
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onConfigured(cameraId, frontFacing, flashMode, focusMode, colorEffect);
+            }
+        });
+    }
+
+    // The first camera facing that way, or -1.
+    private int findCamera(boolean front) {
+        for (int i = 0; i < numberOfCameras; i++) {
+            if (mCamera.isFrontFacing(i) == front) {
+                return i;
             }
-            mCamera.setParameters(parameters);
         }
+        return -1;
+    }
 
-        Log.d(TAG, "focusMode: " + focusMode);
+    // Camera thread only, see runOnCameraThread; applied right away if the camera is open.
+    void setFlashMode(int flashMode) {
+        Log.d(TAG, "flash mode: " + flashMode);
+        currentFlashMode = flashMode;
+        if (cameraController != null && cameraController.isOpen()) {
+            mCamera.setFlashMode(flashMode);
+        }
+    }
 
+    // Camera thread only.
+    void setFocusMode(int focusMode) {
+        Log.d(TAG, "focusMode: " + focusMode);
         currentFocusMode = focusMode;
+        if (cameraController != null && cameraController.isOpen()) {
+            mCamera.setFocusMode(focusMode);
+        }
     }
 
-    void setCameraParameters(Camera.Parameters params) {
-        cameraParameters = params;
+    // Camera thread only; an effect the camera rejects is logged and not restored on reopen.
+    void setColorEffect(String effect) {
+        currentColorEffect = effect;
+        if (cameraController != null && cameraController.isOpen()) {
+            applyColorEffect(mCamera);
+        }
+    }
 
-        if (mCamera != null && cameraParameters != null) {
-            mCamera.setParameters(cameraParameters);
+    private void applyColorEffect(CameraBackend camera) {
+        if (currentColorEffect != null && !camera.setColorEffect(currentColorEffect)) {
+            Log.w(TAG, "Color effect not supported: " + currentColorEffect);
+            currentColorEffect = null;
         }
     }
 
     void takePicture(int maxWidth, int maxHeight) {
-        if (mPreview != null) {
-            if (!canTakePicture)
+        takePicture(maxWidth, maxHeight, OutputMode.BASE64, EncoderOptions.DEFAULT);
+    }
+
+    void takePicture(final int maxWidth, final int maxHeight, final OutputMode outputMode, final EncoderOptions encoder) {
+        long requestNanos = System.nanoTime();
+
+        if (mPreview != null && cameraController != null && cameraController.isOpen()) {
+            if (zslBuffer != null && takeZeroShutterLagPicture(requestNanos, maxWidth, maxHeight, outputMode, encoder)) {
                 return;
+            }
+
+            if (!canTakePicture) {
+                Log.d(TAG, "takePicture called while another picture is being taken");
+                Metrics.increment(Metrics.TAKE_PICTURE_DROPPED);
+                eventListener.onPictureTakenError("Picture already in progress", CaptureRequest.NO_SEQUENCE);
+                return;
+            }
 
             canTakePicture = false;
 
-            Camera.Parameters parameters = mCamera.getParameters();
+            final int displayOrientation = mPreview.getDisplayOrientation();
+            cameraController.execute(new CameraController.CameraTask() {
+                @Override
+                public void run(CameraBackend camera) {
+                    int[] maxSize = configurePictureSize(maxWidth, maxHeight);
+                    shoot(maxSize[0], maxSize[1], displayOrientation, outputMode, encoder, CaptureRequest.NO_SEQUENCE, false);
+                }
+            });
+        } else {
+            // opening, switching or released; onCameraOpened resets canTakePicture
+            Log.w(TAG, "takePicture called without an open camera");
+            eventListener.onPictureTakenError("Camera is not ready", CaptureRequest.NO_SEQUENCE);
+        }
+    }
 
-            Camera.Size previewSize = parameters.getPreviewSize();
-            Camera.Size size;
+    /**
+     * Focuses, then encodes the sharpest preview frame of the following
+     * {@code windowMs} instead of firing the shutter. Falls back to a regular
+     * picture if the preview delivers no frames.
+     */
+    void takeSharpestPicture(final long windowMs, final int maxWidth, final int maxHeight, final OutputMode outputMode, final EncoderOptions encoder) {
+        if (mPreview == null || cameraController == null || !cameraController.isOpen() || frameDispatcher == null) {
+            Log.w(TAG, "takeSharpestPicture called without an open camera and preview");
+            canTakePicture = true;
+            eventListener.onPictureTakenError("Camera is not ready", CaptureRequest.NO_SEQUENCE);
+            return;
+        }
 
-            List<Camera.Size> sizes = parameters.getSupportedPictureSizes();
+        if (!canTakePicture) {
+            Log.d(TAG, "takeSharpestPicture called while another picture is being taken");
+            Metrics.increment(Metrics.TAKE_PICTURE_DROPPED);
+            eventListener.onPictureTakenError("Picture already in progress", CaptureRequest.NO_SEQUENCE);
+            return;
+        }
 
-            if (maxHeight <= 0 && maxWidth <= 0) {
-                maxWidth = previewSize.width;
-                maxHeight = previewSize.height;
-                size = mPreview.getOptimalSize(sizes, maxWidth, maxHeight);
-            } else {
-                double ratio = previewSize.width / (double) previewSize.height;
-
-                if (maxWidth <= 0 && maxHeight > 0) {
-                    maxWidth = (int)Math.round(maxHeight * ratio);
-                    size = mPreview.getOptimalSize(sizes, maxWidth, maxHeight);
-                } else if (maxHeight <= 0 && maxWidth > 0) {
-                    maxHeight = (int) Math.round(maxWidth / ratio);
-                    size = mPreview.getOptimalSize(sizes, maxWidth, maxHeight);
-                } else {
-                    int targetWidth = maxWidth;
-                    int targetHeight = maxHeight;
-                    double targetRatio = targetWidth / (double) targetHeight;
-
-                    if (Math.abs(ratio - targetRatio) > 0.0000001d) {
-                        if (targetWidth / ratio > targetHeight) {
-                            targetHeight = (int) Math.round(targetWidth / ratio);
-                        } else {
-                            targetWidth = (int) Math.round(targetHeight * ratio);
-                        }
-                    }
+        canTakePicture = false;
+
+        final int displayOrientation = mPreview.getDisplayOrientation();
+        final boolean mirror = mCamera.isFrontFacing(cameraCurrentlyLocked);
+        // main thread only: posted as the focus timeout and run by the focus callback, whichever comes first
+        final Runnable openWindow = new Runnable() {
+            private boolean opened;
 
-                    size = mPreview.getOptimalSize(sizes, targetWidth, targetHeight);
+            @Override
+            public void run() {
+                if (opened) {
+                    return;
                 }
+                opened = true;
+                mainHandler.removeCallbacks(this);
+                openSharpnessWindow(windowMs, maxWidth, maxHeight, displayOrientation, mirror, outputMode, encoder);
             }
+        };
+        mainHandler.postDelayed(openWindow, FOCUS_TIMEOUT_MS);
 
-            parameters.setPictureSize(size.width, size.height);
-            mCamera.setParameters(parameters);
+        cameraController.execute(new CameraController.CameraTask() {
+            @Override
+            public void run(CameraBackend camera) {
+                try {
+                    camera.cancelAutoFocus();
+                    camera.autoFocus(new CameraBackend.FocusCallback() {
+                        @Override
+                        public void onFocus(boolean success) {
+                            Log.d(TAG, "focused before sharpest frame: " + success);
+                            openWindow.run();
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "autoFocus failed, scoring frames without it", e);
+                    mainHandler.post(openWindow);
+                }
+            }
+        });
+    }
 
-            Log.d(TAG, "Set picture size to: " + size.width + "x" + size.height);
+    private void openSharpnessWindow(long windowMs, final int maxWidth, final int maxHeight, final int displayOrientation, final boolean mirror, final OutputMode outputMode, final EncoderOptions encoder) {
+        final Runnable closeWindow = new Runnable() {
+            @Override
+            public void run() {
+                sharpFrameSelector.finish();
+            }
+        };
 
-            final int actualMaxWidth = maxWidth;
-            final int actualMaxHeight = maxHeight;
+        boolean started = sharpFrameSelector.start(windowMs * 1000000L, new SharpFrameSelector.Listener() {
+            @Override
+            public void onFrameSelected(byte[] nv21, int frameWidth, int frameHeight, long timestampNanos, double score, int scored) {
+                closeSharpnessWindow(closeWindow);
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "sharpest of " + scored + " frames scored " + score);
+                }
 
-            PictureCallback mPicture = new PictureCallback() {
-                @Override
-                public void onPictureTaken(byte[] data, Camera camera) {
-                    Bitmap picture = BitmapFactory.decodeByteArray(data, 0, data.length);
-                    Matrix matrix = new Matrix();
+                int[] maxSize = resolveMaxSize(frameWidth, frameHeight, maxWidth, maxHeight);
+                capturePipeline.submit(CaptureRequest.forPreviewFrame(
+                        nv21,
+                        frameWidth,
+                        frameHeight,
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                sharpFrameSelector.release();
+                            }
+                        },
+                        maxSize[0],
+                        maxSize[1],
+                        width,
+                        height,
+                        displayOrientation,
+                        mirror,
+                        outputMode,
+                        encoder
+                ));
+                canTakePicture = true;
+            }
 
-                    if (cameraCurrentlyLocked == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-                        Log.d(TAG, "mirror y axis");
-                        matrix.preScale(-1.0f, 1.0f);
+            @Override
+            public void onNoFrame() {
+                closeSharpnessWindow(closeWindow);
+                Log.w(TAG, "no preview frames to score, taking a regular picture");
+                cameraController.execute(new CameraController.CameraTask() {
+                    @Override
+                    public void run(CameraBackend camera) {
+                        int[] maxSize = configurePictureSize(maxWidth, maxHeight);
+                        shoot(maxSize[0], maxSize[1], displayOrientation, outputMode, encoder, CaptureRequest.NO_SEQUENCE, false);
                     }
+                });
+            }
+        });
 
-                    matrix.postRotate(mPreview.getDisplayOrientation());
+        if (!started) {
+            canTakePicture = true;
+            eventListener.onPictureTakenError("Picture already in progress", CaptureRequest.NO_SEQUENCE);
+            return;
+        }
+        frameDispatcher.addConsumer(sharpFrameSelector);
+        mainHandler.postDelayed(closeWindow, windowMs + FRAME_GRACE_MS);
+    }
 
-                    int pictureWidth = picture.getWidth();
-                    int pictureHeight = picture.getHeight();
-                    double pictureRatio = pictureWidth / (double) pictureHeight;
+    // Stops scoring and lets continuous focus take over again.
+    private void closeSharpnessWindow(Runnable closeWindow) {
+        mainHandler.removeCallbacks(closeWindow);
+        frameDispatcher.removeConsumer(sharpFrameSelector);
+        cameraController.execute(new CameraController.CameraTask() {
+            @Override
+            public void run(CameraBackend camera) {
+                camera.cancelAutoFocus();
+            }
+        });
+    }
 
-                    // rotate to screen orientation
-                    try {
-                        picture = Bitmap.createBitmap(picture, 0, 0, pictureWidth, pictureHeight, matrix, true);
+    boolean takeBurst(int count, long intervalMs, final int maxWidth, final int maxHeight, final OutputMode outputMode, final EncoderOptions encoder, BurstController.Overflow overflow) {
+        if (mPreview == null || cameraController == null || !cameraController.isOpen() || !canTakePicture || count <= 0) {
+            return false;
+        }
 
-                        pictureWidth = picture.getWidth();
-                        pictureHeight = picture.getHeight();
-                        pictureRatio = pictureWidth / (double) pictureHeight;
-                    } catch (OutOfMemoryError oom) {
-                        // You can run out of memory if the image is very large:
-                        // http://simonmacdonald.blogspot.ca/2012/07/change-to-camera-code-in-phonegap-190.html
-                        // If this happens, simply do not rotate the image and return it unmodified.
-                        // If you do not catch the OutOfMemoryError, the Android app crashes.
+        canTakePicture = false;
+
+        // The picture size is chosen once for the whole burst, ahead of the first shot on the camera thread.
+        final int[] maxSize = new int[2];
+        final int displayOrientation = mPreview.getDisplayOrientation();
+        cameraController.execute(new CameraController.CameraTask() {
+            @Override
+            public void run(CameraBackend camera) {
+                int[] size = configurePictureSize(maxWidth, maxHeight);
+                maxSize[0] = size[0];
+                maxSize[1] = size[1];
+            }
+        });
+
+        burstController = new BurstController(new Handler(Looper.getMainLooper()), new BurstController.Shutter() {
+            @Override
+            public boolean shoot(final int sequence, final boolean dropOldest) {
+                if (!cameraController.isOpen()) {
+                    return false;
+                }
+                cameraController.execute(new CameraController.CameraTask() {
+                    @Override
+                    public void run(CameraBackend camera) {
+                        CameraActivity.this.shoot(maxSize[0], maxSize[1], displayOrientation, outputMode, encoder, sequence, dropOldest);
                     }
+                });
+                return true;
+            }
 
-                    // crop to match view
-                    try {
-                        double viewRatio = width / (double) height;
+            @Override
+            public boolean isQueueFull() {
+                return capturePipeline.isQueueFull();
+            }
+        });
+        burstController.start(count, intervalMs, overflow, new BurstController.Listener() {
+            @Override
+            public void onBurstFinished(int taken, int requested) {
+                Log.d(TAG, "Burst finished: " + taken + "/" + requested);
+                if (!burstController.isShotInFlight()) {
+                    canTakePicture = true;
+                }
+                eventListener.onBurstFinished(taken, requested);
+            }
+        });
+        return true;
+    }
 
-                        if (Math.abs(pictureRatio - viewRatio) > 0.0000001d) {
-                            int width = pictureWidth;
-                            int height = pictureHeight;
+    void stopBurst() {
+        if (burstController != null) {
+            burstController.cancel();
+        }
+    }
 
-                            if (width / viewRatio > height) {
-                                width = (int) Math.round(height * viewRatio);
-                            } else {
-                                height = (int) Math.round(width / viewRatio);
-                            }
+    // Selects the camera picture size and returns the effective max width and height. Camera thread only.
+    private int[] configurePictureSize(int maxWidth, int maxHeight) {
+        CameraSize previewSize = mCamera.getPreviewSize();
+        SizeIndex sizes = mCamera.getCapabilities().pictureSizeIndex;
 
-                            Bitmap work = Bitmap.createBitmap(width, height, picture.getConfig());
-                            Canvas canvas = new Canvas(work);
-                            canvas.drawBitmap(picture, (width - pictureWidth) / 2, (height - pictureHeight) / 2, null);
-                            picture = work;
+        int[] maxSize = resolveMaxSize(previewSize.width, previewSize.height, maxWidth, maxHeight);
+        int targetWidth = maxSize[0];
+        int targetHeight = maxSize[1];
 
-                            Log.d(TAG, String.format("Cropped picture from: %dx%d to: %dx%d", pictureWidth, pictureHeight, width, height));
+        if (maxWidth > 0 && maxHeight > 0) {
+            double ratio = previewSize.width / (double) previewSize.height;
+            double targetRatio = targetWidth / (double) targetHeight;
 
-                            pictureWidth = width;
-                            pictureHeight = height;
-                            pictureRatio = width / (double) height;
-                        }
-                    } catch (OutOfMemoryError oom) {
-                        // You can run out of memory if the image is very large:
-                        // http://simonmacdonald.blogspot.ca/2012/07/change-to-camera-code-in-phonegap-190.html
-                        // If this happens, simply do not crop the image and return it unmodified.
-                        // If you do not catch the OutOfMemoryError, the Android app crashes.
-                    }
+            if (Math.abs(ratio - targetRatio) > 0.0000001d) {
+                if (targetWidth / ratio > targetHeight) {
+                    targetHeight = (int) Math.round(targetWidth / ratio);
+                } else {
+                    targetWidth = (int) Math.round(targetHeight * ratio);
+                }
+            }
+        }
 
-                    // scale to fit within bounds
-                    try {
-                        int width = actualMaxWidth;
-                        int height = actualMaxHeight;
-
-                        // swap max dimension to match image orientation
-                        if ((pictureWidth < pictureHeight && width > height) || (pictureWidth > pictureHeight && width < height)) {
-                            int tmp = width;
-                            //noinspection SuspiciousNameCombination
-                            width = height;
-                            height = tmp;
-                        }
+        CameraSize size = mPreview.getOptimalSize(sizes, targetWidth, targetHeight);
 
-                        // scale image if it exceeds the requested size
-                        if (pictureWidth > width || pictureHeight > height) {
-                            if (width / pictureRatio > height) {
-                                width = (int) Math.round(height * pictureRatio);
-                            } else {
-                                height = (int) Math.round(width / pictureRatio);
-                            }
+        mCamera.setPictureSize(size.width, size.height);
 
-                            picture = Bitmap.createScaledBitmap(picture, width, height, false);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Set picture size to: " + size.width + "x" + size.height);
+        }
 
-                            Log.d(TAG, String.format("Scaled picture from: %dx%d to: %dx%d", pictureWidth, pictureHeight, width, height));
-                        }
-                    } catch (OutOfMemoryError oom) {
-                        // You can run out of memory if the image is very large:
-                        // http://simonmacdonald.blogspot.ca/2012/07/change-to-camera-code-in-phonegap-190.html
-                        // If this happens, simply do not scale the image and return it unmodified.
-                        // If you do not catch the OutOfMemoryError, the Android app crashes.
-                    }
+        return maxSize;
+    }
 
-                    ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-                    picture.compress(Bitmap.CompressFormat.JPEG, 85, byteArrayOutputStream);
-                    byte[] byteArray = byteArrayOutputStream.toByteArray();
+    // Missing max dimensions follow the preview aspect ratio, none at all means preview size.
+    private static int[] resolveMaxSize(int previewWidth, int previewHeight, int maxWidth, int maxHeight) {
+        if (maxHeight <= 0 && maxWidth <= 0) {
+            return new int[]{previewWidth, previewHeight};
+        }
 
-                    String encodedImage = Base64.encodeToString(byteArray, Base64.NO_WRAP);
+        double ratio = previewWidth / (double) previewHeight;
 
-                    eventListener.onPictureTaken(encodedImage);
+        if (maxWidth <= 0) {
+            maxWidth = (int) Math.round(maxHeight * ratio);
+        } else if (maxHeight <= 0) {
+            maxHeight = (int) Math.round(maxWidth / ratio);
+        }
+        return new int[]{maxWidth, maxHeight};
+    }
+
+    // A negative budget leaves that pool unchanged.
+    void setPoolBudget(long bitmapBudget, long bufferBudget) {
+        if (bitmapBudget >= 0) {
+            bitmapPool.setBudget(bitmapBudget);
+        }
+        if (bufferBudget >= 0) {
+            bufferPool.setBudget(bufferBudget);
+        }
+    }
+
+    BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    ByteArrayPool getBufferPool() {
+        return bufferPool;
+    }
+
+    void setZeroShutterLag(boolean enabled, int frameCount) {
+        if (frameDispatcher == null) {
+            return;
+        }
+        if (zslBuffer != null) {
+            frameDispatcher.removeConsumer(zslBuffer);
+            zslBuffer = null;
+        }
+        if (enabled) {
+            zslBuffer = new PreviewRingBuffer(frameCount);
+            frameDispatcher.addConsumer(zslBuffer);
+        }
+        Log.d(TAG, "zero shutter lag: " + enabled + " (" + frameCount + " frames)");
+    }
+
+    private void clearZeroShutterLagFrames() {
+        if (zslBuffer != null) {
+            zslBuffer.clear();
+        }
+    }
+
+    // Answers takePicture from the preview frame closest to the request, without triggering the shutter.
+    private boolean takeZeroShutterLagPicture(long requestNanos, int maxWidth, int maxHeight, OutputMode outputMode, EncoderOptions encoder) {
+        final PreviewRingBuffer buffer = zslBuffer;
+        final PreviewRingBuffer.Frame frame = buffer.acquireClosest(requestNanos);
+        if (frame == null) {
+            return false;
+        }
+
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "zero shutter lag frame is " + (requestNanos - frame.timestampNanos) / 1000000L + "ms old");
+        }
+
+        int[] maxSize = resolveMaxSize(frame.width, frame.height, maxWidth, maxHeight);
+        capturePipeline.submit(CaptureRequest.forPreviewFrame(
+                frame.data,
+                frame.width,
+                frame.height,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        buffer.release(frame);
+                    }
+                },
+                maxSize[0],
+                maxSize[1],
+                width,
+                height,
+                mPreview.getDisplayOrientation(),
+                mCamera.isFrontFacing(cameraCurrentlyLocked),
+                outputMode,
+                encoder
+        ));
+        return true;
+    }
+
+    // Camera thread only; the picture callback arrives on the main thread.
+    private void shoot(final int maxWidth, final int maxHeight, final int displayOrientation, final OutputMode outputMode, final EncoderOptions encoder, final int sequence, final boolean dropOldest) {
+        final boolean mirror = mCamera.isFrontFacing(mCamera.getCameraId());
+        final long shutterNanos = System.nanoTime();
+
+        boolean started = mCamera.takePicture(new CameraBackend.PictureCallback() {
+            @Override
+            public void onPictureTaken(byte[] data) {
+                Metrics.recordSince(Metrics.SHUTTER_TO_JPEG, shutterNanos);
+                capturePipeline.submit(new CaptureRequest(
+                        data,
+                        maxWidth,
+                        maxHeight,
+                        width,
+                        height,
+                        displayOrientation,
+                        mirror,
+                        outputMode,
+                        encoder,
+                        sequence
+                ), dropOldest);
+
+                if (sequence != CaptureRequest.NO_SEQUENCE && burstController != null) {
+                    burstController.onShutterComplete();
+                }
+                if (burstController == null || !burstController.isRunning()) {
                     canTakePicture = true;
                 }
-            };
+            }
 
-            mCamera.takePicture(null, null, mPicture);
-        } else {
+            @Override
+            public void onPictureFailed(String message) {
+                onShotFailed(message, sequence);
+            }
+        });
+
+        if (!started) {
+            getActivity().runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    onShotFailed("Could not take picture", sequence);
+                }
+            });
+        }
+    }
+
+    // Main thread only.
+    private void onShotFailed(String message, int sequence) {
+        if (sequence == CaptureRequest.NO_SEQUENCE) {
             canTakePicture = true;
+            eventListener.onPictureTakenError(message, sequence);
+        } else if (burstController != null) {
+            Log.w(TAG, "Burst aborted, camera could not take picture " + sequence + ": " + message);
+            canTakePicture = true;
+            burstController.cancel();
         }
     }
 
+    private final CapturePipeline.Listener captureListener = new CapturePipeline.Listener() {
+        @Override
+        public void onCaptureProcessed(CaptureRequest request, Object picture, EncodeResult encoded, CaptureTimings timings) {
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Picture processed: " + timings);
+            }
+            Metrics.record(Metrics.QUEUED, timings.getNanos(CaptureTimings.Stage.QUEUED));
+            Metrics.record(Metrics.DECODE, timings.getNanos(CaptureTimings.Stage.DECODE));
+            Metrics.record(Metrics.TRANSFORM, timings.getNanos(CaptureTimings.Stage.TRANSFORM));
+            Metrics.record(Metrics.ENCODE, timings.getNanos(CaptureTimings.Stage.ENCODE));
+            Metrics.record(Metrics.TRANSPORT, timings.getNanos(CaptureTimings.Stage.TRANSPORT));
+
+            // the encoding is only reported to callers that asked for a size budget
+            EncodeResult reported = request.encoder.targetBytes > 0 ? encoded : null;
+            long deliveryNanos = System.nanoTime();
+            if (picture instanceof byte[]) {
+                eventListener.onPictureTaken((byte[]) picture, request.sequence, reported);
+            } else {
+                eventListener.onPictureTaken((String) picture, request.sequence, reported);
+            }
+            Metrics.recordSince(Metrics.BRIDGE_DELIVERY, deliveryNanos);
+            Metrics.increment(Metrics.PICTURES_TAKEN);
+        }
+
+        @Override
+        public void onCaptureFailed(CaptureRequest request, Throwable error) {
+            Log.e(TAG, "Picture processing failed", error);
+            Metrics.increment(Metrics.PICTURES_FAILED);
+            eventListener.onPictureTakenError(error.toString(), request.sequence);
+        }
+    };
+
     interface CameraPreviewListener {
-        void onPictureTaken(String originalPicturePath);
+        // encoded is null unless the picture was taken with a target size
+        void onPictureTaken(String originalPicturePath, int sequence, EncodeResult encoded);
+
+        void onPictureTaken(byte[] picture, int sequence, EncodeResult encoded);
+
+        void onPictureTakenError(String message, int sequence);
+
+        void onBurstFinished(int taken, int requested);
+
+        void onCameraStarted();
+
+        void onCameraError(String message);
+
+        // In pixels, after a drag has ended.
+        void onPreviewMoved(int x, int y, int width, int height);
     }
 }
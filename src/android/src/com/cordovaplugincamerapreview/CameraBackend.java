@@ -0,0 +1,98 @@
+package com.cordovaplugincamerapreview;
+
+import android.graphics.SurfaceTexture;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Everything {@link CameraActivity} and {@link Preview} need from a camera,
+ * independent of the camera API behind it. Cameras are addressed by their
+ * index, from 0 to {@link #getNumberOfCameras()} - 1. Callbacks are delivered
+ * on the main thread. Implementations are {@link LegacyCameraBackend} for
+ * {@code android.hardware.Camera} and {@link Camera2Backend}.
+ */
+interface CameraBackend {
+    int FLASH_OFF = 0;
+    int FLASH_ON = 1;
+    int FLASH_AUTO = 2;
+    int FOCUS_AUTO = 0;
+    int FOCUS_CONTINUOUS = 1;
+
+    interface PictureCallback {
+        // The preview is running again by the time this is called.
+        void onPictureTaken(byte[] jpeg);
+
+        // The picture was started but could not be taken.
+        void onPictureFailed(String message);
+    }
+
+    interface FocusCallback {
+        void onFocus(boolean success);
+    }
+
+    String getName();
+
+    int getNumberOfCameras();
+
+    boolean isFrontFacing(int cameraId);
+
+    int getSensorOrientation(int cameraId);
+
+    void open(int cameraId) throws IOException;
+
+    void close();
+
+    boolean isOpen();
+
+    int getCameraId();
+
+    // Capabilities of the open camera, captured when it was opened.
+    CameraCapabilities getCapabilities();
+
+    // Capabilities of any camera, or null if they can only be read once it has been opened.
+    CameraCapabilities getCapabilities(int cameraId);
+
+    List<CameraSize> getSupportedPreviewSizes();
+
+    List<CameraSize> getSupportedPictureSizes();
+
+    CameraSize getPreviewSize();
+
+    void setPreviewSize(int width, int height);
+
+    void setPictureSize(int width, int height);
+
+    void setDisplayOrientation(int degrees);
+
+    void setPreviewDisplay(SurfaceHolder holder) throws IOException;
+
+    // For TextureView previews; replaces any display set with setPreviewDisplay.
+    void setPreviewTexture(SurfaceTexture texture) throws IOException;
+
+    void startPreview();
+
+    void stopPreview();
+
+    // Stops frame delivery but keeps the preview configured, so resumePreview restarts it quickly.
+    void pausePreview();
+
+    void resumePreview();
+
+    // Returns false if no picture can be taken right now; the callback is not called then.
+    boolean takePicture(PictureCallback callback);
+
+    void autoFocus(FocusCallback callback);
+
+    void cancelAutoFocus();
+
+    void setFlashMode(int flashMode);
+
+    void setFocusMode(int focusMode);
+
+    // Returns false if the effect is unknown or not supported by the camera.
+    boolean setColorEffect(String effect);
+
+    void setFrameDispatcher(PreviewFrameDispatcher frameDispatcher);
+}
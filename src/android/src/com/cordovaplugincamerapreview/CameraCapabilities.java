@@ -0,0 +1,87 @@
+package com.cordovaplugincamerapreview;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What one camera can do, captured once when it is opened so size selection and
+ * parameter changes don't have to ask the camera service again. Flash and focus
+ * modes use the {@link CameraBackend} constants, color effects the names
+ * accepted by {@code setColorEffect}.
+ */
+final class CameraCapabilities {
+    final int cameraId;
+    final boolean frontFacing;
+    final int sensorOrientation;
+    final List<CameraSize> previewSizes;
+    final List<CameraSize> pictureSizes;
+    final SizeIndex previewSizeIndex;
+    final SizeIndex pictureSizeIndex;
+    final Set<Integer> flashModes;
+    final Set<Integer> focusModes;
+    final Set<String> colorEffects;
+
+    CameraCapabilities(int cameraId,
+                       boolean frontFacing,
+                       int sensorOrientation,
+                       List<CameraSize> previewSizes,
+                       List<CameraSize> pictureSizes,
+                       Set<Integer> flashModes,
+                       Set<Integer> focusModes,
+                       Set<String> colorEffects) {
+        this.cameraId = cameraId;
+        this.frontFacing = frontFacing;
+        this.sensorOrientation = sensorOrientation;
+        this.previewSizes = Collections.unmodifiableList(previewSizes);
+        this.pictureSizes = Collections.unmodifiableList(pictureSizes);
+        this.previewSizeIndex = new SizeIndex(previewSizes);
+        this.pictureSizeIndex = new SizeIndex(pictureSizes);
+        this.flashModes = Collections.unmodifiableSet(flashModes);
+        this.focusModes = Collections.unmodifiableSet(focusModes);
+        this.colorEffects = Collections.unmodifiableSet(colorEffects);
+    }
+
+    boolean supportsFlashMode(int flashMode) {
+        return flashModes.contains(flashMode);
+    }
+
+    boolean supportsFocusMode(int focusMode) {
+        return focusModes.contains(focusMode);
+    }
+
+    boolean supportsColorEffect(String effect) {
+        return colorEffects.contains(effect);
+    }
+
+    // The flash mode the backends end up using for a requested one; auto falls back to on.
+    int resolveFlashMode(int flashMode) {
+        if (supportsFlashMode(flashMode)) {
+            return flashMode;
+        }
+        if (flashMode == CameraBackend.FLASH_AUTO && supportsFlashMode(CameraBackend.FLASH_ON)) {
+            return CameraBackend.FLASH_ON;
+        }
+        return CameraBackend.FLASH_OFF;
+    }
+
+    // The focus mode the backends end up using for a requested one; continuous falls back to auto.
+    int resolveFocusMode(int focusMode) {
+        if (supportsFocusMode(focusMode) || !supportsFocusMode(CameraBackend.FOCUS_AUTO)) {
+            return focusMode;
+        }
+        return CameraBackend.FOCUS_AUTO;
+    }
+
+    @Override
+    public String toString() {
+        return "CameraCapabilities{camera=" + cameraId
+                + ", front=" + frontFacing
+                + ", orientation=" + sensorOrientation
+                + ", preview=" + previewSizes
+                + ", picture=" + pictureSizes
+                + ", flash=" + flashModes
+                + ", focus=" + focusModes
+                + ", effects=" + colorEffects + "}";
+    }
+}
@@ -0,0 +1,319 @@
+package com.cordovaplugincamerapreview;
+
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs all camera lifecycle work off the UI thread. Every call is posted to a
+ * dedicated camera thread and executed in order, so an open requested while a
+ * close is still running simply waits its turn instead of racing it. The
+ * current {@link State} can be read from any thread; listener callbacks are
+ * delivered on the main thread.
+ */
+class CameraController {
+    private static final String TAG = "CameraController";
+
+    enum State {
+        CLOSED,
+        OPENING,
+        OPEN,
+        PREVIEWING,
+        // open with the preview configured but paused
+        STANDBY,
+        CLOSING
+    }
+
+    interface Listener {
+        void onCameraOpened(CameraCapabilities capabilities);
+
+        void onCameraError(int cameraId, String message);
+
+        void onPreviewStarted(int cameraId);
+    }
+
+    // Work that needs an open camera; skipped if the camera is closed by the time it runs.
+    interface CameraTask {
+        void run(CameraBackend backend);
+    }
+
+    private final CameraBackend backend;
+    private final CapabilityStore capabilityStore;
+    private final Listener listener;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile State state = State.CLOSED;
+    // camera thread only
+    private long openRequestedNanos;
+    private boolean firstPreviewPending;
+
+    CameraController(CameraBackend backend, CapabilityStore capabilityStore, Listener listener) {
+        this.backend = backend;
+        this.capabilityStore = capabilityStore;
+        this.listener = listener;
+
+        thread = new HandlerThread("CameraThread");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    CameraBackend getBackend() {
+        return backend;
+    }
+
+    boolean isOpen() {
+        return state == State.OPEN || state == State.PREVIEWING || state == State.STANDBY;
+    }
+
+    // Records every camera the backend can describe without opening it in the capability store, once per process.
+    void enumerateCameras() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (capabilityStore.isEnumerated()) {
+                    return;
+                }
+                capabilityStore.enumerate(backend);
+                capabilityStore.save();
+            }
+        });
+    }
+
+    // Capabilities from the store, written by enumerateCameras, opens and earlier launches. Any thread.
+    CameraCapabilities getKnownCapabilities(int cameraId) {
+        return capabilityStore.get(cameraId);
+    }
+
+    // Opens the given camera, closing the current one first if needed.
+    void open(final int cameraId) {
+        final long requestedNanos = System.nanoTime();
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (state != State.CLOSED) {
+                    closeNow();
+                }
+
+                state = State.OPENING;
+                final CameraCapabilities capabilities;
+                try {
+                    long openNanos = System.nanoTime();
+                    backend.open(cameraId);
+                    // the store keeps its instance if nothing changed, so a preview prepared from it is reused
+                    capabilityStore.put(backend.getCapabilities());
+                    capabilities = capabilityStore.get(cameraId);
+                    Metrics.recordSince(Metrics.CAMERA_OPEN, openNanos);
+                } catch (final IOException e) {
+                    Log.e(TAG, "Could not open camera " + cameraId, e);
+                    backend.close();
+                    state = State.CLOSED;
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onCameraError(cameraId, e.getMessage());
+                        }
+                    });
+                    return;
+                }
+                state = State.OPEN;
+                openRequestedNanos = requestedNanos;
+                firstPreviewPending = true;
+                Log.d(TAG, "Opened camera " + cameraId);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onCameraOpened(capabilities);
+                    }
+                });
+                capabilityStore.save();
+            }
+        });
+    }
+
+    void startPreview(SurfaceHolder holder, int width, int height, int displayOrientation) {
+        startPreview(holder, null, width, height, displayOrientation);
+    }
+
+    void startPreview(SurfaceTexture texture, int width, int height, int displayOrientation) {
+        startPreview(null, texture, width, height, displayOrientation);
+    }
+
+    private void startPreview(final SurfaceHolder holder,
+                              final SurfaceTexture texture,
+                              final int width,
+                              final int height,
+                              final int displayOrientation) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isOpen()) {
+                    return;
+                }
+                if (state == State.PREVIEWING || state == State.STANDBY) {
+                    backend.stopPreview();
+                    state = State.OPEN;
+                }
+
+                try {
+                    backend.setPreviewSize(width, height);
+                    backend.setDisplayOrientation(displayOrientation);
+                    if (texture != null) {
+                        backend.setPreviewTexture(texture);
+                    } else {
+                        backend.setPreviewDisplay(holder);
+                    }
+                    backend.startPreview();
+                } catch (Exception e) {
+                    Log.e(TAG, "Could not start preview", e);
+                    return;
+                }
+                state = State.PREVIEWING;
+                if (firstPreviewPending) {
+                    firstPreviewPending = false;
+                    Metrics.recordSince(Metrics.FIRST_PREVIEW_FRAME, openRequestedNanos);
+                }
+                notifyPreviewStarted();
+            }
+        });
+    }
+
+    // Stops frame delivery but keeps the camera open and the preview configured.
+    void pausePreview() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (state == State.PREVIEWING) {
+                    backend.pausePreview();
+                    state = State.STANDBY;
+                }
+            }
+        });
+    }
+
+    /**
+     * Restarts a preview paused with {@link #pausePreview()}. Does nothing if
+     * the preview was stopped meanwhile, e.g. because its surface went away;
+     * it then starts again through {@link #startPreview} as usual.
+     */
+    void resumePreview() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (state != State.STANDBY) {
+                    return;
+                }
+                backend.resumePreview();
+                state = State.PREVIEWING;
+                notifyPreviewStarted();
+            }
+        });
+    }
+
+    private void notifyPreviewStarted() {
+        final int cameraId = backend.getCameraId();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onPreviewStarted(cameraId);
+            }
+        });
+    }
+
+    void stopPreview() {
+        handler.post(stopPreviewRunnable);
+    }
+
+    // For SurfaceHolder.Callback#surfaceDestroyed, which must not return while the camera still draws.
+    void stopPreviewAndWait(long timeoutMs) {
+        final CountDownLatch stopped = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                stopPreviewRunnable.run();
+                stopped.countDown();
+            }
+        });
+        try {
+            if (!stopped.await(timeoutMs, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Timed out waiting for the preview to stop");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void execute(final CameraTask task) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!isOpen()) {
+                    Log.d(TAG, "Camera closed, dropping task");
+                    return;
+                }
+                try {
+                    task.run(backend);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Camera task failed", e);
+                }
+            }
+        });
+    }
+
+    // Camera thread work that doesn't need an open camera, e.g. updating settings applied on open.
+    void post(final Runnable work) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    work.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Camera thread work failed", e);
+                }
+            }
+        });
+    }
+
+    void close() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeNow();
+            }
+        });
+    }
+
+    // Closes the camera and stops the camera thread once queued work is done.
+    void release() {
+        close();
+        thread.quitSafely();
+    }
+
+    private final Runnable stopPreviewRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (state == State.PREVIEWING || state == State.STANDBY) {
+                backend.stopPreview();
+                state = State.OPEN;
+            }
+        }
+    };
+
+    private void closeNow() {
+        if (state == State.CLOSED) {
+            return;
+        }
+        state = State.CLOSING;
+        backend.close();
+        state = State.CLOSED;
+        Log.d(TAG, "Closed camera");
+    }
+}
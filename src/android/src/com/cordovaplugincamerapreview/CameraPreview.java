@@ -5,7 +5,8 @@ import android.app.Activity;
 import android.app.FragmentManager;
 import android.app.FragmentTransaction;
 import android.content.pm.PackageManager;
-import android.hardware.Camera;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.util.TypedValue;
@@ -16,281 +17,839 @@ import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.PluginResult;
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
 
 public class CameraPreview extends CordovaPlugin implements CameraActivity.CameraPreviewListener {
 
     private final String TAG = "CameraPreview";
-    private final String focusCameraAction = "focus"; // refocus function added
 
     private final int permissionsReqId = 0;
     private CallbackContext execCallback;
-    private JSONArray execArgs;
-
-    private CameraActivity fragment;
-    private CallbackContext takePictureCallbackContext;
+    private ActionArgs.StartCamera execArgs;
+
+    // assigned on the UI thread, read by actions on every thread
+    private volatile CameraActivity fragment;
+    private volatile CallbackContext takePictureCallbackContext;
+    private CallbackContext burstCallbackContext;
+    private CallbackContext startCameraCallbackContext;
+    private volatile CallbackContext previewMovedCallbackContext;
     private FrameLayout containerView;
+    private final PreviewFrameDispatcher frameDispatcher = new PreviewFrameDispatcher();
+    private final DirectFramePool directFramePool = new DirectFramePool();
+    private JsFrameStreamer jsFrameStreamer;
+    private volatile ThumbnailStreamer thumbnailStreamer;
+    private AnalyzerEngine analyzerEngine;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private CallbackContext metricsCallbackContext;
+    private long metricsPushIntervalMs;
+    private final ActionTable actions = new ActionTable(new ActionTable.Executor() {
+        @Override
+        public void execute(ActionTable.Target target, Runnable work) {
+            switch (target) {
+                case UI:
+                    cordova.getActivity().runOnUiThread(work);
+                    break;
+                case CAMERA:
+                    CameraActivity current = fragment;
+                    if (current != null) {
+                        current.runOnCameraThread(work);
+                    } else {
+                        cordova.getActivity().runOnUiThread(work);
+                    }
+                    break;
+                case WORKER:
+                    cordova.getThreadPool().execute(work);
+                    break;
+                default:
+                    work.run();
+                    break;
+            }
+        }
+
+        @Override
+        public boolean isCameraStarted() {
+            return fragment != null;
+        }
+    });
 
     public CameraPreview() {
         super();
         Log.d(TAG, "Constructing");
+        registerActions();
     }
 
     @Override
     public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException {
+        return actions.dispatch(action, args, callbackContext);
+    }
 
-        if (action.equals("setOnPictureTakenHandler")) {
-            setOnPictureTakenHandler(callbackContext);
-            return true;
-        } else if (action.equals("startCamera")) {
-            if (cordova.hasPermission(Manifest.permission.CAMERA)) {
-                return startCamera(args);
-            }
-
-            execCallback = callbackContext;
-            execArgs = args;
-            cordova.requestPermission(this, permissionsReqId, Manifest.permission.CAMERA);
-            return true;
-        } else if (action.equals("takePicture")) {
-            return takePicture(args, callbackContext);
-        } else if (action.equals("setColorEffect")) {
-            return setColorEffect(args);
-        } else if (action.equals("stopCamera")) {
-            return stopCamera();
-        } else if (action.equals("hideCamera")) {
-            return hideCamera();
-        } else if (action.equals("showCamera")) {
-            return showCamera();
-        } else if (action.equals("switchCamera")) {
-            return switchCamera();
-        } else if (action.equals("setFlashMode")) {
-            return setFlashMode(args);
-        } else if (action.equals("setFocusMode")) {
-            return setFocusMode(args);
-        } else if (focusCameraAction.equals(action)){
-            // refocus function added
-            return focusCamera(args, callbackContext);
-        }
-
-        return false;
-    }
-
-    private boolean startCamera(final JSONArray args) {
+    private void registerActions() {
+        actions.register("setOnPictureTakenHandler", ActionTable.Target.BRIDGE, false, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) {
+                setOnPictureTakenHandler(callbackContext);
+            }
+        });
+        actions.register("setOnPreviewMovedHandler", ActionTable.Target.BRIDGE, false, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) {
+                previewMovedCallbackContext = callbackContext;
+            }
+        });
+        actions.register("startCamera", ActionTable.Target.UI, false, ActionArgs.StartCamera.PARSER, new ActionTable.Handler<ActionArgs.StartCamera>() {
+            @Override
+            public void run(ActionArgs.StartCamera args, CallbackContext callbackContext) {
+                if (cordova.hasPermission(Manifest.permission.CAMERA)) {
+                    startCamera(args, callbackContext);
+                    return;
+                }
+                execCallback = callbackContext;
+                execArgs = args;
+                cordova.requestPermission(CameraPreview.this, permissionsReqId, Manifest.permission.CAMERA);
+            }
+        });
+        actions.register("stopCamera", ActionTable.Target.UI, true, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) {
+                stopCamera();
+            }
+        });
+        actions.register("showCamera", ActionTable.Target.UI, true, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) {
+                showCamera();
+            }
+        });
+        actions.register("hideCamera", ActionTable.Target.UI, true, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) {
+                hideCamera();
+            }
+        });
+        actions.register("standby", ActionTable.Target.UI, true, ActionArgs.longArg(0, CameraActivity.DEFAULT_STANDBY_TIMEOUT_MS), new ActionTable.Handler<Long>() {
+            @Override
+            public void run(Long idleTimeoutMs, CallbackContext callbackContext) {
+                if (fragment.enterStandby(idleTimeoutMs)) {
+                    callbackContext.success();
+                } else {
+                    callbackContext.error("Camera is not ready");
+                }
+            }
+        });
+        actions.register("resume", ActionTable.Target.UI, true, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) {
+                fragment.resumeFromStandby();
+                callbackContext.success();
+            }
+        });
+        actions.register("switchCamera", ActionTable.Target.UI, true, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) {
+                fragment.switchCamera();
+            }
+        });
+        actions.register("takePicture", ActionTable.Target.UI, true, ActionArgs.Picture.PARSER, new ActionTable.Handler<ActionArgs.Picture>() {
+            @Override
+            public void run(ActionArgs.Picture args, CallbackContext callbackContext) {
+                takePicture(args, callbackContext);
+            }
+        });
+        actions.register("takeBurst", ActionTable.Target.UI, true, ActionArgs.Burst.PARSER, new ActionTable.Handler<ActionArgs.Burst>() {
+            @Override
+            public void run(ActionArgs.Burst args, CallbackContext callbackContext) {
+                takeBurst(args, callbackContext);
+            }
+        });
+        actions.register("stopBurst", ActionTable.Target.UI, true, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) {
+                fragment.stopBurst();
+            }
+        });
+        // refocus function added
+        actions.register("focus", ActionTable.Target.UI, true, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) {
+                fragment.refocusCamera();
+            }
+        });
+        actions.register("setZeroShutterLag", ActionTable.Target.UI, true, ActionArgs.ZeroShutterLag.PARSER, new ActionTable.Handler<ActionArgs.ZeroShutterLag>() {
+            @Override
+            public void run(ActionArgs.ZeroShutterLag args, CallbackContext callbackContext) {
+                fragment.setZeroShutterLag(args.enabled, args.frameCount);
+            }
+        });
+        actions.register("setFlashMode", ActionTable.Target.CAMERA, true, ActionArgs.requiredIntArg(0), new ActionTable.Handler<Integer>() {
+            @Override
+            public void run(Integer flashMode, CallbackContext callbackContext) {
+                // the camera may be stopped from the UI thread meanwhile
+                CameraActivity current = fragment;
+                if (current != null) {
+                    current.setFlashMode(flashMode);
+                }
+            }
+        });
+        actions.register("setFocusMode", ActionTable.Target.CAMERA, true, ActionArgs.requiredIntArg(0), new ActionTable.Handler<Integer>() {
+            @Override
+            public void run(Integer focusMode, CallbackContext callbackContext) {
+                // the camera may be stopped from the UI thread meanwhile
+                CameraActivity current = fragment;
+                if (current != null) {
+                    current.setFocusMode(focusMode);
+                }
+            }
+        });
+        actions.register("setColorEffect", ActionTable.Target.CAMERA, true, ActionArgs.requiredStringArg(0), new ActionTable.Handler<String>() {
+            @Override
+            public void run(String effect, CallbackContext callbackContext) {
+                // the camera may be stopped from the UI thread meanwhile
+                CameraActivity current = fragment;
+                if (current != null) {
+                    current.setColorEffect(effect);
+                }
+            }
+        });
+        actions.register("configure", ActionTable.Target.CAMERA, true, ActionArgs.Configure.PARSER, new ActionTable.Handler<ActionArgs.Configure>() {
+            @Override
+            public void run(ActionArgs.Configure settings, CallbackContext callbackContext) {
+                configure(settings, callbackContext);
+            }
+        });
+        actions.register("setPoolBudget", ActionTable.Target.WORKER, true, ActionArgs.PoolBudget.PARSER, new ActionTable.Handler<ActionArgs.PoolBudget>() {
+            @Override
+            public void run(ActionArgs.PoolBudget args, CallbackContext callbackContext) {
+                setPoolBudget(args, callbackContext);
+            }
+        });
+        actions.register("getPoolStats", ActionTable.Target.WORKER, true, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) throws JSONException {
+                getPoolStats(callbackContext);
+            }
+        });
+        actions.register("getCapabilities", ActionTable.Target.WORKER, false, ActionArgs.stringArg(0, "auto"), new ActionTable.Handler<String>() {
+            @Override
+            public void run(String backend, CallbackContext callbackContext) throws JSONException {
+                getCapabilities(backend, callbackContext);
+            }
+        });
+        actions.register("setMetricsEnabled", ActionTable.Target.BRIDGE, false, ActionArgs.booleanArg(0, true), new ActionTable.Handler<Boolean>() {
+            @Override
+            public void run(Boolean enabled, CallbackContext callbackContext) {
+                Metrics.setEnabled(enabled);
+            }
+        });
+        actions.register("getMetrics", ActionTable.Target.WORKER, false, ActionArgs.booleanArg(0, false), new ActionTable.Handler<Boolean>() {
+            @Override
+            public void run(Boolean reset, CallbackContext callbackContext) throws JSONException {
+                getMetrics(reset, callbackContext);
+            }
+        });
+        actions.register("startMetricsPush", ActionTable.Target.UI, false, ActionArgs.longArg(0, 5000), new ActionTable.Handler<Long>() {
+            @Override
+            public void run(Long intervalMs, CallbackContext callbackContext) {
+                startMetricsPush(intervalMs, callbackContext);
+            }
+        });
+        actions.register("stopMetricsPush", ActionTable.Target.UI, false, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) {
+                stopMetricsPush();
+            }
+        });
+        actions.register("startFrameStream", ActionTable.Target.UI, false, ActionArgs.FrameStream.PARSER, new ActionTable.Handler<ActionArgs.FrameStream>() {
+            @Override
+            public void run(ActionArgs.FrameStream args, CallbackContext callbackContext) {
+                startFrameStream(args, callbackContext);
+            }
+        });
+        actions.register("stopFrameStream", ActionTable.Target.UI, false, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) {
+                stopFrameStream();
+            }
+        });
+        actions.register("startThumbnailStream", ActionTable.Target.UI, false, ActionArgs.ThumbnailStream.PARSER, new ActionTable.Handler<ActionArgs.ThumbnailStream>() {
+            @Override
+            public void run(ActionArgs.ThumbnailStream args, CallbackContext callbackContext) {
+                startThumbnailStream(args, callbackContext);
+            }
+        });
+        actions.register("stopThumbnailStream", ActionTable.Target.UI, false, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) {
+                stopThumbnailStream();
+            }
+        });
+        actions.register("thumbnailAck", ActionTable.Target.BRIDGE, false, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) {
+                ThumbnailStreamer streamer = thumbnailStreamer;
+                if (streamer != null) {
+                    streamer.acknowledge();
+                }
+            }
+        });
+        actions.register("startAnalyzers", ActionTable.Target.UI, false, ActionArgs.Analyzers.PARSER, new ActionTable.Handler<ActionArgs.Analyzers>() {
+            @Override
+            public void run(ActionArgs.Analyzers args, CallbackContext callbackContext) {
+                startAnalyzers(args, callbackContext);
+            }
+        });
+        actions.register("stopAnalyzers", ActionTable.Target.UI, false, ActionTable.NO_ARGS, new ActionTable.Handler<Void>() {
+            @Override
+            public void run(Void args, CallbackContext callbackContext) {
+                stopAnalyzers();
+            }
+        });
+    }
+
+    // UI thread only. The callback is resolved once the preview is actually running, see onCameraStarted.
+    private void startCamera(ActionArgs.StartCamera args, CallbackContext callbackContext) {
         if (fragment != null) {
-            return false;
+            callbackContext.error("Camera already started");
+            return;
         }
+        startCameraCallbackContext = callbackContext;
         fragment = new CameraActivity();
         fragment.setEventListener(this);
+        fragment.setFrameDispatcher(frameDispatcher);
 
-        cordova.getActivity().runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-
-                try {
-                    DisplayMetrics metrics = cordova.getActivity().getResources().getDisplayMetrics();
-                    int x = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, args.getInt(0), metrics);
-                    int y = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, args.getInt(1), metrics);
-                    int width = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, args.getInt(2), metrics);
-                    int height = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, args.getInt(3), metrics);
-                    String defaultCamera = args.getString(4);
-                    Boolean tapToTakePicture = args.getBoolean(5);
-                    Boolean dragEnabled = args.getBoolean(6);
-                    Boolean toBack = args.getBoolean(7);
-
-                    fragment.defaultCamera = defaultCamera;
-                    fragment.tapToTakePicture = tapToTakePicture;
-                    fragment.dragEnabled = dragEnabled;
-                    fragment.setRect(x, y, width, height);
-
-                    //create or update the layout params for the container view
-                    Activity activity = cordova.getActivity();
-                    if (containerView == null) {
-                        containerView = new FrameLayout(activity.getApplicationContext());
-                        // Look up a view id we inject to ensure there are no conflicts
-                        int cameraViewId = activity.getResources().getIdentifier(activity.getClass().getPackage().getName() + ":id/camera_container", null, null);
-                        containerView.setId(cameraViewId);
-                    }
-                    if (containerView.getParent() != webView.getView().getParent()) {
-                        if (containerView.getParent() != null) {
-                            ((ViewGroup) containerView.getParent()).removeView(containerView);
-                        }
-                        FrameLayout.LayoutParams containerLayoutParams = new FrameLayout.LayoutParams(FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT);
-                        ((ViewGroup) webView.getView().getParent()).addView(containerView, containerLayoutParams);
-                    }
-                    //display camera bellow the webview
-                    if (toBack) {
-                        webView.getView().setBackgroundColor(0x00000000);
-                        webView.getView().bringToFront();
-                    } else {
-                        //set camera back to front
-                        containerView.setAlpha(Float.parseFloat(args.getString(8)));
-                        containerView.bringToFront();
-                    }
-
-                    //add the fragment to the container
-                    FragmentManager fragmentManager = cordova.getActivity().getFragmentManager();
-                    FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
-                    fragmentTransaction.add(containerView.getId(), fragment);
-                    fragmentTransaction.commit();
-                } catch (Exception e) {
-                    e.printStackTrace();
+        try {
+            DisplayMetrics metrics = cordova.getActivity().getResources().getDisplayMetrics();
+            int x = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, args.x, metrics);
+            int y = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, args.y, metrics);
+            int width = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, args.width, metrics);
+            int height = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, args.height, metrics);
+
+            fragment.defaultCamera = args.defaultCamera;
+            fragment.tapToTakePicture = args.tapToTakePicture;
+            fragment.dragEnabled = args.dragEnabled;
+            fragment.backendName = args.backend;
+            fragment.previewMode = args.previewMode;
+            fragment.setRect(x, y, width, height);
+
+            //create or update the layout params for the container view
+            Activity activity = cordova.getActivity();
+            if (containerView == null) {
+                containerView = new FrameLayout(activity.getApplicationContext());
+                // Look up a view id we inject to ensure there are no conflicts
+                int cameraViewId = activity.getResources().getIdentifier(activity.getClass().getPackage().getName() + ":id/camera_container", null, null);
+                containerView.setId(cameraViewId);
+            }
+            if (containerView.getParent() != webView.getView().getParent()) {
+                if (containerView.getParent() != null) {
+                    ((ViewGroup) containerView.getParent()).removeView(containerView);
                 }
+                FrameLayout.LayoutParams containerLayoutParams = new FrameLayout.LayoutParams(FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT);
+                ((ViewGroup) webView.getView().getParent()).addView(containerView, containerLayoutParams);
             }
-        });
-        return true;
+            //display camera bellow the webview
+            if (args.toBack) {
+                webView.getView().setBackgroundColor(0x00000000);
+                webView.getView().bringToFront();
+            } else {
+                //set camera back to front
+                if ("texture".equals(args.previewMode)) {
+                    // blend only the preview texture instead of the whole container
+                    fragment.previewAlpha = args.alpha;
+                    containerView.setAlpha(1);
+                } else {
+                    containerView.setAlpha(args.alpha);
+                }
+                containerView.bringToFront();
+            }
+
+            //add the fragment to the container
+            FragmentManager fragmentManager = cordova.getActivity().getFragmentManager();
+            FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
+            fragmentTransaction.add(containerView.getId(), fragment);
+            fragmentTransaction.commit();
+        } catch (Exception e) {
+            e.printStackTrace();
+            onCameraError(e.toString());
+        }
+    }
+
+    public void onCameraStarted() {
+        if (startCameraCallbackContext != null) {
+            startCameraCallbackContext.success();
+            startCameraCallbackContext = null;
+        }
+    }
+
+    public void onCameraError(String message) {
+        if (startCameraCallbackContext != null) {
+            startCameraCallbackContext.error(message);
+            startCameraCallbackContext = null;
+        }
     }
 
-    private boolean takePicture(final JSONArray args, CallbackContext callbackContext) {
-        if (fragment == null) {
-            return false;
+    // Reported in the same CSS pixels startCamera takes.
+    public void onPreviewMoved(int x, int y, int width, int height) {
+        if (previewMovedCallbackContext == null) {
+            return;
+        }
+        float density = cordova.getActivity().getResources().getDisplayMetrics().density;
+        try {
+            JSONObject rect = new JSONObject();
+            rect.put("x", Math.round(x / density));
+            rect.put("y", Math.round(y / density));
+            rect.put("width", Math.round(width / density));
+            rect.put("height", Math.round(height / density));
+            PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, rect);
+            pluginResult.setKeepCallback(true);
+            previewMovedCallbackContext.sendPluginResult(pluginResult);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void takePicture(ActionArgs.Picture args, CallbackContext callbackContext) {
+        if (fragment.isInStandby()) {
+            callbackContext.error("Camera is in standby");
+            return;
         }
         PluginResult pluginResult = new PluginResult(PluginResult.Status.OK);
         pluginResult.setKeepCallback(true);
         callbackContext.sendPluginResult(pluginResult);
+        if (args.sharpestWithinMs > 0) {
+            fragment.takeSharpestPicture(args.sharpestWithinMs, args.maxWidth, args.maxHeight, args.outputMode, args.encoder);
+        } else {
+            fragment.takePicture(args.maxWidth, args.maxHeight, args.outputMode, args.encoder);
+        }
+    }
+
+    public void onPictureTaken(String originalPicturePath, int sequence, EncodeResult encoded) {
+        sendPictureResult(PluginResult.Status.OK, new PluginResult(PluginResult.Status.OK, originalPicturePath), sequence, encoded);
+    }
+
+    public void onPictureTaken(byte[] picture, int sequence, EncodeResult encoded) {
+        sendPictureResult(PluginResult.Status.OK, new PluginResult(PluginResult.Status.OK, picture), sequence, encoded);
+    }
+
+    public void onPictureTakenError(String message, int sequence) {
+        sendPictureResult(PluginResult.Status.ERROR, new PluginResult(PluginResult.Status.ERROR, message), sequence, null);
+    }
+
+    public void onBurstFinished(int taken, int requested) {
+        if (burstCallbackContext == null) {
+            return;
+        }
         try {
-            double maxWidth = args.optDouble(0, 0);
-            double maxHeight = args.optDouble(1, 0);
-            fragment.takePicture((int) Math.floor(maxWidth), (int) Math.floor(maxHeight));
-        } catch (Exception e) {
+            JSONObject result = new JSONObject();
+            result.put("taken", taken);
+            result.put("requested", requested);
+            burstCallbackContext.sendPluginResult(new PluginResult(PluginResult.Status.OK, result));
+        } catch (JSONException e) {
             e.printStackTrace();
-            return false;
         }
-        return true;
+        burstCallbackContext = null;
     }
 
-    // refocus function added
-    private boolean focusCamera(final JSONArray args, CallbackContext callbackContext) {
-        if(fragment == null){
-            return false;
+    // Burst pictures are sent as a (picture, sequence) pair so JS can tell them apart,
+    // pictures with a target size as (picture, sequence, encoding) with sequence -1 for single shots.
+    private void sendPictureResult(PluginResult.Status status, PluginResult picture, int sequence, EncodeResult encoded) {
+        if (takePictureCallbackContext == null) {
+            Log.w(TAG, "No picture taken handler registered");
+            return;
         }
-        fragment.refocusCamera();
-        return true;
-    }
 
-    public void onPictureTaken(String originalPicturePath) {
-        PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, originalPicturePath);
+        PluginResult pluginResult = picture;
+        if (sequence != CaptureRequest.NO_SEQUENCE || encoded != null) {
+            List<PluginResult> parts = new ArrayList<PluginResult>(3);
+            parts.add(picture);
+            parts.add(new PluginResult(PluginResult.Status.OK, sequence));
+            if (encoded != null) {
+                try {
+                    JSONObject encoding = new JSONObject();
+                    encoding.put("format", encoded.format.getJsName());
+                    if (encoded.quality != EncodeResult.UNKNOWN_QUALITY) {
+                        encoding.put("quality", encoded.quality);
+                    }
+                    encoding.put("bytes", encoded.bytes);
+                    parts.add(new PluginResult(PluginResult.Status.OK, encoding));
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                }
+            }
+            pluginResult = new PluginResult(status, parts);
+        }
         pluginResult.setKeepCallback(true);
         takePictureCallbackContext.sendPluginResult(pluginResult);
     }
 
-    private boolean setColorEffect(final JSONArray args) {
-        if (fragment == null) {
-            return false;
+    // Camera thread; answers with the settings in effect once they are applied.
+    private void configure(ActionArgs.Configure settings, final CallbackContext callbackContext) {
+        CameraActivity current = fragment;
+        if (current == null) {
+            callbackContext.error("Camera is not started");
+            return;
         }
+        current.configure(settings, new CameraActivity.ConfigureListener() {
+            @Override
+            public void onConfigured(int cameraId, boolean frontFacing, int flashMode, int focusMode, String colorEffect) {
+                try {
+                    JSONObject state = new JSONObject();
+                    state.put("camera", frontFacing ? "front" : "back");
+                    state.put("cameraId", cameraId);
+                    state.put("flashMode", flashMode);
+                    state.put("focusMode", focusMode);
+                    state.put("colorEffect", colorEffect == null ? JSONObject.NULL : colorEffect);
+                    callbackContext.success(state);
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                    callbackContext.error(e.toString());
+                }
+            }
+        });
+    }
 
-        Camera camera = fragment.getCamera();
-        if (camera == null) {
-            return false;
+    private void takeBurst(ActionArgs.Burst args, CallbackContext callbackContext) {
+        if (fragment.isInStandby()) {
+            callbackContext.error("Camera is in standby");
+            return;
+        }
+        burstCallbackContext = callbackContext;
+        if (!fragment.takeBurst(args.count, args.intervalMs, args.maxWidth, args.maxHeight, args.outputMode, args.encoder, args.overflow)) {
+            burstCallbackContext = null;
+            callbackContext.error("Picture already in progress");
         }
+    }
 
-        Camera.Parameters params = camera.getParameters();
+    // Worker thread; the pools outlive the fragment, which may be stopped meanwhile.
+    private void setPoolBudget(ActionArgs.PoolBudget args, CallbackContext callbackContext) {
+        CameraActivity current = fragment;
+        if (current != null) {
+            current.setPoolBudget(args.bitmapBytes, args.bufferBytes);
+        }
+        if (args.directFrames > 0) {
+            directFramePool.setMaxFrames(args.directFrames);
+        }
+        if (args.leakDeadlineMs >= 0) {
+            directFramePool.setLeakDeadline(args.leakDeadlineMs);
+        }
+        callbackContext.success();
+    }
 
-        try {
-            String effect = args.getString(0);
-
-            if (effect.equals("aqua")) {
-                params.setColorEffect(Camera.Parameters.EFFECT_AQUA);
-            } else if (effect.equals("blackboard")) {
-                params.setColorEffect(Camera.Parameters.EFFECT_BLACKBOARD);
-            } else if (effect.equals("mono")) {
-                params.setColorEffect(Camera.Parameters.EFFECT_MONO);
-            } else if (effect.equals("negative")) {
-                params.setColorEffect(Camera.Parameters.EFFECT_NEGATIVE);
-            } else if (effect.equals("none")) {
-                params.setColorEffect(Camera.Parameters.EFFECT_NONE);
-            } else if (effect.equals("posterize")) {
-                params.setColorEffect(Camera.Parameters.EFFECT_POSTERIZE);
-            } else if (effect.equals("sepia")) {
-                params.setColorEffect(Camera.Parameters.EFFECT_SEPIA);
-            } else if (effect.equals("solarize")) {
-                params.setColorEffect(Camera.Parameters.EFFECT_SOLARIZE);
-            } else if (effect.equals("whiteboard")) {
-                params.setColorEffect(Camera.Parameters.EFFECT_WHITEBOARD);
-            } else {
-                return false;
+    // Worker thread. Works before the camera is started; never opens a camera.
+    private void getCapabilities(String backend, CallbackContext callbackContext) throws JSONException {
+        Activity activity = cordova.getActivity();
+        String name = CameraActivity.resolveBackendName(activity, backend);
+        CapabilityStore store = CapabilityStore.get(activity, name);
+        if (!store.isComplete() && !store.isEnumerated()) {
+            // camera2 describes every camera from its characteristics, legacy only counts them
+            try {
+                store.enumerate(name.equals("camera2") ? new Camera2Backend(activity) : new LegacyCameraBackend());
+                store.save();
+            } catch (Exception e) {
+                Log.w(TAG, "Could not enumerate cameras", e);
             }
+        }
 
-            fragment.setCameraParameters(params);
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+        JSONArray cameras = new JSONArray();
+        for (CameraCapabilities capabilities : store.getAll()) {
+            cameras.put(capabilitiesToJson(capabilities));
+        }
+        JSONObject result = new JSONObject();
+        result.put("backend", name);
+        result.put("cameraCount", store.getCameraCount());
+        result.put("complete", store.isComplete());
+        result.put("cameras", cameras);
+        callbackContext.success(result);
+    }
+
+    private static JSONObject capabilitiesToJson(CameraCapabilities capabilities) throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("cameraId", capabilities.cameraId);
+        result.put("camera", capabilities.frontFacing ? "front" : "back");
+        result.put("orientation", capabilities.sensorOrientation);
+        result.put("previewSizes", sizesToJson(capabilities.previewSizes));
+        result.put("pictureSizes", sizesToJson(capabilities.pictureSizes));
+        result.put("flashModes", new JSONArray(new TreeSet<Integer>(capabilities.flashModes)));
+        result.put("focusModes", new JSONArray(new TreeSet<Integer>(capabilities.focusModes)));
+        result.put("colorEffects", new JSONArray(new TreeSet<String>(capabilities.colorEffects)));
+        return result;
+    }
+
+    // [[width, height], ...]
+    private static JSONArray sizesToJson(List<CameraSize> sizes) {
+        JSONArray result = new JSONArray();
+        for (CameraSize size : sizes) {
+            JSONArray pair = new JSONArray();
+            pair.put(size.width);
+            pair.put(size.height);
+            result.put(pair);
+        }
+        return result;
+    }
+
+    private void getPoolStats(CallbackContext callbackContext) throws JSONException {
+        CameraActivity current = fragment;
+        if (current == null) {
+            callbackContext.error("Camera is not started");
+            return;
+        }
+        BitmapPool bitmaps = current.getBitmapPool();
+        ByteArrayPool buffers = current.getBufferPool();
+
+        JSONObject bitmapStats = new JSONObject();
+        bitmapStats.put("hits", bitmaps.getHits());
+        bitmapStats.put("misses", bitmaps.getMisses());
+        bitmapStats.put("evictions", bitmaps.getEvictions());
+        bitmapStats.put("hitRate", bitmaps.getHitRate());
+        bitmapStats.put("size", bitmaps.getSize());
+        bitmapStats.put("budget", bitmaps.getBudget());
+
+        JSONObject bufferStats = new JSONObject();
+        bufferStats.put("hits", buffers.getHits());
+        bufferStats.put("misses", buffers.getMisses());
+        bufferStats.put("evictions", buffers.getEvictions());
+        bufferStats.put("hitRate", buffers.getHitRate());
+        bufferStats.put("size", buffers.getSize());
+        bufferStats.put("budget", buffers.getBudget());
+
+        JSONObject frameStats = new JSONObject();
+        frameStats.put("inUse", directFramePool.getInUse());
+        frameStats.put("free", directFramePool.getFree());
+        frameStats.put("maxFrames", directFramePool.getMaxFrames());
+        frameStats.put("occupancy", directFramePool.getOccupancy());
+        frameStats.put("frameSize", directFramePool.getFrameSize());
+        frameStats.put("allocatedBytes", directFramePool.getAllocatedBytes());
+        frameStats.put("delivered", directFramePool.getDelivered());
+        frameStats.put("dropped", directFramePool.getDropped());
+        frameStats.put("leaked", directFramePool.getLeaked());
+        frameStats.put("leakDeadlineMs", directFramePool.getLeakDeadline());
+
+        JSONObject result = new JSONObject();
+        result.put("bitmaps", bitmapStats);
+        result.put("buffers", bufferStats);
+        result.put("frames", frameStats);
+        callbackContext.success(result);
+    }
+
+    private void getMetrics(boolean reset, CallbackContext callbackContext) throws JSONException {
+        callbackContext.success(metricsToJson());
+        if (reset) {
+            Metrics.reset();
+            actions.resetLatencies();
         }
     }
 
-    private boolean stopCamera() {
-        if (fragment == null) {
-            return false;
+    // Sends a metrics snapshot every intervalMs until stopMetricsPush; enables metrics if needed.
+    private void startMetricsPush(long intervalMs, CallbackContext callbackContext) {
+        mainHandler.removeCallbacks(metricsPush);
+        metricsCallbackContext = callbackContext;
+        metricsPushIntervalMs = Math.max(100, intervalMs);
+        Metrics.setEnabled(true);
+        mainHandler.postDelayed(metricsPush, metricsPushIntervalMs);
+    }
+
+    private void stopMetricsPush() {
+        mainHandler.removeCallbacks(metricsPush);
+        metricsCallbackContext = null;
+    }
+
+    private final Runnable metricsPush = new Runnable() {
+        @Override
+        public void run() {
+            if (metricsCallbackContext == null) {
+                return;
+            }
+            try {
+                PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, metricsToJson());
+                pluginResult.setKeepCallback(true);
+                metricsCallbackContext.sendPluginResult(pluginResult);
+            } catch (JSONException e) {
+                e.printStackTrace();
+            }
+            mainHandler.postDelayed(this, metricsPushIntervalMs);
+        }
+    };
+
+    private JSONObject metricsToJson() throws JSONException {
+        JSONObject counters = new JSONObject();
+        for (int i = 0; i < Metrics.COUNTER_COUNT; i++) {
+            counters.put(Metrics.getCounterName(i), Metrics.getCounter(i));
+        }
+
+        JSONObject histograms = new JSONObject();
+        for (int i = 0; i < Metrics.HISTOGRAM_COUNT; i++) {
+            histograms.put(Metrics.getHistogramName(i), histogramToJson(Metrics.getHistogram(i)));
         }
 
+        // time from the bridge call until the handler returned, per action that ran
+        JSONObject actionLatencies = new JSONObject();
+        for (ActionTable.Action<?> action : actions.getActions()) {
+            if (action.latency.getCount() > 0) {
+                actionLatencies.put(action.name, histogramToJson(action.latency));
+            }
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("enabled", Metrics.isEnabled());
+        result.put("counters", counters);
+        result.put("histograms", histograms);
+        result.put("actions", actionLatencies);
+        return result;
+    }
+
+    private static JSONObject histogramToJson(LatencyHistogram histogram) throws JSONException {
+        JSONObject result = new JSONObject();
+        result.put("count", histogram.getCount());
+        result.put("mean", histogram.getMeanMillis());
+        result.put("p50", histogram.getPercentileMillis(50));
+        result.put("p90", histogram.getPercentileMillis(90));
+        result.put("p99", histogram.getPercentileMillis(99));
+        result.put("max", histogram.getMaxMillis());
+        return result;
+    }
+
+    @Override
+    public void onDestroy() {
+        stopMetricsPush();
+        stopAnalyzers();
+        stopThumbnailStream();
+        super.onDestroy();
+    }
+
+    private void stopCamera() {
         FragmentManager fragmentManager = cordova.getActivity().getFragmentManager();
         FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
         fragmentTransaction.remove(fragment);
         fragmentTransaction.commit();
         fragment = null;
-
-        return true;
     }
 
-    private boolean showCamera() {
-        if (fragment == null) {
-            return false;
-        }
-
+    private void showCamera() {
         FragmentManager fragmentManager = cordova.getActivity().getFragmentManager();
         FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
         fragmentTransaction.show(fragment);
         fragmentTransaction.commit();
-
-        return true;
     }
 
-    private boolean hideCamera() {
-        if (fragment == null) {
-            return false;
-        }
-
+    private void hideCamera() {
         FragmentManager fragmentManager = cordova.getActivity().getFragmentManager();
         FragmentTransaction fragmentTransaction = fragmentManager.beginTransaction();
         fragmentTransaction.hide(fragment);
         fragmentTransaction.commit();
+    }
 
-        return true;
+    private void startFrameStream(ActionArgs.FrameStream args, CallbackContext callbackContext) {
+        if (jsFrameStreamer != null) {
+            frameDispatcher.removeConsumer(jsFrameStreamer);
+        }
+        jsFrameStreamer = new JsFrameStreamer(callbackContext, args.fps, args.maxWidth);
+        frameDispatcher.addConsumer(jsFrameStreamer);
     }
 
-    private boolean switchCamera() {
-        if (fragment == null) {
-            return false;
+    private void stopFrameStream() {
+        if (jsFrameStreamer == null) {
+            return;
         }
-        fragment.switchCamera();
-        return true;
+        frameDispatcher.removeConsumer(jsFrameStreamer);
+        jsFrameStreamer = null;
+    }
+
+    private void startThumbnailStream(ActionArgs.ThumbnailStream args, CallbackContext callbackContext) {
+        stopThumbnailStream();
+        thumbnailStreamer = new ThumbnailStreamer(callbackContext, args.fps, args.maxWidth, args.maxHeight, args.jpeg, args.quality);
+        frameDispatcher.addConsumer(thumbnailStreamer);
     }
 
-    private boolean setFlashMode(final JSONArray args) {
-        if (fragment == null) {
-            return false;
+    private void stopThumbnailStream() {
+        if (thumbnailStreamer == null) {
+            return;
         }
-        try {
-            fragment.setFlashMode(args.getInt(0));
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+        frameDispatcher.removeConsumer(thumbnailStreamer);
+        Log.d(TAG, "thumbnails coalesced: " + thumbnailStreamer.getCoalesced());
+        thumbnailStreamer = null;
+    }
+
+    /**
+     * Runs the given analyzers on the live preview, each entry {type, fps, budgetMs}.
+     * Results arrive as compact [type, timestampMs, values...] arrays on the callback.
+     */
+    private void startAnalyzers(ActionArgs.Analyzers args, final CallbackContext callbackContext) {
+        AnalyzerEngine engine = new AnalyzerEngine(new AnalyzerEngine.Listener() {
+            @Override
+            public void onAnalyzerResult(String analyzer, long timestampNanos, float[] values) {
+                try {
+                    JSONArray event = new JSONArray();
+                    event.put(analyzer);
+                    event.put(timestampNanos / 1000000L);
+                    for (float value : values) {
+                        event.put((double) value);
+                    }
+                    PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, event);
+                    pluginResult.setKeepCallback(true);
+                    callbackContext.sendPluginResult(pluginResult);
+                } catch (JSONException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+        for (ActionArgs.Analyzer analyzer : args.analyzers) {
+            engine.addAnalyzer(createAnalyzer(analyzer.type), analyzer.fps, analyzer.budgetNanos);
         }
-        return true;
+
+        stopAnalyzers();
+        analyzerEngine = engine;
+        engine.start();
+        frameDispatcher.addConsumer(engine);
     }
 
-    private boolean setFocusMode(final JSONArray args) {
-        if (fragment == null) {
-            return false;
+    private static FrameAnalyzer createAnalyzer(String type) {
+        if (SharpnessAnalyzer.NAME.equals(type)) {
+            return new SharpnessAnalyzer();
+        } else if (ExposureAnalyzer.NAME.equals(type)) {
+            return new ExposureAnalyzer();
+        } else if (MotionAnalyzer.NAME.equals(type)) {
+            return new MotionAnalyzer();
+        } else if (DocumentEdgeAnalyzer.NAME.equals(type)) {
+            return new DocumentEdgeAnalyzer();
         }
+        return null;
+    }
 
-        try {
-            fragment.setFocusMode(args.getInt(0));
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
+    private void stopAnalyzers() {
+        if (analyzerEngine == null) {
+            return;
         }
+        frameDispatcher.removeConsumer(analyzerEngine);
+        analyzerEngine.stop();
+        analyzerEngine = null;
+    }
+
+    /**
+     * Registers a native consumer for live preview frames, e.g. from another
+     * plugin doing barcode detection. Consumers stay registered across
+     * startCamera/stopCamera.
+     */
+    public void addFrameConsumer(FrameConsumer consumer) {
+        frameDispatcher.addConsumer(consumer);
+    }
 
-        return true;
+    public void removeFrameConsumer(FrameConsumer consumer) {
+        frameDispatcher.removeConsumer(consumer);
+    }
+
+    // Like addFrameConsumer, with frames copied to native memory that consumers may retain.
+    public void addDirectFrameConsumer(DirectFrameConsumer consumer) {
+        if (directFramePool.addConsumer(consumer)) {
+            frameDispatcher.addConsumer(directFramePool);
+        }
+    }
+
+    public void removeDirectFrameConsumer(DirectFrameConsumer consumer) {
+        if (directFramePool.removeConsumer(consumer)) {
+            frameDispatcher.removeConsumer(directFramePool);
+        }
     }
 
     private void setOnPictureTakenHandler(CallbackContext callbackContext) {
@@ -307,7 +866,12 @@ public class CameraPreview extends CordovaPlugin implements CameraActivity.Camer
             }
         }
         if (requestCode == permissionsReqId) {
-            startCamera(execArgs);
+            cordova.getActivity().runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    startCamera(execArgs, execCallback);
+                }
+            });
         }
     }
 }
@@ -0,0 +1,45 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Backend independent width/height pair, used instead of {@code Camera.Size}
+ * and {@code android.util.Size} so size selection works with either camera API.
+ */
+final class CameraSize {
+    final int width;
+    final int height;
+
+    CameraSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    int area() {
+        return width * height;
+    }
+
+    double ratio() {
+        return width / (double) height;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CameraSize)) {
+            return false;
+        }
+        CameraSize other = (CameraSize) o;
+        return width == other.width && height == other.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return width * 31 + height;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height;
+    }
+}
@@ -0,0 +1,291 @@
+package com.cordovaplugincamerapreview;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Capabilities of every camera, as seen by one backend, persisted in a small
+ * binary file in app storage so later launches know facing, orientation,
+ * sizes and modes before a camera is opened. The file is only valid for the
+ * device build that wrote it and is ignored once the build fingerprint or
+ * SDK level changes, e.g. after a system update.
+ *
+ * Camera2 describes every camera up front; the legacy API only once a camera
+ * has been opened, so with it the store fills in as cameras are used.
+ */
+class CapabilityStore {
+    private static final String TAG = "CapabilityStore";
+    private static final int VERSION = 1;
+    private static final Map<String, CapabilityStore> stores = new HashMap<String, CapabilityStore>();
+
+    private final File file;
+    private final String deviceKey;
+    private CameraCapabilities[] cameras = new CameraCapabilities[0];
+    private boolean loaded;
+    private boolean dirty;
+    private boolean enumerated;
+
+    // One store per backend name, shared by the plugin and its fragments.
+    static CapabilityStore get(Context context, String backendName) {
+        synchronized (stores) {
+            CapabilityStore store = stores.get(backendName);
+            if (store == null) {
+                store = new CapabilityStore(new File(context.getFilesDir(), "camera-capabilities-" + backendName + ".bin"));
+                stores.put(backendName, store);
+            }
+            return store;
+        }
+    }
+
+    CapabilityStore(File file) {
+        this.file = file;
+        this.deviceKey = Build.FINGERPRINT + "/" + Build.VERSION.SDK_INT;
+    }
+
+    // Reads the file on first use; a missing, stale or unreadable file leaves the store empty.
+    synchronized void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!file.isFile()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != VERSION || !deviceKey.equals(in.readUTF())) {
+                Log.d(TAG, "Ignoring capabilities of another build in " + file);
+                return;
+            }
+            CameraCapabilities[] read = new CameraCapabilities[in.readInt()];
+            int known = in.readInt();
+            for (int i = 0; i < known; i++) {
+                CameraCapabilities capabilities = readCamera(in);
+                read[capabilities.cameraId] = capabilities;
+            }
+            cameras = read;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read " + file, e);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Corrupt capability file " + file, e);
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    synchronized int getCameraCount() {
+        load();
+        return cameras.length;
+    }
+
+    // Null if the camera hasn't been described yet.
+    synchronized CameraCapabilities get(int cameraId) {
+        load();
+        return cameraId < cameras.length ? cameras[cameraId] : null;
+    }
+
+    // Known cameras in id order.
+    synchronized List<CameraCapabilities> getAll() {
+        load();
+        List<CameraCapabilities> known = new ArrayList<CameraCapabilities>(cameras.length);
+        for (CameraCapabilities capabilities : cameras) {
+            if (capabilities != null) {
+                known.add(capabilities);
+            }
+        }
+        return known;
+    }
+
+    // True once every camera has been described.
+    synchronized boolean isComplete() {
+        load();
+        for (CameraCapabilities capabilities : cameras) {
+            if (capabilities == null) {
+                return false;
+            }
+        }
+        return cameras.length > 0;
+    }
+
+    // True once enumerate has run in this process. The device key cannot change
+    // while the process lives, so a second run would find nothing new.
+    synchronized boolean isEnumerated() {
+        return enumerated;
+    }
+
+    synchronized void setCameraCount(int count) {
+        load();
+        if (count != cameras.length) {
+            CameraCapabilities[] resized = new CameraCapabilities[count];
+            System.arraycopy(cameras, 0, resized, 0, Math.min(count, cameras.length));
+            cameras = resized;
+            dirty = true;
+        }
+    }
+
+    synchronized void put(CameraCapabilities capabilities) {
+        load();
+        if (capabilities.cameraId >= cameras.length) {
+            setCameraCount(capabilities.cameraId + 1);
+        }
+        if (!same(cameras[capabilities.cameraId], capabilities)) {
+            cameras[capabilities.cameraId] = capabilities;
+            dirty = true;
+        }
+    }
+
+    // Records every camera the backend can describe without opening it.
+    void enumerate(CameraBackend backend) {
+        int count = backend.getNumberOfCameras();
+        setCameraCount(count);
+        for (int i = 0; i < count; i++) {
+            try {
+                CameraCapabilities capabilities = backend.getCapabilities(i);
+                if (capabilities != null) {
+                    put(capabilities);
+                }
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Could not read capabilities of camera " + i, e);
+            }
+        }
+        synchronized (this) {
+            enumerated = true;
+        }
+    }
+
+    // Writes the file if anything changed since it was read or last saved.
+    synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(VERSION);
+            out.writeUTF(deviceKey);
+            out.writeInt(cameras.length);
+            List<CameraCapabilities> known = getAll();
+            out.writeInt(known.size());
+            for (CameraCapabilities capabilities : known) {
+                writeCamera(out, capabilities);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+            dirty = false;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write " + file, e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void writeCamera(DataOutputStream out, CameraCapabilities capabilities) throws IOException {
+        out.writeInt(capabilities.cameraId);
+        out.writeBoolean(capabilities.frontFacing);
+        out.writeShort(capabilities.sensorOrientation);
+        writeSizes(out, capabilities.previewSizes);
+        writeSizes(out, capabilities.pictureSizes);
+        writeModes(out, capabilities.flashModes);
+        writeModes(out, capabilities.focusModes);
+        out.writeShort(capabilities.colorEffects.size());
+        for (String effect : capabilities.colorEffects) {
+            out.writeUTF(effect);
+        }
+    }
+
+    private static CameraCapabilities readCamera(DataInputStream in) throws IOException {
+        int cameraId = in.readInt();
+        boolean frontFacing = in.readBoolean();
+        int sensorOrientation = in.readShort();
+        List<CameraSize> previewSizes = readSizes(in);
+        List<CameraSize> pictureSizes = readSizes(in);
+        Set<Integer> flashModes = readModes(in);
+        Set<Integer> focusModes = readModes(in);
+        int effectCount = in.readShort();
+        Set<String> colorEffects = new HashSet<String>();
+        for (int i = 0; i < effectCount; i++) {
+            colorEffects.add(in.readUTF());
+        }
+        return new CameraCapabilities(cameraId, frontFacing, sensorOrientation, previewSizes, pictureSizes, flashModes, focusModes, colorEffects);
+    }
+
+    private static void writeSizes(DataOutputStream out, List<CameraSize> sizes) throws IOException {
+        out.writeShort(sizes.size());
+        for (CameraSize size : sizes) {
+            out.writeShort(size.width);
+            out.writeShort(size.height);
+        }
+    }
+
+    private static List<CameraSize> readSizes(DataInputStream in) throws IOException {
+        int count = in.readShort();
+        List<CameraSize> sizes = new ArrayList<CameraSize>(count);
+        for (int i = 0; i < count; i++) {
+            sizes.add(new CameraSize(in.readUnsignedShort(), in.readUnsignedShort()));
+        }
+        return sizes;
+    }
+
+    // Modes are small CameraBackend constants, stored as a bit mask.
+    private static void writeModes(DataOutputStream out, Set<Integer> modes) throws IOException {
+        int mask = 0;
+        for (int mode : modes) {
+            mask |= 1 << mode;
+        }
+        out.writeInt(mask);
+    }
+
+    private static Set<Integer> readModes(DataInputStream in) throws IOException {
+        int mask = in.readInt();
+        Set<Integer> modes = new HashSet<Integer>();
+        for (int mode = 0; mode < 32; mode++) {
+            if ((mask & (1 << mode)) != 0) {
+                modes.add(mode);
+            }
+        }
+        return modes;
+    }
+
+    private static boolean same(CameraCapabilities a, CameraCapabilities b) {
+        return a != null
+                && a.frontFacing == b.frontFacing
+                && a.sensorOrientation == b.sensorOrientation
+                && a.previewSizes.equals(b.previewSizes)
+                && a.pictureSizes.equals(b.pictureSizes)
+                && a.flashModes.equals(b.flashModes)
+                && a.focusModes.equals(b.focusModes)
+                && a.colorEffects.equals(b.colorEffects);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.cordovaplugincamerapreview;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the decode/transform/encode/transport stages of a capture on a bounded
+ * worker executor so that the camera callback thread is released as soon as
+ * the JPEG arrives. Up to {@code queueCapacity} shots can wait while another
+ * one is being processed; anything beyond that is rejected and reported to the
+ * listener instead of piling up full-resolution buffers in memory.
+ *
+ * The pipeline itself has no Android dependencies: the image work is done by a
+ * {@link PictureProcessor}, which encodes into the stream provided by a
+ * {@link Sink}, and the sink turns what was written into the final payload.
+ */
+class CapturePipeline<T> {
+
+    interface PictureProcessor<T> {
+        T decode(CaptureRequest request) throws Exception;
+
+        T transform(T picture, CaptureRequest request) throws Exception;
+
+        EncodeResult encode(T picture, CaptureRequest request, OutputStream output) throws Exception;
+
+        void recycle(T picture);
+    }
+
+    interface Sink {
+        OutputStream open(CaptureRequest request) throws IOException;
+
+        Object finish(CaptureRequest request, OutputStream stream) throws IOException;
+
+        void abort(CaptureRequest request, OutputStream stream);
+    }
+
+    interface Listener {
+        void onCaptureProcessed(CaptureRequest request, Object picture, EncodeResult encoded, CaptureTimings timings);
+
+        void onCaptureFailed(CaptureRequest request, Throwable error);
+    }
+
+    static final int DEFAULT_WORKERS = 1;
+    static final int DEFAULT_QUEUE_CAPACITY = 2;
+
+    private final ThreadPoolExecutor executor;
+    private final PictureProcessor<T> processor;
+    private final Sink sink;
+    private final Listener listener;
+
+    CapturePipeline(PictureProcessor<T> processor, Sink sink, Listener listener) {
+        this(processor, sink, listener, DEFAULT_WORKERS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    CapturePipeline(PictureProcessor<T> processor, Sink sink, Listener listener, int workers, int queueCapacity) {
+        this.processor = processor;
+        this.sink = sink;
+        this.listener = listener;
+        this.executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+            private int count;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CapturePipeline-" + (count++));
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a shot for processing. Returns false when the queue is full or the
+     * pipeline has been shut down; the listener is notified in that case too.
+     */
+    boolean submit(CaptureRequest request) {
+        return submit(request, false);
+    }
+
+    /**
+     * Like {@link #submit(CaptureRequest)}, but when {@code dropOldest} is set a
+     * full queue makes room by discarding its oldest shot, which is reported to
+     * the listener as a failure.
+     */
+    boolean submit(CaptureRequest request, boolean dropOldest) {
+        Job job = new Job(this, request);
+        while (true) {
+            try {
+                executor.execute(job);
+                return true;
+            } catch (RejectedExecutionException e) {
+                Runnable oldest = dropOldest && !executor.isShutdown() ? executor.getQueue().poll() : null;
+                if (!(oldest instanceof Job)) {
+                    request.releaseData();
+                    listener.onCaptureFailed(request, e);
+                    return false;
+                }
+                CaptureRequest dropped = ((Job) oldest).request;
+                dropped.releaseData();
+                listener.onCaptureFailed(dropped, new RejectedExecutionException("Dropped to make room for a newer picture"));
+            }
+        }
+    }
+
+    boolean isQueueFull() {
+        return executor.getQueue().remainingCapacity() == 0;
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    // Static so that queued runnables can be checked with instanceof.
+    private static class Job implements Runnable {
+        final CapturePipeline<?> pipeline;
+        final CaptureRequest request;
+        final CaptureTimings timings = new CaptureTimings();
+
+        Job(CapturePipeline<?> pipeline, CaptureRequest request) {
+            this.pipeline = pipeline;
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            pipeline.process(request, timings);
+        }
+    }
+
+    private void process(CaptureRequest request, CaptureTimings timings) {
+        T picture = null;
+        OutputStream stream = null;
+        EncodeResult encoded;
+        Object payload;
+        try {
+            timings.mark(CaptureTimings.Stage.QUEUED);
+
+            try {
+                picture = processor.decode(request);
+            } finally {
+                request.releaseData();
+            }
+            timings.mark(CaptureTimings.Stage.DECODE);
+
+            T transformed = processor.transform(picture, request);
+            if (transformed != picture) {
+                processor.recycle(picture);
+                picture = transformed;
+            }
+            timings.mark(CaptureTimings.Stage.TRANSFORM);
+
+            stream = sink.open(request);
+            try {
+                encoded = processor.encode(picture, request, stream);
+            } finally {
+                stream.close();
+            }
+            processor.recycle(picture);
+            picture = null;
+            timings.mark(CaptureTimings.Stage.ENCODE);
+
+            payload = sink.finish(request, stream);
+            timings.mark(CaptureTimings.Stage.TRANSPORT);
+        } catch (Throwable e) {
+            if (picture != null) {
+                processor.recycle(picture);
+            }
+            if (stream != null) {
+                sink.abort(request, stream);
+            }
+            listener.onCaptureFailed(request, e);
+            return;
+        }
+        // Outside the try: the payload is final once delivered, so a throwing
+        // listener must not abort it or see a second callback.
+        listener.onCaptureProcessed(request, payload, encoded, timings);
+    }
+}
@@ -0,0 +1,69 @@
+package com.cordovaplugincamerapreview;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Immutable snapshot of everything the capture pipeline needs to turn the raw
+ * camera JPEG, or a preview frame in zero shutter lag mode, into the final
+ * picture. It is taken on the thread that received the shutter callback so
+ * that workers never read fragment state.
+ */
+class CaptureRequest {
+    static final int NO_SEQUENCE = -1;
+
+    final byte[] data;
+    final int maxWidth;
+    final int maxHeight;
+    final int viewWidth;
+    final int viewHeight;
+    final int displayOrientation;
+    final boolean mirror;
+    final OutputMode outputMode;
+    final EncoderOptions encoder;
+    // position within a burst, NO_SEQUENCE for single shots
+    final int sequence;
+    // set when data holds an NV21 preview frame instead of a JPEG
+    final boolean nv21;
+    final int frameWidth;
+    final int frameHeight;
+    private final Runnable dataRelease;
+    private final AtomicBoolean dataReleased = new AtomicBoolean();
+
+    CaptureRequest(byte[] data, int maxWidth, int maxHeight, int viewWidth, int viewHeight, int displayOrientation, boolean mirror, OutputMode outputMode, EncoderOptions encoder, int sequence) {
+        this(data, false, 0, 0, null, maxWidth, maxHeight, viewWidth, viewHeight, displayOrientation, mirror, outputMode, encoder, sequence);
+    }
+
+    private CaptureRequest(byte[] data, boolean nv21, int frameWidth, int frameHeight, Runnable dataRelease,
+                           int maxWidth, int maxHeight, int viewWidth, int viewHeight, int displayOrientation, boolean mirror, OutputMode outputMode, EncoderOptions encoder, int sequence) {
+        this.data = data;
+        this.nv21 = nv21;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+        this.dataRelease = dataRelease;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.viewWidth = viewWidth;
+        this.viewHeight = viewHeight;
+        this.displayOrientation = displayOrientation;
+        this.mirror = mirror;
+        this.outputMode = outputMode;
+        this.encoder = encoder;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Request for a buffered NV21 preview frame. {@code dataRelease} runs once
+     * the pipeline no longer needs {@code data}, so the buffer can be reused.
+     */
+    static CaptureRequest forPreviewFrame(byte[] nv21, int frameWidth, int frameHeight, Runnable dataRelease,
+                                          int maxWidth, int maxHeight, int viewWidth, int viewHeight, int displayOrientation, boolean mirror, OutputMode outputMode, EncoderOptions encoder) {
+        return new CaptureRequest(nv21, true, frameWidth, frameHeight, dataRelease,
+                maxWidth, maxHeight, viewWidth, viewHeight, displayOrientation, mirror, outputMode, encoder, NO_SEQUENCE);
+    }
+
+    void releaseData() {
+        if (dataRelease != null && dataReleased.compareAndSet(false, true)) {
+            dataRelease.run();
+        }
+    }
+}
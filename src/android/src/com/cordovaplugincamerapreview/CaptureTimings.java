@@ -0,0 +1,52 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Per-shot stage timings recorded by the capture pipeline. Each stage stores
+ * the nanoseconds elapsed since the previous mark, so the values add up to the
+ * total time between the shutter callback and delivery.
+ */
+class CaptureTimings {
+    enum Stage {
+        QUEUED,
+        DECODE,
+        TRANSFORM,
+        ENCODE,
+        TRANSPORT
+    }
+
+    private final long[] stageNanos = new long[Stage.values().length];
+    private final long startNanos;
+    private long lastMarkNanos;
+
+    CaptureTimings() {
+        startNanos = System.nanoTime();
+        lastMarkNanos = startNanos;
+    }
+
+    void mark(Stage stage) {
+        long now = System.nanoTime();
+        stageNanos[stage.ordinal()] += now - lastMarkNanos;
+        lastMarkNanos = now;
+    }
+
+    long getNanos(Stage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    long getMillis(Stage stage) {
+        return stageNanos[stage.ordinal()] / 1000000L;
+    }
+
+    long getTotalMillis() {
+        return (lastMarkNanos - startNanos) / 1000000L;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(96);
+        for (Stage stage : Stage.values()) {
+            builder.append(stage.name().toLowerCase()).append('=').append(getMillis(stage)).append("ms ");
+        }
+        return builder.append("total=").append(getTotalMillis()).append("ms").toString();
+    }
+}
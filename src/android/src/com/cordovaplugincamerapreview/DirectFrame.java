@@ -0,0 +1,68 @@
+package com.cordovaplugincamerapreview;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An NV21 preview frame held in native memory by a {@link DirectFramePool}.
+ * A frame handed to a {@link DirectFrameConsumer} is only valid for the
+ * duration of the call; consumers that keep it longer call {@link #retain()}
+ * and must call {@link #release()} when done, after which the buffer goes back
+ * to the pool and may be overwritten by a later frame.
+ */
+public final class DirectFrame {
+    private final DirectFramePool pool;
+    private final ByteBuffer buffer;
+    private final ByteBuffer readOnly;
+    private int width;
+    private int height;
+    private long timestampNanos;
+
+    // guarded by the pool
+    int refCount;
+    long acquiredNanos;
+    boolean leakReported;
+
+    DirectFrame(DirectFramePool pool, int size) {
+        this.pool = pool;
+        this.buffer = ByteBuffer.allocateDirect(size);
+        this.readOnly = buffer.asReadOnlyBuffer();
+    }
+
+    // Pool only: called while the frame is unreferenced.
+    void fill(byte[] nv21, int width, int height, long timestampNanos) {
+        buffer.clear();
+        buffer.put(nv21, 0, Math.min(nv21.length, buffer.capacity()));
+        this.width = width;
+        this.height = height;
+        this.timestampNanos = timestampNanos;
+    }
+
+    // A read-only view of the NV21 bytes with its own position and limit.
+    public ByteBuffer getData() {
+        return readOnly.duplicate();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    int getCapacity() {
+        return buffer.capacity();
+    }
+
+    public void retain() {
+        pool.retain(this);
+    }
+
+    public void release() {
+        pool.release(this);
+    }
+}
@@ -0,0 +1,10 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Receives live preview frames held in native memory. Frames arrive on the
+ * camera callback thread; see {@link DirectFrame} for how to keep one past
+ * the call.
+ */
+public interface DirectFrameConsumer {
+    void onFrame(DirectFrame frame);
+}
@@ -0,0 +1,205 @@
+package com.cordovaplugincamerapreview;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Copies preview frames into direct {@link java.nio.ByteBuffer}s and hands
+ * them to {@link DirectFrameConsumer}s, so consumers can hold on to frames
+ * without multi-megabyte arrays piling up on the Java heap. Frames are
+ * reference counted and their buffers recycled once the last reference is
+ * released; at most {@code maxFrames} buffers exist at a time and incoming
+ * frames are dropped while all of them are held.
+ *
+ * A frame held longer than the leak deadline is logged once and counted as
+ * leaked; it still returns to the pool if it is released later.
+ */
+class DirectFramePool implements FrameConsumer {
+    private static final String TAG = "DirectFramePool";
+    static final int DEFAULT_MAX_FRAMES = 4;
+    static final long DEFAULT_LEAK_DEADLINE_MS = 5000;
+    private static final DirectFrameConsumer[] NO_CONSUMERS = new DirectFrameConsumer[0];
+
+    private volatile DirectFrameConsumer[] consumers = NO_CONSUMERS;
+    private final LinkedList<DirectFrame> free = new LinkedList<DirectFrame>();
+    private final List<DirectFrame> inUse = new ArrayList<DirectFrame>();
+    private int maxFrames = DEFAULT_MAX_FRAMES;
+    private long leakDeadlineNanos = DEFAULT_LEAK_DEADLINE_MS * 1000000L;
+    private int frameSize;
+    private int delivered;
+    private int dropped;
+    private int leaked;
+
+    // Returns true if this was the first consumer.
+    synchronized boolean addConsumer(DirectFrameConsumer consumer) {
+        for (DirectFrameConsumer existing : consumers) {
+            if (existing == consumer) {
+                return false;
+            }
+        }
+        DirectFrameConsumer[] updated = new DirectFrameConsumer[consumers.length + 1];
+        System.arraycopy(consumers, 0, updated, 0, consumers.length);
+        updated[consumers.length] = consumer;
+        consumers = updated;
+        return updated.length == 1;
+    }
+
+    // Returns true if no consumers are left.
+    synchronized boolean removeConsumer(DirectFrameConsumer consumer) {
+        int index = -1;
+        for (int i = 0; i < consumers.length; i++) {
+            if (consumers[i] == consumer) {
+                index = i;
+                break;
+            }
+        }
+        if (index < 0) {
+            return consumers.length == 0;
+        }
+        DirectFrameConsumer[] updated = new DirectFrameConsumer[consumers.length - 1];
+        System.arraycopy(consumers, 0, updated, 0, index);
+        System.arraycopy(consumers, index + 1, updated, index, updated.length - index);
+        consumers = updated.length == 0 ? NO_CONSUMERS : updated;
+        if (updated.length == 0) {
+            free.clear();
+        }
+        return updated.length == 0;
+    }
+
+    @Override
+    public void onFrame(byte[] nv21, int width, int height, long timestampNanos) {
+        DirectFrameConsumer[] current = consumers;
+        if (current.length == 0) {
+            return;
+        }
+        DirectFrame frame = obtain(nv21.length);
+        if (frame == null) {
+            return;
+        }
+        frame.fill(nv21, width, height, timestampNanos);
+        try {
+            for (DirectFrameConsumer consumer : current) {
+                consumer.onFrame(frame);
+            }
+        } finally {
+            release(frame);
+        }
+    }
+
+    private synchronized DirectFrame obtain(int size) {
+        checkLeaks();
+        if (size != frameSize) {
+            // buffers of the old size are dropped as they come back
+            free.clear();
+            frameSize = size;
+        }
+        DirectFrame frame = free.pollLast();
+        if (frame == null) {
+            if (inUse.size() >= maxFrames) {
+                dropped++;
+                return null;
+            }
+            frame = new DirectFrame(this, size);
+        }
+        frame.refCount = 1;
+        frame.acquiredNanos = System.nanoTime();
+        frame.leakReported = false;
+        inUse.add(frame);
+        delivered++;
+        return frame;
+    }
+
+    synchronized void retain(DirectFrame frame) {
+        if (frame.refCount <= 0) {
+            throw new IllegalStateException("Frame was already released");
+        }
+        frame.refCount++;
+    }
+
+    synchronized void release(DirectFrame frame) {
+        if (frame.refCount <= 0) {
+            throw new IllegalStateException("Frame was already released");
+        }
+        if (--frame.refCount > 0) {
+            return;
+        }
+        inUse.remove(frame);
+        if (frame.getCapacity() == frameSize && consumers.length > 0 && free.size() + inUse.size() < maxFrames) {
+            free.addLast(frame);
+        }
+    }
+
+    private void checkLeaks() {
+        long now = System.nanoTime();
+        for (DirectFrame frame : inUse) {
+            if (!frame.leakReported && now - frame.acquiredNanos > leakDeadlineNanos) {
+                frame.leakReported = true;
+                leaked++;
+                Log.w(TAG, "Frame held for " + (now - frame.acquiredNanos) / 1000000L + "ms without release, refCount " + frame.refCount);
+            }
+        }
+    }
+
+    synchronized void setMaxFrames(int maxFrames) {
+        this.maxFrames = Math.max(1, maxFrames);
+        while (!free.isEmpty() && free.size() + inUse.size() > this.maxFrames) {
+            free.removeFirst();
+        }
+    }
+
+    synchronized void setLeakDeadline(long millis) {
+        leakDeadlineNanos = Math.max(0, millis) * 1000000L;
+    }
+
+    synchronized int getMaxFrames() {
+        return maxFrames;
+    }
+
+    synchronized long getLeakDeadline() {
+        return leakDeadlineNanos / 1000000L;
+    }
+
+    synchronized int getFrameSize() {
+        return frameSize;
+    }
+
+    synchronized int getInUse() {
+        return inUse.size();
+    }
+
+    synchronized int getFree() {
+        return free.size();
+    }
+
+    // Native bytes currently allocated by frames in use or pooled.
+    synchronized long getAllocatedBytes() {
+        long bytes = 0;
+        for (DirectFrame frame : inUse) {
+            bytes += frame.getCapacity();
+        }
+        for (DirectFrame frame : free) {
+            bytes += frame.getCapacity();
+        }
+        return bytes;
+    }
+
+    synchronized double getOccupancy() {
+        return inUse.size() / (double) maxFrames;
+    }
+
+    synchronized int getDelivered() {
+        return delivered;
+    }
+
+    synchronized int getDropped() {
+        return dropped;
+    }
+
+    synchronized int getLeaked() {
+        checkLeaks();
+        return leaked;
+    }
+}
@@ -0,0 +1,111 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Finds the edges of a document held in front of the camera. The luma plane is
+ * reduced to a small grid and its gradient thresholded into edge cells; the
+ * strongest edge column in each half and the strongest edge row in each half
+ * are taken as the document's sides. The result is {@code [left, top, right,
+ * bottom, confidence]}, sides as fractions of the frame size and confidence the
+ * share of the weakest side covered by edge cells. Nothing is reported when no
+ * side stands out.
+ *
+ * This finds an axis-aligned outline, enough to guide framing; perspective
+ * corners need a line fit on top of it.
+ */
+class DocumentEdgeAnalyzer implements FrameAnalyzer {
+    static final String NAME = "documentEdges";
+    private static final int GRID_WIDTH = 64;
+    private static final int GRID_HEIGHT = 48;
+    private static final int MIN_EDGE_STRENGTH = 24;
+    private static final float MIN_CONFIDENCE = 0.3f;
+
+    private final int[] grid = new int[GRID_WIDTH * GRID_HEIGHT];
+    private final int[] columnEdges = new int[GRID_WIDTH];
+    private final int[] rowEdges = new int[GRID_HEIGHT];
+    private final float[] result = new float[5];
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public float[] analyze(byte[] nv21, int width, int height, long timestampNanos) {
+        if (width < GRID_WIDTH || height < GRID_HEIGHT) {
+            return null;
+        }
+        for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+            int row = (gy * height / GRID_HEIGHT) * width;
+            for (int gx = 0; gx < GRID_WIDTH; gx++) {
+                grid[gy * GRID_WIDTH + gx] = nv21[row + gx * width / GRID_WIDTH] & 0xFF;
+            }
+        }
+
+        // edge threshold adapts to the scene: twice the mean gradient, but at least MIN_EDGE_STRENGTH
+        long gradientSum = 0;
+        for (int gy = 1; gy < GRID_HEIGHT - 1; gy++) {
+            for (int gx = 1; gx < GRID_WIDTH - 1; gx++) {
+                gradientSum += gradient(gx, gy);
+            }
+        }
+        int threshold = Math.max(MIN_EDGE_STRENGTH, (int) (2 * gradientSum / ((GRID_WIDTH - 2) * (GRID_HEIGHT - 2))));
+
+        for (int i = 0; i < GRID_WIDTH; i++) {
+            columnEdges[i] = 0;
+        }
+        for (int i = 0; i < GRID_HEIGHT; i++) {
+            rowEdges[i] = 0;
+        }
+        for (int gy = 1; gy < GRID_HEIGHT - 1; gy++) {
+            for (int gx = 1; gx < GRID_WIDTH - 1; gx++) {
+                int i = gy * GRID_WIDTH + gx;
+                int horizontal = Math.abs(grid[i + 1] - grid[i - 1]);
+                int vertical = Math.abs(grid[i + GRID_WIDTH] - grid[i - GRID_WIDTH]);
+                if (horizontal >= threshold && horizontal >= vertical) {
+                    columnEdges[gx]++;
+                } else if (vertical >= threshold) {
+                    rowEdges[gy]++;
+                }
+            }
+        }
+
+        int left = strongest(columnEdges, 1, GRID_WIDTH / 2);
+        int right = strongest(columnEdges, GRID_WIDTH / 2, GRID_WIDTH - 1);
+        int top = strongest(rowEdges, 1, GRID_HEIGHT / 2);
+        int bottom = strongest(rowEdges, GRID_HEIGHT / 2, GRID_HEIGHT - 1);
+
+        float confidence = Math.min(
+                Math.min(columnEdges[left], columnEdges[right]) / (float) (bottom - top + 1),
+                Math.min(rowEdges[top], rowEdges[bottom]) / (float) (right - left + 1));
+        if (confidence < MIN_CONFIDENCE) {
+            return null;
+        }
+
+        result[0] = left / (float) GRID_WIDTH;
+        result[1] = top / (float) GRID_HEIGHT;
+        result[2] = (right + 1) / (float) GRID_WIDTH;
+        result[3] = (bottom + 1) / (float) GRID_HEIGHT;
+        result[4] = Math.min(1f, confidence);
+        return result;
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    private int gradient(int gx, int gy) {
+        int i = gy * GRID_WIDTH + gx;
+        return Math.abs(grid[i + 1] - grid[i - 1]) + Math.abs(grid[i + GRID_WIDTH] - grid[i - GRID_WIDTH]);
+    }
+
+    // index of the largest count in [from, to)
+    private static int strongest(int[] counts, int from, int to) {
+        int best = from;
+        for (int i = from + 1; i < to; i++) {
+            if (counts[i] > counts[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
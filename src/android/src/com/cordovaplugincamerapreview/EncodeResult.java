@@ -0,0 +1,19 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * What a picture ended up encoded as. {@code quality} is {@link #UNKNOWN_QUALITY}
+ * when the camera's own JPEG was passed through.
+ */
+final class EncodeResult {
+    static final int UNKNOWN_QUALITY = -1;
+
+    final EncoderOptions.Format format;
+    final int quality;
+    final int bytes;
+
+    EncodeResult(EncoderOptions.Format format, int quality, int bytes) {
+        this.format = format;
+        this.quality = quality;
+        this.bytes = bytes;
+    }
+}
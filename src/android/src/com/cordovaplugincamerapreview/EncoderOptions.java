@@ -0,0 +1,69 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * How a processed picture is compressed. With a {@code targetBytes} budget the
+ * quality is searched for the largest value whose output still fits, starting
+ * from {@code quality}; without one the picture is encoded at {@code quality}
+ * once.
+ */
+final class EncoderOptions {
+    static final int DEFAULT_QUALITY = 85;
+    static final int MIN_QUALITY = 5;
+
+    static final EncoderOptions DEFAULT = new EncoderOptions(Format.JPEG, DEFAULT_QUALITY, false, 0);
+
+    enum Format {
+        JPEG("jpeg", "jpg"),
+        WEBP("webp", "webp");
+
+        private final String jsName;
+        private final String extension;
+
+        Format(String jsName, String extension) {
+            this.jsName = jsName;
+            this.extension = extension;
+        }
+
+        String getJsName() {
+            return jsName;
+        }
+
+        String getExtension() {
+            return extension;
+        }
+
+        // Returns null for formats this device can't encode.
+        static Format fromJsName(String jsName) {
+            for (Format format : values()) {
+                if (format.jsName.equalsIgnoreCase(jsName)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+    }
+
+    final Format format;
+    final int quality;
+    // false when quality is the default, so an untouched camera JPEG may be used as is
+    final boolean qualitySet;
+    // 0 for no size budget
+    final int targetBytes;
+
+    EncoderOptions(Format format, int quality, boolean qualitySet, int targetBytes) {
+        this.format = format;
+        this.quality = Math.max(MIN_QUALITY, Math.min(100, quality));
+        this.qualitySet = qualitySet;
+        this.targetBytes = Math.max(0, targetBytes);
+    }
+
+    // Pass-through keeps the camera's JPEG, which is only right if nothing else was asked for.
+    boolean allowsPassthrough(int jpegBytes) {
+        return format == Format.JPEG && !qualitySet && (targetBytes == 0 || jpegBytes <= targetBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "EncoderOptions{format=" + format.jsName + ", quality=" + quality + ", targetBytes=" + targetBytes + "}";
+    }
+}
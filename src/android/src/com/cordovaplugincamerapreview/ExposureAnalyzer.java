@@ -0,0 +1,63 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Luma histogram of the frame. The result is {@code [mean, dark, bright,
+ * bin0 .. bin15]}: the mean luma (0-255), the fractions of pixels clipped to
+ * near black and near white, and the fraction of pixels in each of 16 equal
+ * luma bins.
+ */
+class ExposureAnalyzer implements FrameAnalyzer {
+    static final String NAME = "exposure";
+    static final int BINS = 16;
+    private static final int DARK_LIMIT = 16;
+    private static final int BRIGHT_LIMIT = 240;
+    private static final int STEP = 4;
+
+    private final int[] counts = new int[BINS];
+    private final float[] result = new float[3 + BINS];
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public float[] analyze(byte[] nv21, int width, int height, long timestampNanos) {
+        for (int i = 0; i < BINS; i++) {
+            counts[i] = 0;
+        }
+        long sum = 0;
+        int dark = 0;
+        int bright = 0;
+        int samples = 0;
+        for (int y = 0; y < height; y += STEP) {
+            int row = y * width;
+            for (int x = 0; x < width; x += STEP) {
+                int luma = nv21[row + x] & 0xFF;
+                counts[luma * BINS / 256]++;
+                sum += luma;
+                if (luma < DARK_LIMIT) {
+                    dark++;
+                } else if (luma >= BRIGHT_LIMIT) {
+                    bright++;
+                }
+                samples++;
+            }
+        }
+        if (samples == 0) {
+            return null;
+        }
+
+        result[0] = sum / (float) samples;
+        result[1] = dark / (float) samples;
+        result[2] = bright / (float) samples;
+        for (int i = 0; i < BINS; i++) {
+            result[3 + i] = counts[i] / (float) samples;
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+    }
+}
@@ -0,0 +1,17 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Analysis run on live preview frames by {@link AnalyzerEngine}. Analyzers see
+ * the raw NV21 array only, so they run unchanged on a plain JVM. They are
+ * called from the engine's worker thread, one frame at a time, and only on the
+ * frames their schedule allows.
+ */
+interface FrameAnalyzer {
+    String getName();
+
+    // Returns the result values, or null if there is nothing to report. The array may be reused by the next call.
+    float[] analyze(byte[] nv21, int width, int height, long timestampNanos);
+
+    // Forgets state carried between frames, e.g. after the preview size changed.
+    void reset();
+}
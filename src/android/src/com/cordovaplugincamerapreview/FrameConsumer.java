@@ -0,0 +1,11 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Receives live preview frames. Frames are delivered on the camera callback
+ * thread in NV21 format and the array is handed back to the camera as soon as
+ * {@link #onFrame} returns, so implementations must copy anything they want to
+ * keep and should return quickly.
+ */
+public interface FrameConsumer {
+    void onFrame(byte[] nv21, int width, int height, long timestampNanos);
+}
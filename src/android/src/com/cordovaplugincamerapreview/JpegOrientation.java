@@ -0,0 +1,180 @@
+package com.cordovaplugincamerapreview;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Rotates and mirrors a JPEG without touching its pixels by writing the EXIF
+ * orientation tag. An existing tag in the IFD0 of the APP1 Exif segment is
+ * overwritten in place; a JPEG without Exif data gets a minimal segment with
+ * just the orientation. The picture is copied to the output around the patched
+ * bytes, never decoded or re-encoded.
+ */
+final class JpegOrientation {
+    private static final int NO_EXIF = -1;
+    private static final int MALFORMED = -2;
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+
+    private JpegOrientation() {
+    }
+
+    /**
+     * EXIF orientation for a picture that is mirrored horizontally (if set)
+     * and then rotated clockwise by {@code rotation} degrees.
+     */
+    static int fromTransform(int rotation, boolean mirror) {
+        switch (((rotation % 360) + 360) % 360) {
+            case 90:
+                return mirror ? 7 : 6;
+            case 180:
+                return mirror ? 4 : 3;
+            case 270:
+                return mirror ? 5 : 8;
+            default:
+                return mirror ? 2 : 1;
+        }
+    }
+
+    // False if the picture is not a JPEG or has Exif data without an orientation tag.
+    static boolean canWrite(byte[] jpeg) {
+        int tiff = findTiffHeader(jpeg);
+        return tiff == NO_EXIF || (tiff >= 0 && findOrientationValue(jpeg, tiff) >= 0);
+    }
+
+    // Returns the number of bytes written.
+    static int write(byte[] jpeg, int orientation, OutputStream output) throws IOException {
+        int tiff = findTiffHeader(jpeg);
+        if (tiff == NO_EXIF) {
+            int insertAt = afterJfifSegment(jpeg);
+            byte[] segment = exifSegment(orientation);
+            output.write(jpeg, 0, insertAt);
+            output.write(segment);
+            output.write(jpeg, insertAt, jpeg.length - insertAt);
+            return jpeg.length + segment.length;
+        }
+
+        int value = tiff >= 0 ? findOrientationValue(jpeg, tiff) : MALFORMED;
+        if (value < 0) {
+            throw new IOException("No orientation tag to write");
+        }
+        output.write(jpeg, 0, value);
+        if (jpeg[tiff] == 'I') {
+            output.write(orientation);
+            output.write(0);
+        } else {
+            output.write(0);
+            output.write(orientation);
+        }
+        output.write(jpeg, value + 2, jpeg.length - value - 2);
+        return jpeg.length;
+    }
+
+    // Offset of the TIFF header inside the APP1 Exif segment, NO_EXIF or MALFORMED.
+    private static int findTiffHeader(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xFF) != 0xFF || (jpeg[1] & 0xFF) != MARKER_SOI) {
+            return MALFORMED;
+        }
+        int pos = 2;
+        while (pos + 4 <= jpeg.length) {
+            if ((jpeg[pos] & 0xFF) != 0xFF) {
+                return MALFORMED;
+            }
+            int marker = jpeg[pos + 1] & 0xFF;
+            if (marker == 0xFF) {
+                // fill byte
+                pos++;
+                continue;
+            }
+            if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                break;
+            }
+            int length = readShort(jpeg, pos + 2, false);
+            if (length < 2 || pos + 2 + length > jpeg.length) {
+                return MALFORMED;
+            }
+            if (marker == MARKER_APP1 && length >= 16 && isExifHeader(jpeg, pos + 4)) {
+                return pos + 10;
+            }
+            pos += 2 + length;
+        }
+        return NO_EXIF;
+    }
+
+    // Offset of the orientation value in IFD0, or MALFORMED if there is none.
+    private static int findOrientationValue(byte[] jpeg, int tiff) {
+        boolean littleEndian;
+        if (jpeg[tiff] == 'I' && jpeg[tiff + 1] == 'I') {
+            littleEndian = true;
+        } else if (jpeg[tiff] == 'M' && jpeg[tiff + 1] == 'M') {
+            littleEndian = false;
+        } else {
+            return MALFORMED;
+        }
+
+        long ifdOffset = readInt(jpeg, tiff + 4, littleEndian) & 0xFFFFFFFFL;
+        long ifd = tiff + ifdOffset;
+        if (ifd + 2 > jpeg.length) {
+            return MALFORMED;
+        }
+        int count = readShort(jpeg, (int) ifd, littleEndian);
+        for (int i = 0; i < count; i++) {
+            int entry = (int) ifd + 2 + 12 * i;
+            if (entry + 12 > jpeg.length) {
+                return MALFORMED;
+            }
+            if (readShort(jpeg, entry, littleEndian) == TAG_ORIENTATION) {
+                return readShort(jpeg, entry + 2, littleEndian) == TYPE_SHORT ? entry + 8 : MALFORMED;
+            }
+        }
+        return MALFORMED;
+    }
+
+    // Exif wants its segment right after SOI, JFIF its APP0; keep the APP0 first if there is one.
+    private static int afterJfifSegment(byte[] jpeg) {
+        if ((jpeg[2] & 0xFF) == 0xFF && (jpeg[3] & 0xFF) == MARKER_APP0 && jpeg.length >= 6) {
+            return Math.min(jpeg.length, 4 + readShort(jpeg, 4, false));
+        }
+        return 2;
+    }
+
+    private static byte[] exifSegment(int orientation) {
+        return new byte[] {
+                (byte) 0xFF, (byte) MARKER_APP1, 0, 34,
+                'E', 'x', 'i', 'f', 0, 0,
+                // big endian TIFF header, IFD0 at offset 8
+                'M', 'M', 0, 42, 0, 0, 0, 8,
+                // one entry: orientation, SHORT, count 1, value
+                0, 1,
+                0x01, 0x12, 0, TYPE_SHORT, 0, 0, 0, 1, 0, (byte) orientation, 0, 0,
+                // no next IFD
+                0, 0, 0, 0
+        };
+    }
+
+    private static boolean isExifHeader(byte[] jpeg, int pos) {
+        return jpeg[pos] == 'E' && jpeg[pos + 1] == 'x' && jpeg[pos + 2] == 'i' && jpeg[pos + 3] == 'f'
+                && jpeg[pos + 4] == 0 && jpeg[pos + 5] == 0;
+    }
+
+    private static int readShort(byte[] data, int pos, boolean littleEndian) {
+        int b0 = data[pos] & 0xFF;
+        int b1 = data[pos + 1] & 0xFF;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int readInt(byte[] data, int pos, boolean littleEndian) {
+        if (pos + 4 > data.length) {
+            return -1;
+        }
+        int high = readShort(data, littleEndian ? pos + 2 : pos, littleEndian);
+        int low = readShort(data, littleEndian ? pos : pos + 2, littleEndian);
+        return (high << 16) | low;
+    }
+}
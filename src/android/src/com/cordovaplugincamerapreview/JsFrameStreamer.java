@@ -0,0 +1,65 @@
+package com.cordovaplugincamerapreview;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Forwards a throttled, downsampled copy of the preview to JavaScript. Only the
+ * luminance plane is sent, nearest-neighbour subsampled by an integer step so
+ * that the width does not exceed {@code maxWidth}. The downsample buffer is
+ * reused between frames.
+ */
+class JsFrameStreamer implements FrameConsumer {
+    static final int DEFAULT_FPS = 5;
+    static final int DEFAULT_MAX_WIDTH = 160;
+
+    private final CallbackContext callbackContext;
+    private final long minIntervalNanos;
+    private final int maxWidth;
+    private long lastFrameNanos;
+    private int sequence;
+    private byte[] luma;
+
+    JsFrameStreamer(CallbackContext callbackContext, int fps, int maxWidth) {
+        this.callbackContext = callbackContext;
+        this.minIntervalNanos = 1000000000L / Math.max(1, fps);
+        this.maxWidth = Math.max(1, maxWidth);
+    }
+
+    @Override
+    public void onFrame(byte[] nv21, int width, int height, long timestampNanos) {
+        if (lastFrameNanos != 0 && timestampNanos - lastFrameNanos < minIntervalNanos) {
+            return;
+        }
+        lastFrameNanos = timestampNanos;
+
+        int step = (width + maxWidth - 1) / maxWidth;
+        int outWidth = width / step;
+        int outHeight = height / step;
+        int size = outWidth * outHeight;
+        if (luma == null || luma.length != size) {
+            luma = new byte[size];
+        }
+
+        int out = 0;
+        for (int y = 0; y < outHeight; y++) {
+            int row = y * step * width;
+            for (int x = 0; x < outWidth; x++) {
+                luma[out++] = nv21[row + x * step];
+            }
+        }
+
+        // PluginResult encodes the bytes right away, so the buffer can be reused.
+        List<PluginResult> parts = new ArrayList<PluginResult>(4);
+        parts.add(new PluginResult(PluginResult.Status.OK, luma));
+        parts.add(new PluginResult(PluginResult.Status.OK, outWidth));
+        parts.add(new PluginResult(PluginResult.Status.OK, outHeight));
+        parts.add(new PluginResult(PluginResult.Status.OK, sequence++));
+        PluginResult result = new PluginResult(PluginResult.Status.OK, parts);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+}
@@ -0,0 +1,68 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Latency distribution in power-of-two microsecond buckets: bucket {@code i}
+ * holds values below {@code 2^i} us, which is enough resolution for
+ * percentiles of timings spanning sub-millisecond stages up to multi-second
+ * camera opens. Recording never allocates.
+ */
+final class LatencyHistogram {
+    private static final int BUCKET_COUNT = 25;
+
+    private final long[] buckets = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long max;
+
+    synchronized void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000L);
+        int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets[bucket]++;
+        count++;
+        sum += micros;
+        if (micros > max) {
+            max = micros;
+        }
+    }
+
+    synchronized void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    synchronized long getCount() {
+        return count;
+    }
+
+    synchronized double getMeanMillis() {
+        return count == 0 ? 0 : sum / (double) count / 1000d;
+    }
+
+    synchronized double getMaxMillis() {
+        return max / 1000d;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile (0 to 100), capped
+     * at the largest recorded value. Returns 0 for an empty histogram.
+     */
+    synchronized double getPercentileMillis(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100d);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets[i];
+            if (seen >= Math.max(1, rank)) {
+                long upperMicros = i == 0 ? 0 : (1L << i) - 1;
+                return Math.min(upperMicros, max) / 1000d;
+            }
+        }
+        return max / 1000d;
+    }
+}
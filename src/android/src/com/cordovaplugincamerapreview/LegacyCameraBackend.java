@@ -0,0 +1,471 @@
+package com.cordovaplugincamerapreview;
+
+import android.hardware.Camera;
+import android.hardware.Camera.Parameters;
+import android.graphics.SurfaceTexture;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.SurfaceHolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link CameraBackend} on top of the deprecated {@code android.hardware.Camera}
+ * API. Camera callbacks arrive on the looper of the thread that opened the
+ * camera; picture and focus results are forwarded to the main thread, preview
+ * frames are dispatched right where they arrive.
+ *
+ * {@code getParameters()} is fetched once per open and kept as the parameter
+ * model. Setters only edit that copy and schedule a commit, so changes made
+ * back to back end up in a single {@code setParameters()}; anything that needs
+ * them in effect (preview start, capture) commits first.
+ */
+class LegacyCameraBackend implements CameraBackend, PreviewFrameDispatcher.Source, Camera.PreviewCallback {
+    private static final String TAG = "LegacyCameraBackend";
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile Handler cameraHandler;
+    private volatile Camera camera;
+    private int cameraId = -1;
+    private PreviewFrameDispatcher frameDispatcher;
+    private int frameWidth;
+    private int frameHeight;
+    // capabilities are fixed per camera, keep them across reopens
+    private final Map<Integer, CameraCapabilities> capabilitiesCache = new HashMap<Integer, CameraCapabilities>();
+    private CameraCapabilities capabilities;
+    private Camera.Parameters parameters;
+    private boolean parametersDirty;
+    private boolean commitScheduled;
+    // camera thread only: a JPEG callback is outstanding, and whether the preview is to stay stopped after it
+    private boolean pictureInProgress;
+    private boolean previewPaused;
+
+    @Override
+    public String getName() {
+        return "legacy";
+    }
+
+    @Override
+    public int getNumberOfCameras() {
+        return Camera.getNumberOfCameras();
+    }
+
+    @Override
+    public boolean isFrontFacing(int cameraId) {
+        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+        Camera.getCameraInfo(cameraId, cameraInfo);
+        return cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+    }
+
+    @Override
+    public int getSensorOrientation(int cameraId) {
+        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+        Camera.getCameraInfo(cameraId, cameraInfo);
+        return cameraInfo.orientation;
+    }
+
+    @Override
+    public void open(int cameraId) throws IOException {
+        try {
+            camera = Camera.open(cameraId);
+        } catch (RuntimeException e) {
+            throw new IOException("Could not open camera " + cameraId, e);
+        }
+        this.cameraId = cameraId;
+        Looper looper = Looper.myLooper();
+        cameraHandler = looper != null ? new Handler(looper) : mainHandler;
+
+        parameters = camera.getParameters();
+        parametersDirty = false;
+        capabilities = capabilitiesCache.get(cameraId);
+        if (capabilities == null) {
+            capabilities = readCapabilities(cameraId, parameters);
+            capabilitiesCache.put(cameraId, capabilities);
+            Log.d(TAG, capabilities.toString());
+        }
+
+        if (frameDispatcher != null) {
+            frameDispatcher.setSource(this);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (camera == null) {
+            return;
+        }
+        camera.setPreviewCallbackWithBuffer(null);
+        camera.stopPreview();
+        camera.release();
+        camera = null;
+        cameraId = -1;
+        parameters = null;
+        parametersDirty = false;
+        pictureInProgress = false;
+        previewPaused = false;
+        capabilities = null;
+        frameWidth = 0;
+        frameHeight = 0;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return camera != null;
+    }
+
+    @Override
+    public int getCameraId() {
+        return cameraId;
+    }
+
+    @Override
+    public CameraCapabilities getCapabilities() {
+        return capabilities;
+    }
+
+    // Sizes and modes come from Camera.Parameters, so only cameras opened before are known.
+    @Override
+    public CameraCapabilities getCapabilities(int cameraId) {
+        return capabilitiesCache.get(cameraId);
+    }
+
+    @Override
+    public List<CameraSize> getSupportedPreviewSizes() {
+        return capabilities.previewSizes;
+    }
+
+    @Override
+    public List<CameraSize> getSupportedPictureSizes() {
+        return capabilities.pictureSizes;
+    }
+
+    @Override
+    public CameraSize getPreviewSize() {
+        Camera.Size size = parameters.getPreviewSize();
+        return new CameraSize(size.width, size.height);
+    }
+
+    @Override
+    public void setPreviewSize(int width, int height) {
+        // the callback buffers below must match the size the camera actually uses
+        editParameters().setPreviewSize(width, height);
+        commitParameters();
+
+        frameWidth = width;
+        frameHeight = height;
+        if (frameDispatcher != null && frameDispatcher.isActive()) {
+            registerFrameCallback();
+        }
+    }
+
+    @Override
+    public void setPictureSize(int width, int height) {
+        Camera.Size current = parameters.getPictureSize();
+        if (current != null && current.width == width && current.height == height) {
+            return;
+        }
+        editParameters().setPictureSize(width, height);
+    }
+
+    @Override
+    public void setDisplayOrientation(int degrees) {
+        camera.setDisplayOrientation(degrees);
+    }
+
+    @Override
+    public void setPreviewDisplay(SurfaceHolder holder) throws IOException {
+        camera.setPreviewDisplay(holder);
+    }
+
+    @Override
+    public void setPreviewTexture(SurfaceTexture texture) throws IOException {
+        camera.setPreviewTexture(texture);
+    }
+
+    @Override
+    public void startPreview() {
+        previewPaused = false;
+        commitParameters();
+        camera.startPreview();
+    }
+
+    @Override
+    public void stopPreview() {
+        previewPaused = false;
+        camera.stopPreview();
+    }
+
+    // The preview display and callback buffers stay set across stopPreview, so this is all it takes.
+    // While a picture is being taken the camera has stopped the preview itself, and the JPEG
+    // callback leaves it stopped; stopping it in between would lose the picture.
+    @Override
+    public void pausePreview() {
+        previewPaused = true;
+        if (!pictureInProgress) {
+            camera.stopPreview();
+        }
+    }
+
+    @Override
+    public void resumePreview() {
+        if (pictureInProgress) {
+            // the JPEG callback restarts it
+            previewPaused = false;
+        } else {
+            startPreview();
+        }
+    }
+
+    @Override
+    public boolean takePicture(final PictureCallback callback) {
+        try {
+            commitParameters();
+            camera.takePicture(null, null, new Camera.PictureCallback() {
+                @Override
+                public void onPictureTaken(byte[] data, Camera camera) {
+                    pictureInProgress = false;
+                    // The camera stops the preview to take the picture; restart it right away
+                    // so the next shot can be taken while this one is still being encoded.
+                    if (!previewPaused) {
+                        camera.startPreview();
+                    }
+                    deliverPicture(callback, data);
+                }
+            });
+            pictureInProgress = true;
+            return true;
+        } catch (RuntimeException e) {
+            Log.e(TAG, "takePicture failed", e);
+            return false;
+        }
+    }
+
+    @Override
+    public void autoFocus(final FocusCallback callback) {
+        camera.autoFocus(new Camera.AutoFocusCallback() {
+            @Override
+            public void onAutoFocus(final boolean success, Camera camera) {
+                if (callback == null) {
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onFocus(success);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void cancelAutoFocus() {
+        camera.cancelAutoFocus();
+    }
+
+    @Override
+    public void setFlashMode(int flashMode) {
+        String mode = null;
+        if (flashMode == FLASH_OFF && capabilities.supportsFlashMode(FLASH_OFF)) {
+            mode = Parameters.FLASH_MODE_OFF;
+        } else if (flashMode == FLASH_ON && capabilities.supportsFlashMode(FLASH_ON)) {
+            mode = Parameters.FLASH_MODE_ON;
+        } else if (flashMode == FLASH_AUTO && capabilities.supportsFlashMode(FLASH_AUTO)) {
+            mode = Parameters.FLASH_MODE_AUTO;
+        } else if (flashMode == FLASH_AUTO && capabilities.supportsFlashMode(FLASH_ON)) {
+            mode = Parameters.FLASH_MODE_ON;
+        }
+
+        if (mode != null && !mode.equals(parameters.getFlashMode())) {
+            editParameters().setFlashMode(mode);
+        }
+    }
+
+    @Override
+    public void setFocusMode(int focusMode) {
+        String mode = null;
+        if (focusMode == FOCUS_AUTO && capabilities.supportsFocusMode(FOCUS_AUTO)) {
+            mode = Parameters.FOCUS_MODE_AUTO;
+        } else if (focusMode == FOCUS_CONTINUOUS && capabilities.supportsFocusMode(FOCUS_CONTINUOUS)) {
+            mode = Parameters.FOCUS_MODE_CONTINUOUS_PICTURE;
+        }
+
+        if (mode != null && !mode.equals(parameters.getFocusMode())) {
+            editParameters().setFocusMode(mode);
+        }
+    }
+
+    // Effect names used by the plugin are the Camera.Parameters.EFFECT_* values.
+    @Override
+    public boolean setColorEffect(String effect) {
+        if (!capabilities.supportsColorEffect(effect)) {
+            return false;
+        }
+        if (!effect.equals(parameters.getColorEffect())) {
+            editParameters().setColorEffect(effect);
+        }
+        return true;
+    }
+
+    // Returns the parameter model for editing; the change is committed with the next batch.
+    private Camera.Parameters editParameters() {
+        parametersDirty = true;
+        if (!commitScheduled && cameraHandler != null) {
+            commitScheduled = true;
+            cameraHandler.post(commitRunnable);
+        }
+        return parameters;
+    }
+
+    private final Runnable commitRunnable = new Runnable() {
+        @Override
+        public void run() {
+            commitScheduled = false;
+            commitParameters();
+        }
+    };
+
+    private void commitParameters() {
+        if (!parametersDirty || camera == null) {
+            return;
+        }
+        parametersDirty = false;
+        try {
+            camera.setParameters(parameters);
+        } catch (RuntimeException e) {
+            // one bad value rejects the whole batch; resync with what the camera accepted
+            Log.e(TAG, "setParameters rejected", e);
+            parameters = camera.getParameters();
+        }
+    }
+
+    private static CameraCapabilities readCapabilities(int cameraId, Camera.Parameters parameters) {
+        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+        Camera.getCameraInfo(cameraId, cameraInfo);
+
+        Set<Integer> flashModes = new HashSet<Integer>();
+        List<String> supportedFlashModes = parameters.getSupportedFlashModes();
+        if (supportedFlashModes != null) {
+            if (supportedFlashModes.contains(Parameters.FLASH_MODE_OFF)) {
+                flashModes.add(FLASH_OFF);
+            }
+            if (supportedFlashModes.contains(Parameters.FLASH_MODE_ON)) {
+                flashModes.add(FLASH_ON);
+            }
+            if (supportedFlashModes.contains(Parameters.FLASH_MODE_AUTO)) {
+                flashModes.add(FLASH_AUTO);
+            }
+        }
+
+        Set<Integer> focusModes = new HashSet<Integer>();
+        List<String> supportedFocusModes = parameters.getSupportedFocusModes();
+        if (supportedFocusModes != null) {
+            if (supportedFocusModes.contains(Parameters.FOCUS_MODE_AUTO)) {
+                focusModes.add(FOCUS_AUTO);
+            }
+            if (supportedFocusModes.contains(Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
+                focusModes.add(FOCUS_CONTINUOUS);
+            }
+        }
+
+        Set<String> colorEffects = new HashSet<String>();
+        List<String> supportedColorEffects = parameters.getSupportedColorEffects();
+        if (supportedColorEffects != null) {
+            colorEffects.addAll(supportedColorEffects);
+        }
+
+        return new CameraCapabilities(
+                cameraId,
+                cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT,
+                cameraInfo.orientation,
+                toCameraSizes(parameters.getSupportedPreviewSizes()),
+                toCameraSizes(parameters.getSupportedPictureSizes()),
+                flashModes,
+                focusModes,
+                colorEffects
+        );
+    }
+
+    @Override
+    public void setFrameDispatcher(PreviewFrameDispatcher frameDispatcher) {
+        this.frameDispatcher = frameDispatcher;
+        if (frameDispatcher != null && camera != null) {
+            frameDispatcher.setSource(this);
+        }
+    }
+
+    @Override
+    public void onFrameConsumersChanged(final boolean active) {
+        Handler handler = cameraHandler;
+        if (camera == null || handler == null) {
+            return;
+        }
+        // Consumers come and go on any thread; the camera is only touched from its own.
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (camera == null) {
+                    return;
+                }
+                if (active) {
+                    registerFrameCallback();
+                } else {
+                    camera.setPreviewCallbackWithBuffer(null);
+                }
+            }
+        });
+    }
+
+    private void deliverPicture(final PictureCallback callback, final byte[] jpeg) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onPictureTaken(jpeg);
+            }
+        });
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        if (data == null || data.length != PreviewFrameDispatcher.getFrameSize(frameWidth, frameHeight)) {
+            // stale buffer from a previous preview size, let it go
+            return;
+        }
+
+        frameDispatcher.dispatch(data, frameWidth, frameHeight, System.nanoTime());
+
+        if (frameDispatcher.isActive()) {
+            camera.addCallbackBuffer(data);
+        }
+    }
+
+    private void registerFrameCallback() {
+        if (camera == null || frameWidth == 0 || frameHeight == 0) {
+            return;
+        }
+        // Passing null first clears any queued buffers of a previous size.
+        camera.setPreviewCallbackWithBuffer(null);
+        for (byte[] buffer : frameDispatcher.getBuffers(frameWidth, frameHeight)) {
+            camera.addCallbackBuffer(buffer);
+        }
+        camera.setPreviewCallbackWithBuffer(this);
+        Log.d(TAG, "Streaming " + frameWidth + "x" + frameHeight + " preview frames");
+    }
+
+    private static List<CameraSize> toCameraSizes(List<Camera.Size> sizes) {
+        List<CameraSize> result = new ArrayList<CameraSize>(sizes == null ? 0 : sizes.size());
+        if (sizes != null) {
+            for (Camera.Size size : sizes) {
+                result.add(new CameraSize(size.width, size.height));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,125 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Process-wide counters and latency histograms for the camera and capture
+ * paths. Metrics are addressed by the int constants below and stored in
+ * arrays allocated once, so recording never allocates; while disabled every
+ * call returns after a single volatile read. See {@link LatencyHistogram}
+ * for the bucket layout.
+ */
+final class Metrics {
+    // counters
+    static final int PICTURES_TAKEN = 0;
+    static final int PICTURES_FAILED = 1;
+    static final int TAKE_PICTURE_DROPPED = 2;
+    static final int COUNTER_COUNT = 3;
+
+    // histograms
+    static final int CAMERA_OPEN = 0;
+    static final int FIRST_PREVIEW_FRAME = 1;
+    static final int SHUTTER_TO_JPEG = 2;
+    static final int QUEUED = 3;
+    static final int DECODE = 4;
+    static final int TRANSFORM = 5;
+    static final int ENCODE = 6;
+    static final int TRANSPORT = 7;
+    static final int BRIDGE_DELIVERY = 8;
+    static final int STANDBY_RESUME = 9;
+    static final int SWITCH_TO_FIRST_FRAME = 10;
+    static final int HISTOGRAM_COUNT = 11;
+
+    private static final String[] COUNTER_NAMES = {
+            "picturesTaken",
+            "picturesFailed",
+            "takePictureDropped"
+    };
+
+    private static final String[] HISTOGRAM_NAMES = {
+            "cameraOpen",
+            "firstPreviewFrame",
+            "shutterToJpeg",
+            "queued",
+            "decode",
+            "transform",
+            "encode",
+            "transport",
+            "bridgeDelivery",
+            "standbyResume",
+            "switchToFirstFrame"
+    };
+
+    private static volatile boolean enabled;
+    private static final Object lock = new Object();
+    private static final long[] counters = new long[COUNTER_COUNT];
+    private static final LatencyHistogram[] histograms = new LatencyHistogram[HISTOGRAM_COUNT];
+
+    static {
+        for (int i = 0; i < HISTOGRAM_COUNT; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    static void increment(int counter) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (lock) {
+            counters[counter]++;
+        }
+    }
+
+    // Records the time elapsed since startNanos, a System.nanoTime() value.
+    static void recordSince(int histogram, long startNanos) {
+        if (!enabled) {
+            return;
+        }
+        record(histogram, System.nanoTime() - startNanos);
+    }
+
+    static void record(int histogram, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        histograms[histogram].record(nanos);
+    }
+
+    static void reset() {
+        synchronized (lock) {
+            for (int i = 0; i < COUNTER_COUNT; i++) {
+                counters[i] = 0;
+            }
+        }
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    static String getCounterName(int counter) {
+        return COUNTER_NAMES[counter];
+    }
+
+    static String getHistogramName(int histogram) {
+        return HISTOGRAM_NAMES[histogram];
+    }
+
+    static long getCounter(int counter) {
+        synchronized (lock) {
+            return counters[counter];
+        }
+    }
+
+    static LatencyHistogram getHistogram(int histogram) {
+        return histograms[histogram];
+    }
+}
@@ -0,0 +1,81 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Scene motion between analyzed frames. The luma plane is reduced to a grid of
+ * block averages that is compared with the previous frame's grid. The result is
+ * {@code [difference, changed]}: the mean absolute block difference scaled to
+ * 0-1 and the fraction of blocks that changed by more than a small threshold.
+ * Nothing is reported for the first frame.
+ */
+class MotionAnalyzer implements FrameAnalyzer {
+    static final String NAME = "motion";
+    private static final int GRID_WIDTH = 32;
+    private static final int GRID_HEIGHT = 24;
+    private static final int SAMPLES_PER_BLOCK_SIDE = 4;
+    private static final int CHANGE_THRESHOLD = 12;
+
+    private int[] grid = new int[GRID_WIDTH * GRID_HEIGHT];
+    private int[] previous = new int[GRID_WIDTH * GRID_HEIGHT];
+    private boolean hasPrevious;
+    private final float[] result = new float[2];
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public float[] analyze(byte[] nv21, int width, int height, long timestampNanos) {
+        if (width < GRID_WIDTH || height < GRID_HEIGHT) {
+            return null;
+        }
+        blockAverages(nv21, width, height, grid);
+
+        int[] swap = previous;
+        previous = grid;
+        grid = swap;
+        if (!hasPrevious) {
+            hasPrevious = true;
+            return null;
+        }
+
+        long difference = 0;
+        int changed = 0;
+        for (int i = 0; i < previous.length; i++) {
+            int delta = Math.abs(previous[i] - grid[i]);
+            difference += delta;
+            if (delta > CHANGE_THRESHOLD) {
+                changed++;
+            }
+        }
+        result[0] = difference / (255f * previous.length);
+        result[1] = changed / (float) previous.length;
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        hasPrevious = false;
+    }
+
+    private static void blockAverages(byte[] nv21, int width, int height, int[] grid) {
+        int blockWidth = width / GRID_WIDTH;
+        int blockHeight = height / GRID_HEIGHT;
+        int stepX = Math.max(1, blockWidth / SAMPLES_PER_BLOCK_SIDE);
+        int stepY = Math.max(1, blockHeight / SAMPLES_PER_BLOCK_SIDE);
+        for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+            for (int gx = 0; gx < GRID_WIDTH; gx++) {
+                int sum = 0;
+                int samples = 0;
+                for (int y = gy * blockHeight; y < (gy + 1) * blockHeight; y += stepY) {
+                    int row = y * width;
+                    for (int x = gx * blockWidth; x < (gx + 1) * blockWidth; x += stepX) {
+                        sum += nv21[row + x] & 0xFF;
+                        samples++;
+                    }
+                }
+                grid[gy * GRID_WIDTH + gx] = sum / samples;
+            }
+        }
+    }
+}
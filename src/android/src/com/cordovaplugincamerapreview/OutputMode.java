@@ -0,0 +1,32 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * How a processed picture is handed back to JavaScript.
+ */
+enum OutputMode {
+    // JPEG as a Base64 string, the historical behaviour
+    BASE64("base64"),
+    // JPEG written to app cache storage, the result is a file:// URL
+    FILE("file"),
+    // raw JPEG bytes, delivered to JavaScript as an ArrayBuffer
+    ARRAY_BUFFER("arraybuffer");
+
+    private final String jsName;
+
+    OutputMode(String jsName) {
+        this.jsName = jsName;
+    }
+
+    String getJsName() {
+        return jsName;
+    }
+
+    static OutputMode fromJsName(String jsName) {
+        for (OutputMode mode : values()) {
+            if (mode.jsName.equalsIgnoreCase(jsName)) {
+                return mode;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported output type: " + jsName);
+    }
+}
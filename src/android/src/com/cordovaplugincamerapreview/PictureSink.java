@@ -0,0 +1,120 @@
+package com.cordovaplugincamerapreview;
+
+import android.util.Base64;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Destination for encoded pictures. In {@link OutputMode#FILE} mode the encoder
+ * writes straight into a file in the app cache directory, so the JPEG is never
+ * held in memory as a whole; the other modes collect the bytes in memory and
+ * either Base64 encode them or pass them on as-is.
+ *
+ * In-memory output goes into pooled buffers sized from the previous picture,
+ * so the encoder doesn't grow the array and the bytes are read straight from
+ * it instead of through {@code toByteArray()}.
+ *
+ * Picture files are left for the app to read, so the directory is pruned
+ * instead: on the first file written by a sink and every {@link #MAX_FILES}
+ * files after that, files older than a day and all but the newest
+ * {@link #MAX_FILES} are deleted.
+ */
+class PictureSink implements CapturePipeline.Sink {
+    private static final String DIRECTORY = "camera-preview";
+    private static final int FILE_BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_BUFFER_SIZE = 64 * 1024;
+    static final int MAX_FILES = 50;
+    static final long MAX_FILE_AGE_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final File directory;
+    private final ByteArrayPool bufferPool;
+    private final AtomicInteger sequence = new AtomicInteger();
+    private volatile int lastEncodedSize;
+
+    PictureSink(File cacheDir, ByteArrayPool bufferPool) {
+        directory = new File(cacheDir, DIRECTORY);
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public OutputStream open(CaptureRequest request) throws IOException {
+        if (request.outputMode == OutputMode.FILE) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            int count = sequence.incrementAndGet();
+            if (count % MAX_FILES == 1) {
+                prune(directory, System.currentTimeMillis());
+            }
+            File file = new File(directory, "picture-" + System.currentTimeMillis() + "-" + count + "." + request.encoder.format.getExtension());
+            return new FileStream(file);
+        }
+        // a quarter of headroom over the last picture covers most scene changes
+        return bufferPool.openStream(Math.max(MIN_BUFFER_SIZE, lastEncodedSize + lastEncodedSize / 4));
+    }
+
+    @Override
+    public Object finish(CaptureRequest request, OutputStream stream) {
+        if (request.outputMode == OutputMode.FILE) {
+            return "file://" + ((FileStream) stream).file.getAbsolutePath();
+        }
+
+        ByteArrayPool.Stream buffer = (ByteArrayPool.Stream) stream;
+        lastEncodedSize = buffer.size();
+        try {
+            if (request.outputMode == OutputMode.ARRAY_BUFFER) {
+                return Arrays.copyOf(buffer.getBuffer(), buffer.size());
+            }
+            return Base64.encodeToString(buffer.getBuffer(), 0, buffer.size(), Base64.NO_WRAP);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Override
+    public void abort(CaptureRequest request, OutputStream stream) {
+        if (stream instanceof FileStream) {
+            //noinspection ResultOfMethodCallIgnored
+            ((FileStream) stream).file.delete();
+        } else if (stream instanceof ByteArrayPool.Stream) {
+            ((ByteArrayPool.Stream) stream).release();
+        }
+    }
+
+    // Deletes pictures older than MAX_FILE_AGE_MILLIS and all but the newest MAX_FILES.
+    static void prune(File directory, long now) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = b.lastModified() - a.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (int i = 0; i < files.length; i++) {
+            if (i >= MAX_FILES || now - files[i].lastModified() > MAX_FILE_AGE_MILLIS) {
+                //noinspection ResultOfMethodCallIgnored
+                files[i].delete();
+            }
+        }
+    }
+
+    private static class FileStream extends BufferedOutputStream {
+        final File file;
+
+        FileStream(File file) throws IOException {
+            super(new FileOutputStream(file), FILE_BUFFER_SIZE);
+            this.file = file;
+        }
+    }
+}
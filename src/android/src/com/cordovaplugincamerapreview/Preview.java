@@ -2,45 +2,78 @@ package com.cordovaplugincamerapreview;
 
 import android.app.Activity;
 import android.content.Context;
-import android.hardware.Camera;
-import android.hardware.Camera.Size;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.graphics.SurfaceTexture;
 import android.util.DisplayMetrics;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
+import android.view.TextureView;
 import android.view.View;
 import android.widget.RelativeLayout;
 import org.apache.cordova.LOG;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import java.io.IOException;
-import java.util.List;
 
-class Preview extends RelativeLayout implements SurfaceHolder.Callback {
+/**
+ * Hosts the camera preview in either a {@link SurfaceView} or, in texture mode,
+ * a {@link TextureView}. A TextureView is composited like any other view, so it
+ * can be moved, scaled and made translucent on the GPU; it always fills this
+ * layout and is fitted to the preview's aspect ratio with a transform matrix
+ * instead of a relayout.
+ */
+class Preview extends RelativeLayout implements SurfaceHolder.Callback, TextureView.SurfaceTextureListener {
+    private final boolean textureMode;
     private final SurfaceView mSurfaceView;
     private final SurfaceHolder mHolder;
+    private final TextureView mTextureView;
+    private final Matrix mTransform = new Matrix();
+    private final RectF mViewRect = new RectF();
+    private final RectF mContentRect = new RectF();
+    private final RectF mBufferRect = new RectF();
     private final String TAG = "Preview";
-    private Camera.Size mPreviewSize;
-    private List<Camera.Size> mSupportedPreviewSizes;
-    private Camera mCamera;
-    private int cameraId;
+    private static final long STOP_PREVIEW_TIMEOUT_MS = 1000;
+    private CameraSize mPreviewSize;
+    private SizeIndex mSupportedPreviewSizes;
+    private CameraController mController;
+    private CameraCapabilities mCapabilities;
     private int displayOrientation;
+    private int displayRotation;
     private int viewWidth;
     private int viewHeight;
 
     Preview(Context context) {
-        super(context);
+        this(context, false);
+    }
 
-        mSurfaceView = new SurfaceView(context);
-        addView(mSurfaceView);
+    Preview(Context context, boolean textureMode) {
+        super(context);
+        this.textureMode = textureMode;
+
+        if (textureMode) {
+            mSurfaceView = null;
+            mHolder = null;
+            mTextureView = new TextureView(context);
+            mTextureView.setSurfaceTextureListener(this);
+            addView(mTextureView);
+        } else {
+            mTextureView = null;
+            mSurfaceView = new SurfaceView(context);
+            addView(mSurfaceView);
+
+            // Install a SurfaceHolder.Callback so we get notified when the
+            // underlying surface is created and destroyed.
+            mHolder = mSurfaceView.getHolder();
+            mHolder.addCallback(this);
+            mHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
+        }
+    }
 
-        // Install a SurfaceHolder.Callback so we get notified when the
-        // underlying surface is created and destroyed.
-        mHolder = mSurfaceView.getHolder();
-        mHolder.addCallback(this);
-        mHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
+    // Only texture mode blends; a SurfaceView ignores view alpha.
+    void setPreviewAlpha(float alpha) {
+        if (mTextureView != null) {
+            mTextureView.setAlpha(alpha);
+        }
     }
 
     @Override
@@ -53,52 +86,60 @@ class Preview extends RelativeLayout implements SurfaceHolder.Callback {
         setMeasuredDimension(viewWidth, viewHeight);
 
         if (mSupportedPreviewSizes != null) {
-            Camera.Parameters parameters = mCamera.getParameters();
-            mPreviewSize = getBestAspectPreviewSize(displayOrientation, viewWidth, viewHeight, parameters, 0.0d);
+            mPreviewSize = getBestAspectPreviewSize(displayOrientation, viewWidth, viewHeight, mSupportedPreviewSizes);
             //mPreviewSize = getOptimalSize(mSupportedPreviewSizes, viewWidth, viewHeight);
         }
     }
 
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
-        if (mSurfaceView !=  null) {
-            int width = right - left;
-            int height = bottom - top;
+        int width = right - left;
+        int height = bottom - top;
 
-            int previewWidth = width;
-            int previewHeight = height;
+        int previewWidth = width;
+        int previewHeight = height;
 
-            if (mPreviewSize != null) {
-                previewWidth = (displayOrientation % 180 == 0) ? mPreviewSize.width : mPreviewSize.height;
-                previewHeight = (displayOrientation % 180 == 0) ? mPreviewSize.height : mPreviewSize.width;
+        if (mPreviewSize != null) {
+            previewWidth = (displayOrientation % 180 == 0) ? mPreviewSize.width : mPreviewSize.height;
+            previewHeight = (displayOrientation % 180 == 0) ? mPreviewSize.height : mPreviewSize.width;
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
                 Log.d(TAG, String.format("onLayout: {previewWidth=%d, previewHeight=%d}", previewWidth, previewHeight));
             }
+        }
 
-            int newRight;
-            int newBottom;
-            int newTop;
-            int newLeft;
-
-            // Center the child SurfaceView within the parent.
-            double ratio = previewWidth / (double) previewHeight;
-
-            if (width / ratio > height) {
-                Log.d(TAG, "center horizontally");
-                double scaledWidth = height * ratio;
-                newTop = 0;
-                newBottom = height;
-                newLeft = (int)Math.round((width - scaledWidth) / 2);
-                newRight = (int)Math.round((width + scaledWidth) / 2);
-            } else {
-                Log.d(TAG, "center vertically");
-                double scaledHeight = width / ratio;
-                newTop = (int)Math.round((height - scaledHeight) / 2);
-                newBottom = (int)Math.round((height + scaledHeight) / 2);
-                newLeft = 0;
-                newRight = width;
-            }
+        int newRight;
+        int newBottom;
+        int newTop;
+        int newLeft;
+
+        // Center the preview within the parent.
+        double ratio = previewWidth / (double) previewHeight;
+
+        if (width / ratio > height) {
+            Log.d(TAG, "center horizontally");
+            double scaledWidth = height * ratio;
+            newTop = 0;
+            newBottom = height;
+            newLeft = (int)Math.round((width - scaledWidth) / 2);
+            newRight = (int)Math.round((width + scaledWidth) / 2);
+        } else {
+            Log.d(TAG, "center vertically");
+            double scaledHeight = width / ratio;
+            newTop = (int)Math.round((height - scaledHeight) / 2);
+            newBottom = (int)Math.round((height + scaledHeight) / 2);
+            newLeft = 0;
+            newRight = width;
+        }
+        if (textureMode) {
+            mTextureView.layout(0, 0, width, height);
+            mViewRect.set(0, 0, width, height);
+            mContentRect.set(newLeft, newTop, newRight, newBottom);
+            updateTextureTransform();
+        } else {
             mSurfaceView.layout(newLeft, newTop, newRight, newBottom);
+        }
 
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
             Log.d(
                     TAG,
                     String.format(
@@ -114,104 +155,149 @@ class Preview extends RelativeLayout implements SurfaceHolder.Callback {
 
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
-        // The Surface has been created, acquire the camera and tell it where
-        // to draw.
-        if (mCamera != null) {
+        // The Surface has been created; the preview starts once its size is known.
+        if (mController != null) {
             mSurfaceView.setWillNotDraw(false);
-
-            try {
-                mCamera.setPreviewDisplay(holder);
-            } catch (IOException exception) {
-                Log.e(TAG, "IOException caused by setPreviewDisplay()", exception);
-            }
         }
     }
 
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         // Surface will be destroyed when we return, so stop the preview.
-        if (mCamera != null) {
-            mCamera.stopPreview();
+        if (mController != null) {
+            mController.stopPreviewAndWait(STOP_PREVIEW_TIMEOUT_MS);
         }
     }
 
     @Override
     public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-        if (mCamera != null) {
-            mCamera.stopPreview();
-
+        if (mController != null) {
             // Now that the size is known, set up the camera parameters and begin
             // the preview.
-            setCameraPreviewSize();
-            setCameraDisplayOrientation();
-            mCamera.startPreview();
+            startCameraPreview();
         }
     }
 
-    void setCamera(Camera camera, int cameraId) {
-        if (mCamera != null) {
-            mCamera.stopPreview();
-            mCamera.release();
+    @Override
+    public void onSurfaceTextureAvailable(SurfaceTexture surface, int width, int height) {
+        if (mController != null) {
+            startCameraPreview();
         }
+    }
 
-        mCamera = camera;
-        this.cameraId = cameraId;
-
-        if (mCamera != null) {
-            mSupportedPreviewSizes = mCamera.getParameters().getSupportedPreviewSizes();
-            setCameraPreviewSize();
-            setCameraDisplayOrientation();
-
-            if (!mHolder.isCreating()) {
-                try {
-                    camera.setPreviewDisplay(mHolder);
-                    camera.startPreview();
-                } catch (IOException exception) {
-                    Log.e(TAG, "IOException caused by setPreviewDisplay()", exception);
-                }
-            }
+    @Override
+    public void onSurfaceTextureSizeChanged(SurfaceTexture surface, int width, int height) {
+        if (mController != null) {
+            startCameraPreview();
         }
     }
 
-    int getDisplayOrientation() {
-        return displayOrientation;
+    @Override
+    public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+        if (mController != null) {
+            mController.stopPreviewAndWait(STOP_PREVIEW_TIMEOUT_MS);
+        }
+        return true;
     }
-    // THIS
-    public static Camera.Size getBestAspectPreviewSize(int displayOrientation,
-                                                       int width,
-                                                       int height,
-                                                       Camera.Parameters parameters,
-                                                       double closeEnough) {
-        double targetRatio=(double)width / height;
-        Camera.Size optimalSize=null;
-        double minDiff=Double.MAX_VALUE;
 
-        if (displayOrientation == 90 || displayOrientation == 270) {
-            targetRatio=(double)height / width;
+    @Override
+    public void onSurfaceTextureUpdated(SurfaceTexture surface) {
+    }
+
+    // The camera is opened and closed by the controller's owner; the preview only starts and stops it.
+    void setCamera(CameraController controller, CameraCapabilities capabilities) {
+        if (controller != null && controller == mController && capabilities == mCapabilities) {
+            // already set up by prepareCamera
+            return;
+        }
+        if (mController != null && controller == null) {
+            mController.stopPreview();
         }
 
-        List<Size> sizes = parameters.getSupportedPreviewSizes();
+        mController = controller;
+        mCapabilities = capabilities;
+        mSupportedPreviewSizes = capabilities != null ? capabilities.previewSizeIndex : null;
 
-        Collections.sort(sizes,
-                Collections.reverseOrder(new SizeComparator()));
+        if (mController != null && isSurfaceReady()) {
+            startCameraPreview();
+        }
+    }
 
-        for (Size size : sizes) {
-            double ratio=(double)size.width / size.height;
+    /**
+     * Queues the preview of a camera whose open is already queued, so it starts
+     * on the camera thread right after the open instead of after a round trip
+     * through onCameraOpened. The current frame stays on screen meanwhile. If
+     * the surface isn't ready the preview starts once it is, as with setCamera.
+     */
+    void prepareCamera(CameraController controller, CameraCapabilities capabilities) {
+        mController = controller;
+        mCapabilities = capabilities;
+        mSupportedPreviewSizes = capabilities.previewSizeIndex;
+
+        if (isSurfaceReady()) {
+            startCameraPreview();
+        }
+    }
 
-            if (Math.abs(ratio - targetRatio) < minDiff) {
-                optimalSize=size;
-                minDiff=Math.abs(ratio - targetRatio);
-            }
+    private boolean isSurfaceReady() {
+        if (textureMode) {
+            return mTextureView.isAvailable();
+        }
+        return !mHolder.isCreating() && mHolder.getSurface().isValid();
+    }
 
-            if (minDiff < closeEnough) {
-                break;
+    private void startCameraPreview() {
+        setCameraDisplayOrientation();
+        setCameraPreviewSize();
+        if (mPreviewSize == null) {
+            return;
+        }
+        if (textureMode) {
+            mController.startPreview(mTextureView.getSurfaceTexture(), mPreviewSize.width, mPreviewSize.height, displayOrientation);
+        } else {
+            mController.startPreview(mHolder, mPreviewSize.width, mPreviewSize.height, displayOrientation);
+        }
+    }
+
+    // Scales the stretched texture into the content rect. Camera2 hands the TextureView
+    // buffers in the device's natural orientation, so those are also turned to the display.
+    private void updateTextureTransform() {
+        boolean rotateBuffer = mController != null && mController.getBackend() instanceof Camera2Backend;
+        float centerX = mContentRect.centerX();
+        float centerY = mContentRect.centerY();
+
+        if (rotateBuffer && (displayRotation == Surface.ROTATION_90 || displayRotation == Surface.ROTATION_270)) {
+            mBufferRect.set(0, 0, mContentRect.height(), mContentRect.width());
+            mBufferRect.offset(centerX - mBufferRect.centerX(), centerY - mBufferRect.centerY());
+            mTransform.setRectToRect(mViewRect, mBufferRect, Matrix.ScaleToFit.FILL);
+            mTransform.postRotate(90 * (displayRotation - 2), centerX, centerY);
+        } else {
+            mTransform.setRectToRect(mViewRect, mContentRect, Matrix.ScaleToFit.FILL);
+            if (rotateBuffer && displayRotation == Surface.ROTATION_180) {
+                mTransform.postRotate(180, centerX, centerY);
             }
         }
+        mTextureView.setTransform(mTransform);
+    }
+
+    int getDisplayOrientation() {
+        return displayOrientation;
+    }
+    // THIS
+    public static CameraSize getBestAspectPreviewSize(int displayOrientation,
+                                                      int width,
+                                                      int height,
+                                                      SizeIndex sizes) {
+        double targetRatio=(double)width / height;
+
+        if (displayOrientation == 90 || displayOrientation == 270) {
+            targetRatio=(double)height / width;
+        }
 
-        return(optimalSize);
+        return sizes.largestClosestRatio(targetRatio);
     }
 
-    Camera.Size getOptimalSize(List<Camera.Size> sizes, int targetWidth, int targetHeight) {
+    CameraSize getOptimalSize(SizeIndex sizes, int targetWidth, int targetHeight) {
         final double ASPECT_TOLERANCE = 0.1;
         double targetRatio = (double) targetWidth / targetHeight;
         if (displayOrientation == 90 || displayOrientation == 270) {
@@ -219,32 +305,11 @@ class Preview extends RelativeLayout implements SurfaceHolder.Callback {
         }
         if (sizes == null) return null;
 
-        Camera.Size optimalSize = null;
-        double minDiff = Double.MAX_VALUE;
-
-        // Try to find an size match aspect ratio and size
-        for (Camera.Size size : sizes) {
-            double ratio = (double) size.width / size.height;
-            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
-            if (Math.abs(size.height - targetHeight) < minDiff) {
-                optimalSize = size;
-                minDiff = Math.abs(size.height - targetHeight);
-            }
-        }
-
-        // Cannot find the one match the aspect ratio, ignore the requirement
-        if (optimalSize == null) {
-            minDiff = Double.MAX_VALUE;
-            for (Camera.Size size : sizes) {
-                if (Math.abs(size.height - targetHeight) < minDiff) {
-                    optimalSize = size;
-                    minDiff = Math.abs(size.height - targetHeight);
-                }
-            }
-        }
+        // Try to find an size match aspect ratio and size, otherwise ignore the ratio
+        CameraSize optimalSize = sizes.closestHeight(targetRatio, ASPECT_TOLERANCE, targetHeight);
 
         // OptimalSize should never be null (but this stops editors from complaining)
-        if (optimalSize != null) {
+        if (optimalSize != null && Log.isLoggable(TAG, Log.DEBUG)) {
             Log.d(TAG, String.format("getOptimalSize: {width=%d, height=%d}", optimalSize.width, optimalSize.height));
         }
 
@@ -254,23 +319,19 @@ class Preview extends RelativeLayout implements SurfaceHolder.Callback {
     private void setCameraPreviewSize() {
         if (mSupportedPreviewSizes != null) {
             //mPreviewSize = getOptimalSize(mSupportedPreviewSizes, viewWidth, viewHeight);
-            Camera.Parameters parameters = mCamera.getParameters();
-            mPreviewSize = getBestAspectPreviewSize(displayOrientation, viewWidth, viewHeight, parameters, 0.0d);
-            if (mPreviewSize != null) {
-                parameters.setPreviewSize(mPreviewSize.width, mPreviewSize.height);
-                mCamera.setParameters(parameters);
-            }
+            mPreviewSize = getBestAspectPreviewSize(displayOrientation, viewWidth, viewHeight, mSupportedPreviewSizes);
             requestLayout();
         }
     }
 
     private void setCameraDisplayOrientation() {
-        Camera.CameraInfo info = new Camera.CameraInfo();
+        boolean frontFacing = mCapabilities.frontFacing;
+        int sensorOrientation = mCapabilities.sensorOrientation;
         int rotation = ((Activity) getContext()).getWindowManager().getDefaultDisplay().getRotation();
+        displayRotation = rotation;
         int degrees = 0;
         DisplayMetrics dm = new DisplayMetrics();
 
-        Camera.getCameraInfo(cameraId, info);
         ((Activity) getContext()).getWindowManager().getDefaultDisplay().getMetrics(dm);
 
         switch (rotation) {
@@ -288,43 +349,25 @@ class Preview extends RelativeLayout implements SurfaceHolder.Callback {
                 break;
         }
 
-        if (info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-            displayOrientation = (info.orientation + degrees) % 360;
+        if (frontFacing) {
+            displayOrientation = (sensorOrientation + degrees) % 360;
             displayOrientation = (360 - displayOrientation) % 360;
         } else {
-            displayOrientation = (info.orientation - degrees + 360) % 360;
+            displayOrientation = (sensorOrientation - degrees + 360) % 360;
         }
 
-        Log.d(
-                TAG,
-                String.format(
-                        "setCameraDisplayOrientation: {rotation=%d deg, facing=%s, orientation=%d deg, displayOrientation=%d deg}",
-                        degrees,
-                        info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT ? "front" : "back",
-                        info.orientation,
-                        displayOrientation
-                )
-        );
-        mCamera.setDisplayOrientation(displayOrientation);
-        requestLayout();
-    }
-
-    private static class SizeComparator implements
-            Comparator<Camera.Size> {
-        @Override
-        public int compare(Size lhs, Size rhs) {
-            int left=lhs.width * lhs.height;
-            int right=rhs.width * rhs.height;
-
-            if (left < right) {
-                return(-1);
-            }
-            else if (left > right) {
-                return(1);
-            }
-
-            return(0);
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(
+                    TAG,
+                    String.format(
+                            "setCameraDisplayOrientation: {rotation=%d deg, facing=%s, orientation=%d deg, displayOrientation=%d deg}",
+                            degrees,
+                            frontFacing ? "front" : "back",
+                            sensorOrientation,
+                            displayOrientation
+                    )
+            );
         }
+        requestLayout();
     }
 }
-
@@ -0,0 +1,114 @@
+package com.cordovaplugincamerapreview;
+
+import android.graphics.ImageFormat;
+import android.util.Log;
+
+/**
+ * Fans preview frames out to registered {@link FrameConsumer}s. The camera
+ * backend owns the frame source and fills buffers from the fixed pool kept
+ * here; the pool is allocated once per preview size and reused for every
+ * frame, so the steady state allocates nothing. Backends are told through
+ * {@link Source} when the first consumer arrives or the last one leaves, so
+ * frame delivery can be switched off entirely while nobody listens.
+ */
+class PreviewFrameDispatcher {
+    private static final String TAG = "PreviewFrameDispatcher";
+    static final int BUFFER_COUNT = 3;
+    private static final FrameConsumer[] NO_CONSUMERS = new FrameConsumer[0];
+
+    interface Source {
+        void onFrameConsumersChanged(boolean active);
+    }
+
+    private final Object lock = new Object();
+    private volatile FrameConsumer[] consumers = NO_CONSUMERS;
+    private volatile Source source;
+    private int bufferSize;
+    private byte[][] buffers;
+
+    void addConsumer(FrameConsumer consumer) {
+        synchronized (lock) {
+            for (FrameConsumer existing : consumers) {
+                if (existing == consumer) {
+                    return;
+                }
+            }
+            FrameConsumer[] updated = new FrameConsumer[consumers.length + 1];
+            System.arraycopy(consumers, 0, updated, 0, consumers.length);
+            updated[consumers.length] = consumer;
+            consumers = updated;
+
+            if (updated.length == 1) {
+                notifySource(true);
+            }
+        }
+    }
+
+    void removeConsumer(FrameConsumer consumer) {
+        synchronized (lock) {
+            int index = -1;
+            for (int i = 0; i < consumers.length; i++) {
+                if (consumers[i] == consumer) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            FrameConsumer[] updated = new FrameConsumer[consumers.length - 1];
+            System.arraycopy(consumers, 0, updated, 0, index);
+            System.arraycopy(consumers, index + 1, updated, index, updated.length - index);
+            consumers = updated.length == 0 ? NO_CONSUMERS : updated;
+
+            if (updated.length == 0) {
+                notifySource(false);
+            }
+        }
+    }
+
+    void setSource(Source source) {
+        this.source = source;
+    }
+
+    boolean isActive() {
+        return consumers.length > 0;
+    }
+
+    static int getFrameSize(int width, int height) {
+        return width * height * ImageFormat.getBitsPerPixel(ImageFormat.NV21) / 8;
+    }
+
+    /**
+     * Returns the NV21 buffer pool for the given preview size, reallocating it
+     * only when the size changes.
+     */
+    byte[][] getBuffers(int width, int height) {
+        synchronized (lock) {
+            int size = getFrameSize(width, height);
+            if (buffers == null || size != bufferSize) {
+                bufferSize = size;
+                buffers = new byte[BUFFER_COUNT][size];
+                Log.d(TAG, "Allocated " + BUFFER_COUNT + " frame buffers for " + width + "x" + height);
+            }
+            return buffers;
+        }
+    }
+
+    void dispatch(byte[] nv21, int width, int height, long timestampNanos) {
+        for (FrameConsumer consumer : consumers) {
+            try {
+                consumer.onFrame(nv21, width, height, timestampNanos);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Frame consumer failed", e);
+            }
+        }
+    }
+
+    private void notifySource(boolean active) {
+        Source current = source;
+        if (current != null) {
+            current.onFrameConsumersChanged(active);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.cordovaplugincamerapreview;
+
+import java.util.Arrays;
+
+/**
+ * Keeps copies of the last K preview frames in preallocated NV21 buffers for
+ * zero shutter lag capture. A frame handed out by {@link #acquireClosest} is
+ * pinned and not overwritten until it is released; incoming frames go to the
+ * next unpinned slot instead, or are skipped if every slot is pinned. Frames
+ * more than {@link #MAX_AGE_FRAMES} frame intervals older than the request are
+ * not handed out, so a stalled or paused preview falls back to the shutter.
+ */
+class PreviewRingBuffer implements FrameConsumer {
+    static final int DEFAULT_CAPACITY = 4;
+    static final int MAX_AGE_FRAMES = 2;
+
+    static final class Frame {
+        final byte[] data;
+        final int width;
+        final int height;
+        final long timestampNanos;
+        private final int slot;
+
+        private Frame(byte[] data, int width, int height, long timestampNanos, int slot) {
+            this.data = data;
+            this.width = width;
+            this.height = height;
+            this.timestampNanos = timestampNanos;
+            this.slot = slot;
+        }
+    }
+
+    private final int capacity;
+    private byte[][] slots;
+    private final long[] timestamps;
+    private final boolean[] written;
+    private final int[] pinCount;
+    private int width;
+    private int height;
+    private int next;
+    private long lastTimestampNanos;
+    private long frameIntervalNanos;
+
+    PreviewRingBuffer(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.timestamps = new long[this.capacity];
+        this.written = new boolean[this.capacity];
+        this.pinCount = new int[this.capacity];
+    }
+
+    @Override
+    public synchronized void onFrame(byte[] nv21, int width, int height, long timestampNanos) {
+        if (slots == null || width != this.width || height != this.height) {
+            if (isPinned()) {
+                // a capture still reads buffers of the old size
+                return;
+            }
+            this.width = width;
+            this.height = height;
+            slots = new byte[capacity][nv21.length];
+            clear();
+        }
+        if (lastTimestampNanos != 0 && timestampNanos > lastTimestampNanos) {
+            frameIntervalNanos = timestampNanos - lastTimestampNanos;
+        }
+        lastTimestampNanos = timestampNanos;
+
+        int slot = next;
+        for (int i = 0; i < capacity && pinCount[slot] > 0; i++) {
+            slot = (slot + 1) % capacity;
+        }
+        if (pinCount[slot] > 0) {
+            return;
+        }
+
+        System.arraycopy(nv21, 0, slots[slot], 0, Math.min(nv21.length, slots[slot].length));
+        timestamps[slot] = timestampNanos;
+        written[slot] = true;
+        next = (slot + 1) % capacity;
+    }
+
+    /**
+     * Pins and returns the buffered frame whose timestamp is closest to
+     * {@code timestampNanos}, or null if there is none recent enough or the
+     * frame rate is not known yet.
+     */
+    synchronized Frame acquireClosest(long timestampNanos) {
+        if (frameIntervalNanos == 0) {
+            return null;
+        }
+
+        int best = -1;
+        long bestDiff = Long.MAX_VALUE;
+        for (int i = 0; i < capacity; i++) {
+            if (!written[i]) {
+                continue;
+            }
+            long diff = Math.abs(timestamps[i] - timestampNanos);
+            if (diff < bestDiff) {
+                best = i;
+                bestDiff = diff;
+            }
+        }
+
+        if (best < 0 || timestampNanos - timestamps[best] > MAX_AGE_FRAMES * frameIntervalNanos) {
+            return null;
+        }
+        pinCount[best]++;
+        return new Frame(slots[best], width, height, timestamps[best], best);
+    }
+
+    synchronized void release(Frame frame) {
+        if (slots != null && slots[frame.slot] == frame.data && pinCount[frame.slot] > 0) {
+            pinCount[frame.slot]--;
+        }
+    }
+
+    // Forgets the buffered frames; pinned ones stay valid until released.
+    synchronized void clear() {
+        Arrays.fill(written, false);
+        next = 0;
+        lastTimestampNanos = 0;
+        frameIntervalNanos = 0;
+    }
+
+    private boolean isPinned() {
+        for (int count : pinCount) {
+            if (count > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,99 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Picks the sharpest preview frame seen during a time window. Every frame in
+ * the window is scored in place with {@link SharpnessAnalyzer#laplacianVariance}
+ * and only a new best is copied, into a buffer that is kept across windows, so
+ * scoring allocates nothing per frame. The selected frame stays pinned until
+ * {@link #release()}; a new window can't start before that.
+ */
+class SharpFrameSelector implements FrameConsumer {
+    // every STEP-th pixel in both directions is scored
+    private static final int STEP = 2;
+
+    interface Listener {
+        // Called on the thread that closed the window; release() hands the frame back.
+        void onFrameSelected(byte[] nv21, int width, int height, long timestampNanos, double score, int scored);
+
+        void onNoFrame();
+    }
+
+    private byte[] best;
+    private int width;
+    private int height;
+    private long bestTimestamp;
+    private double bestScore;
+    private int scored;
+    private long windowEnd;
+    private Listener listener;
+    private boolean pinned;
+
+    // False while a window is open or the previous selection hasn't been released.
+    synchronized boolean start(long windowNanos, Listener listener) {
+        if (this.listener != null || pinned) {
+            return false;
+        }
+        this.listener = listener;
+        windowEnd = System.nanoTime() + windowNanos;
+        bestScore = -1;
+        scored = 0;
+        return true;
+    }
+
+    synchronized boolean isActive() {
+        return listener != null;
+    }
+
+    @Override
+    public void onFrame(byte[] nv21, int width, int height, long timestampNanos) {
+        synchronized (this) {
+            if (listener == null) {
+                return;
+            }
+            if (timestampNanos <= windowEnd) {
+                double score = SharpnessAnalyzer.laplacianVariance(nv21, width, height, STEP);
+                scored++;
+                if (score > bestScore) {
+                    if (best == null || best.length < nv21.length) {
+                        best = new byte[nv21.length];
+                    }
+                    System.arraycopy(nv21, 0, best, 0, nv21.length);
+                    this.width = width;
+                    this.height = height;
+                    bestTimestamp = timestampNanos;
+                    bestScore = score;
+                }
+                return;
+            }
+        }
+        finish();
+    }
+
+    // Closes the window early, or after the preview stopped delivering frames.
+    void finish() {
+        Listener done;
+        boolean found;
+        synchronized (this) {
+            done = listener;
+            if (done == null) {
+                return;
+            }
+            listener = null;
+            found = bestScore >= 0;
+            pinned = found;
+        }
+        if (found) {
+            done.onFrameSelected(best, width, height, bestTimestamp, bestScore, scored);
+        } else {
+            done.onNoFrame();
+        }
+    }
+
+    synchronized void release() {
+        pinned = false;
+    }
+
+    synchronized void cancel() {
+        listener = null;
+    }
+}
@@ -0,0 +1,58 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Focus score of the frame: the variance of the Laplacian of the luma plane.
+ * Sharp edges give large second derivatives, so the variance drops when the
+ * picture is blurred by defocus or motion. The result is {@code [variance]}.
+ */
+class SharpnessAnalyzer implements FrameAnalyzer {
+    static final String NAME = "sharpness";
+    // every STEP-th pixel in both directions is scored
+    private static final int STEP = 2;
+
+    private final float[] result = new float[1];
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public float[] analyze(byte[] nv21, int width, int height, long timestampNanos) {
+        result[0] = (float) laplacianVariance(nv21, width, height, STEP);
+        return result;
+    }
+
+    @Override
+    public void reset() {
+    }
+
+    /**
+     * Variance of the 4-neighbour Laplacian over the Y plane, sampled at every
+     * {@code step}-th pixel of each {@code step}-th row, borders excluded.
+     */
+    static double laplacianVariance(byte[] nv21, int width, int height, int step) {
+        double sum = 0;
+        double sumOfSquares = 0;
+        long count = 0;
+        for (int y = 1; y < height - 1; y += step) {
+            int row = y * width;
+            for (int x = 1; x < width - 1; x += step) {
+                int i = row + x;
+                int laplacian = 4 * (nv21[i] & 0xFF)
+                        - (nv21[i - 1] & 0xFF)
+                        - (nv21[i + 1] & 0xFF)
+                        - (nv21[i - width] & 0xFF)
+                        - (nv21[i + width] & 0xFF);
+                sum += laplacian;
+                sumOfSquares += laplacian * laplacian;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return 0;
+        }
+        double mean = sum / count;
+        return sumOfSquares / count - mean * mean;
+    }
+}
@@ -0,0 +1,182 @@
+package com.cordovaplugincamerapreview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable lookup structure over a camera's supported sizes. Sizes are
+ * bucketed by aspect ratio, buckets are sorted by ratio and each bucket by
+ * area, so the queries below are binary searches instead of sorting and
+ * scanning the camera's list on every layout pass or capture.
+ *
+ * Within one bucket every size has the same ratio, so ordering by area is
+ * also ordering by width and by height.
+ */
+final class SizeIndex {
+    // sizes whose ratios differ by less than this share a bucket
+    private static final double RATIO_EPSILON = 0.001d;
+
+    private final double[] ratios;
+    private final CameraSize[][] buckets;
+    private final CameraSize[] byHeight;
+
+    SizeIndex(List<CameraSize> sizes) {
+        CameraSize[] sorted = sizes.toArray(new CameraSize[sizes.size()]);
+        Arrays.sort(sorted, new Comparator<CameraSize>() {
+            @Override
+            public int compare(CameraSize lhs, CameraSize rhs) {
+                int byRatio = Double.compare(lhs.ratio(), rhs.ratio());
+                return byRatio != 0 ? byRatio : compareInts(lhs.area(), rhs.area());
+            }
+        });
+
+        List<Double> bucketRatios = new ArrayList<Double>();
+        List<CameraSize[]> bucketList = new ArrayList<CameraSize[]>();
+        int start = 0;
+        for (int i = 1; i <= sorted.length; i++) {
+            if (i == sorted.length || sorted[i].ratio() - sorted[start].ratio() >= RATIO_EPSILON) {
+                CameraSize[] bucket = Arrays.copyOfRange(sorted, start, i);
+                // nearly equal ratios may interleave areas, restore the area order
+                Arrays.sort(bucket, AREA_ORDER);
+                bucketRatios.add(sorted[start].ratio());
+                bucketList.add(bucket);
+                start = i;
+            }
+        }
+
+        ratios = new double[bucketRatios.size()];
+        for (int i = 0; i < ratios.length; i++) {
+            ratios[i] = bucketRatios.get(i);
+        }
+        buckets = bucketList.toArray(new CameraSize[bucketList.size()][]);
+
+        byHeight = sizes.toArray(new CameraSize[sizes.size()]);
+        Arrays.sort(byHeight, new Comparator<CameraSize>() {
+            @Override
+            public int compare(CameraSize lhs, CameraSize rhs) {
+                int result = compareInts(lhs.height, rhs.height);
+                return result != 0 ? result : compareInts(lhs.area(), rhs.area());
+            }
+        });
+    }
+
+    boolean isEmpty() {
+        return byHeight.length == 0;
+    }
+
+    /**
+     * The largest size among those whose ratio is closest to {@code targetRatio}.
+     * Returns null for an empty index.
+     */
+    CameraSize largestClosestRatio(double targetRatio) {
+        int bucket = closestBucket(targetRatio);
+        if (bucket < 0) {
+            return null;
+        }
+        CameraSize[] sizes = buckets[bucket];
+        return sizes[sizes.length - 1];
+    }
+
+    /**
+     * The size whose height is closest to {@code targetHeight} among sizes within
+     * {@code tolerance} of {@code targetRatio}, or among all sizes when none is.
+     * Ties go to the taller size. Returns null for an empty index.
+     */
+    CameraSize closestHeight(double targetRatio, double tolerance, int targetHeight) {
+        CameraSize best = null;
+        int first = lowerBound(targetRatio - tolerance);
+        for (int i = first; i < ratios.length && ratios[i] <= targetRatio + tolerance; i++) {
+            best = closerHeight(best, closestHeight(buckets[i], targetHeight), targetHeight);
+        }
+        if (best == null) {
+            best = closestHeight(byHeight, targetHeight);
+        }
+        return best;
+    }
+
+    private int closestBucket(double targetRatio) {
+        if (ratios.length == 0) {
+            return -1;
+        }
+        int upper = lowerBound(targetRatio);
+        if (upper == ratios.length) {
+            return ratios.length - 1;
+        }
+        if (upper == 0) {
+            return 0;
+        }
+        int lower = upper - 1;
+        double lowerDiff = targetRatio - ratios[lower];
+        double upperDiff = ratios[upper] - targetRatio;
+        if (lowerDiff != upperDiff) {
+            return lowerDiff < upperDiff ? lower : upper;
+        }
+        // equally close, prefer the bucket with the larger size
+        CameraSize[] lowerSizes = buckets[lower];
+        CameraSize[] upperSizes = buckets[upper];
+        return lowerSizes[lowerSizes.length - 1].area() >= upperSizes[upperSizes.length - 1].area() ? lower : upper;
+    }
+
+    // index of the first bucket with a ratio >= value
+    private int lowerBound(double value) {
+        int low = 0;
+        int high = ratios.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ratios[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // sizes must be sorted by height
+    private static CameraSize closestHeight(CameraSize[] sizes, int targetHeight) {
+        if (sizes.length == 0) {
+            return null;
+        }
+        int low = 0;
+        int high = sizes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sizes[mid].height < targetHeight) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        CameraSize above = low < sizes.length ? sizes[low] : null;
+        CameraSize below = low > 0 ? sizes[low - 1] : null;
+        return closerHeight(below, above, targetHeight);
+    }
+
+    private static CameraSize closerHeight(CameraSize a, CameraSize b, int targetHeight) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        int diffA = Math.abs(a.height - targetHeight);
+        int diffB = Math.abs(b.height - targetHeight);
+        if (diffA != diffB) {
+            return diffA < diffB ? a : b;
+        }
+        return a.height >= b.height ? a : b;
+    }
+
+    private static int compareInts(int lhs, int rhs) {
+        return lhs < rhs ? -1 : (lhs == rhs ? 0 : 1);
+    }
+
+    private static final Comparator<CameraSize> AREA_ORDER = new Comparator<CameraSize>() {
+        @Override
+        public int compare(CameraSize lhs, CameraSize rhs) {
+            return compareInts(lhs.area(), rhs.area());
+        }
+    };
+}
@@ -0,0 +1,74 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Downscales NV21 frames to small ARGB thumbnails by integer box averaging.
+ */
+final class ThumbnailScaler {
+
+    private ThumbnailScaler() {
+    }
+
+    // Source coordinate where each output pixel's box starts, plus the end of the last box.
+    static int[] edges(int size, int outSize) {
+        int[] edges = new int[outSize + 1];
+        for (int i = 0; i <= outSize; i++) {
+            edges[i] = (int) ((long) i * size / outSize);
+        }
+        return edges;
+    }
+
+    /**
+     * Averages the luma and chroma samples under each output pixel's box and
+     * writes the result as opaque ARGB. Chroma boxes cover every 2x2 subsampled
+     * VU sample that overlaps the same area, including a half-covered one at
+     * an odd box end.
+     */
+    static void boxFilter(byte[] nv21, int width, int height, int outWidth, int outHeight, int[] xEdges, int[] yEdges, int[] argb) {
+        int chromaStart = width * height;
+        int out = 0;
+        for (int oy = 0; oy < outHeight; oy++) {
+            int y0 = yEdges[oy];
+            int y1 = Math.max(y0 + 1, yEdges[oy + 1]);
+            int cy0 = y0 >> 1;
+            int cy1 = Math.max(cy0 + 1, (y1 + 1) >> 1);
+            for (int ox = 0; ox < outWidth; ox++) {
+                int x0 = xEdges[ox];
+                int x1 = Math.max(x0 + 1, xEdges[ox + 1]);
+
+                int sumY = 0;
+                for (int y = y0; y < y1; y++) {
+                    int row = y * width;
+                    for (int x = x0; x < x1; x++) {
+                        sumY += nv21[row + x] & 0xFF;
+                    }
+                }
+                int luma = sumY / ((y1 - y0) * (x1 - x0));
+
+                int cx0 = x0 >> 1;
+                int cx1 = Math.max(cx0 + 1, (x1 + 1) >> 1);
+                int sumV = 0;
+                int sumU = 0;
+                for (int cy = cy0; cy < cy1; cy++) {
+                    int row = chromaStart + cy * width;
+                    for (int cx = cx0; cx < cx1; cx++) {
+                        sumV += nv21[row + 2 * cx] & 0xFF;
+                        sumU += nv21[row + 2 * cx + 1] & 0xFF;
+                    }
+                }
+                int chromaCount = (cy1 - cy0) * (cx1 - cx0);
+                int v = sumV / chromaCount - 128;
+                int u = sumU / chromaCount - 128;
+
+                // full range BT.601, coefficients scaled by 256
+                int r = clamp(luma + ((359 * v) >> 8));
+                int g = clamp(luma - ((88 * u + 183 * v) >> 8));
+                int b = clamp(luma + ((454 * u) >> 8));
+                argb[out++] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
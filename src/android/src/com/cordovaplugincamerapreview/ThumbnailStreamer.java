@@ -0,0 +1,142 @@
+package com.cordovaplugincamerapreview;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams small color thumbnails of the preview to JavaScript. Each thumbnail
+ * is scaled straight from the camera buffer by {@link ThumbnailScaler}, so no
+ * full-size bitmap is ever created; it is sent as packed RGB bytes or encoded
+ * as a JPEG.
+ *
+ * Only one thumbnail is on the bridge at a time: the next one is made from
+ * the first frame after JavaScript acknowledges the previous one, so a slow
+ * WebView gets fewer, fresh thumbnails instead of a backlog.
+ */
+class ThumbnailStreamer implements FrameConsumer {
+    private static final String TAG = "ThumbnailStreamer";
+    static final int DEFAULT_FPS = 2;
+    static final int DEFAULT_WIDTH = 160;
+    static final int DEFAULT_HEIGHT = 120;
+    static final int DEFAULT_QUALITY = 70;
+    // resume if JavaScript never acknowledges a thumbnail, e.g. after a reload
+    private static final long ACK_TIMEOUT_NANOS = 2000000000L;
+
+    private final CallbackContext callbackContext;
+    private final long minIntervalNanos;
+    private final int maxWidth;
+    private final int maxHeight;
+    private final boolean jpeg;
+    private final int quality;
+    private final ByteArrayOutputStream jpegOutput = new ByteArrayOutputStream();
+    private volatile boolean awaitingAck;
+    private long lastFrameNanos;
+    private int sequence;
+    private int coalesced;
+
+    // per frame size
+    private int frameWidth;
+    private int frameHeight;
+    private int outWidth;
+    private int outHeight;
+    private int[] xEdges;
+    private int[] yEdges;
+    private int[] pixels;
+    private byte[] rgb;
+    private Bitmap bitmap;
+
+    ThumbnailStreamer(CallbackContext callbackContext, int fps, int maxWidth, int maxHeight, boolean jpeg, int quality) {
+        this.callbackContext = callbackContext;
+        this.minIntervalNanos = 1000000000L / Math.max(1, fps);
+        this.maxWidth = Math.max(1, maxWidth);
+        this.maxHeight = Math.max(1, maxHeight);
+        this.jpeg = jpeg;
+        this.quality = Math.max(1, Math.min(100, quality));
+    }
+
+    void acknowledge() {
+        awaitingAck = false;
+    }
+
+    // Thumbnails skipped because the previous one had not been acknowledged yet.
+    int getCoalesced() {
+        return coalesced;
+    }
+
+    @Override
+    public void onFrame(byte[] nv21, int width, int height, long timestampNanos) {
+        if (lastFrameNanos != 0 && timestampNanos - lastFrameNanos < minIntervalNanos) {
+            return;
+        }
+        if (awaitingAck && timestampNanos - lastFrameNanos < ACK_TIMEOUT_NANOS) {
+            coalesced++;
+            return;
+        }
+        lastFrameNanos = timestampNanos;
+
+        if (width != frameWidth || height != frameHeight) {
+            resize(width, height);
+        }
+        ThumbnailScaler.boxFilter(nv21, width, height, outWidth, outHeight, xEdges, yEdges, pixels);
+
+        PluginResult data;
+        if (jpeg) {
+            bitmap.setPixels(pixels, 0, outWidth, 0, 0, outWidth, outHeight);
+            jpegOutput.reset();
+            try {
+                BitmapPictureProcessor.compress(bitmap, EncoderOptions.Format.JPEG, quality, jpegOutput);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not encode thumbnail", e);
+                return;
+            }
+            data = new PluginResult(PluginResult.Status.OK, jpegOutput.toByteArray());
+        } else {
+            for (int i = 0, j = 0; i < pixels.length; i++) {
+                int pixel = pixels[i];
+                rgb[j++] = (byte) (pixel >> 16);
+                rgb[j++] = (byte) (pixel >> 8);
+                rgb[j++] = (byte) pixel;
+            }
+            // PluginResult encodes the bytes right away, so the buffer can be reused.
+            data = new PluginResult(PluginResult.Status.OK, rgb);
+        }
+
+        awaitingAck = true;
+        List<PluginResult> parts = new ArrayList<PluginResult>(4);
+        parts.add(data);
+        parts.add(new PluginResult(PluginResult.Status.OK, outWidth));
+        parts.add(new PluginResult(PluginResult.Status.OK, outHeight));
+        parts.add(new PluginResult(PluginResult.Status.OK, sequence++));
+        PluginResult result = new PluginResult(PluginResult.Status.OK, parts);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    // Fits the thumbnail into maxWidth x maxHeight at the frame's aspect ratio, never upscaling.
+    private void resize(int width, int height) {
+        double scale = Math.min(1d, Math.min(maxWidth / (double) width, maxHeight / (double) height));
+        frameWidth = width;
+        frameHeight = height;
+        outWidth = Math.max(1, (int) Math.round(width * scale));
+        outHeight = Math.max(1, (int) Math.round(height * scale));
+        xEdges = ThumbnailScaler.edges(width, outWidth);
+        yEdges = ThumbnailScaler.edges(height, outHeight);
+        pixels = new int[outWidth * outHeight];
+        if (jpeg) {
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            bitmap = Bitmap.createBitmap(outWidth, outHeight, Bitmap.Config.ARGB_8888);
+        } else {
+            rgb = new byte[pixels.length * 3];
+        }
+    }
+}
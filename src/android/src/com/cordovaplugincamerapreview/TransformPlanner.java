@@ -0,0 +1,140 @@
+package com.cordovaplugincamerapreview;
+
+/**
+ * Works out the geometry of a capture up front so the picture can be produced
+ * with a single region decode and a single matrix transform. The rules are the
+ * same as the old rotate, crop-to-view, scale-to-max sequence: the picture is
+ * rotated to the display orientation, center-cropped to the aspect ratio of the
+ * preview view and scaled down (never up) to fit maxWidth x maxHeight, with the
+ * max dimensions swapped to match the picture orientation.
+ */
+final class TransformPlanner {
+    private static final double RATIO_TOLERANCE = 0.0000001d;
+
+    static final class Plan {
+        // crop rectangle in source (sensor) coordinates
+        final int cropLeft;
+        final int cropTop;
+        final int cropWidth;
+        final int cropHeight;
+        final int rotation;
+        final boolean mirror;
+        final int sampleSize;
+        // final picture size, after rotation
+        final int outputWidth;
+        final int outputHeight;
+
+        Plan(int cropLeft, int cropTop, int cropWidth, int cropHeight, int rotation, boolean mirror, int sampleSize, int outputWidth, int outputHeight) {
+            this.cropLeft = cropLeft;
+            this.cropTop = cropTop;
+            this.cropWidth = cropWidth;
+            this.cropHeight = cropHeight;
+            this.rotation = rotation;
+            this.mirror = mirror;
+            this.sampleSize = sampleSize;
+            this.outputWidth = outputWidth;
+            this.outputHeight = outputHeight;
+        }
+
+        boolean isRotated() {
+            return rotation % 180 != 0;
+        }
+
+        // output size expressed in source orientation, i.e. before rotating
+        int getUnrotatedOutputWidth() {
+            return isRotated() ? outputHeight : outputWidth;
+        }
+
+        int getUnrotatedOutputHeight() {
+            return isRotated() ? outputWidth : outputHeight;
+        }
+
+        // Nothing but rotation and mirroring, which EXIF orientation can express.
+        boolean isLossless(int sourceWidth, int sourceHeight) {
+            return cropWidth == sourceWidth && cropHeight == sourceHeight
+                    && getUnrotatedOutputWidth() == sourceWidth && getUnrotatedOutputHeight() == sourceHeight;
+        }
+
+        @Override
+        public String toString() {
+            return "Plan{crop=" + cropLeft + "," + cropTop + " " + cropWidth + "x" + cropHeight
+                    + ", rotation=" + rotation + ", mirror=" + mirror + ", sampleSize=" + sampleSize
+                    + ", output=" + outputWidth + "x" + outputHeight + "}";
+        }
+    }
+
+    private TransformPlanner() {
+    }
+
+    static Plan plan(int sourceWidth, int sourceHeight, int displayOrientation, boolean mirror,
+                     int viewWidth, int viewHeight, int maxWidth, int maxHeight) {
+        int rotation = ((displayOrientation % 360) + 360) % 360;
+        boolean rotated = rotation % 180 != 0;
+
+        // rotate to screen orientation
+        int pictureWidth = rotated ? sourceHeight : sourceWidth;
+        int pictureHeight = rotated ? sourceWidth : sourceHeight;
+        double pictureRatio = pictureWidth / (double) pictureHeight;
+
+        // crop to match view
+        if (viewWidth > 0 && viewHeight > 0) {
+            double viewRatio = viewWidth / (double) viewHeight;
+
+            if (Math.abs(pictureRatio - viewRatio) > RATIO_TOLERANCE) {
+                if (pictureWidth / viewRatio > pictureHeight) {
+                    pictureWidth = (int) Math.round(pictureHeight * viewRatio);
+                } else {
+                    pictureHeight = (int) Math.round(pictureWidth / viewRatio);
+                }
+                pictureRatio = pictureWidth / (double) pictureHeight;
+            }
+        }
+
+        int cropWidth = rotated ? pictureHeight : pictureWidth;
+        int cropHeight = rotated ? pictureWidth : pictureHeight;
+        int cropLeft = (sourceWidth - cropWidth) / 2;
+        int cropTop = (sourceHeight - cropHeight) / 2;
+
+        // scale to fit within bounds
+        int outputWidth = pictureWidth;
+        int outputHeight = pictureHeight;
+
+        if (maxWidth > 0 || maxHeight > 0) {
+            int width = maxWidth > 0 ? maxWidth : Integer.MAX_VALUE;
+            int height = maxHeight > 0 ? maxHeight : Integer.MAX_VALUE;
+
+            // swap max dimension to match image orientation
+            if ((pictureWidth < pictureHeight && width > height) || (pictureWidth > pictureHeight && width < height)) {
+                int tmp = width;
+                //noinspection SuspiciousNameCombination
+                width = height;
+                height = tmp;
+            }
+
+            // scale image if it exceeds the requested size
+            if (pictureWidth > width || pictureHeight > height) {
+                if (width / pictureRatio > height) {
+                    width = (int) Math.round(height * pictureRatio);
+                } else {
+                    height = (int) Math.round(width / pictureRatio);
+                }
+                outputWidth = Math.max(1, width);
+                outputHeight = Math.max(1, height);
+            }
+        }
+
+        int sampleSize = computeSampleSize(cropWidth, cropHeight,
+                rotated ? outputHeight : outputWidth, rotated ? outputWidth : outputHeight);
+
+        return new Plan(cropLeft, cropTop, cropWidth, cropHeight, rotation, mirror, sampleSize, outputWidth, outputHeight);
+    }
+
+    // Largest power of two that still decodes at least the requested number of pixels.
+    static int computeSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -0,0 +1,163 @@
+package com.cordovaplugincamerapreview;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AnalyzerSchedulerTest {
+    private static final long MS = 1000000L;
+    private static final long SECOND = 1000 * MS;
+
+    @Test
+    public void analyzerIsDueOnceItsIntervalHasPassed() {
+        AnalyzerScheduler scheduler = new AnalyzerScheduler();
+        AnalyzerScheduler.Entry entry = scheduler.add(new StubAnalyzer("a"), 10, 10 * MS);
+        AnalyzerScheduler.Entry[] due = new AnalyzerScheduler.Entry[1];
+
+        assertTrue(scheduler.offer(SECOND));
+        assertEquals(1, scheduler.collectDue(SECOND, due));
+        scheduler.onAnalyzed(entry, SECOND, MS);
+
+        assertFalse(scheduler.offer(SECOND + 50 * MS));
+        assertEquals(0, scheduler.collectDue(SECOND + 50 * MS, due));
+        assertTrue(scheduler.offer(SECOND + 100 * MS));
+        assertEquals(1, entry.getAnalyzed());
+        assertEquals(2, entry.getSkipped());
+    }
+
+    @Test
+    public void mostOverdueAnalyzerComesFirst() {
+        AnalyzerScheduler scheduler = new AnalyzerScheduler();
+        AnalyzerScheduler.Entry slow = scheduler.add(new StubAnalyzer("slow"), 10, 10 * MS);
+        AnalyzerScheduler.Entry fast = scheduler.add(new StubAnalyzer("fast"), 20, 10 * MS);
+        scheduler.onAnalyzed(slow, 0, MS);
+        scheduler.onAnalyzed(fast, 0, MS);
+
+        AnalyzerScheduler.Entry[] due = new AnalyzerScheduler.Entry[2];
+        assertEquals(2, scheduler.collectDue(200 * MS, due));
+        assertSame(fast, due[0]);
+        assertSame(slow, due[1]);
+    }
+
+    @Test
+    public void overBudgetAnalyzerIsSlowedDownUpToTheLimit() {
+        AnalyzerScheduler scheduler = new AnalyzerScheduler();
+        AnalyzerScheduler.Entry entry = scheduler.add(new StubAnalyzer("a"), 10, 10 * MS);
+
+        scheduler.onAnalyzed(entry, 0, 5 * MS);
+        assertEquals(100 * MS, entry.getIntervalNanos());
+
+        scheduler = new AnalyzerScheduler();
+        entry = scheduler.add(new StubAnalyzer("a"), 10, 10 * MS);
+        scheduler.onAnalyzed(entry, 0, 30 * MS);
+        assertEquals(300 * MS, entry.getIntervalNanos());
+
+        scheduler.onAnalyzed(entry, 0, 10 * SECOND);
+        assertEquals(SECOND, entry.getIntervalNanos());
+    }
+
+    @Test
+    public void addingAnAnalyzerTwiceReplacesIt() {
+        AnalyzerScheduler scheduler = new AnalyzerScheduler();
+        scheduler.add(new StubAnalyzer("a"), 10, MS);
+        AnalyzerScheduler.Entry replacement = scheduler.add(new StubAnalyzer("a"), 5, MS);
+        assertEquals(1, scheduler.size());
+        assertSame(replacement, scheduler.getEntries()[0]);
+
+        scheduler.remove("a");
+        assertEquals(0, scheduler.size());
+        assertFalse(scheduler.offer(SECOND));
+    }
+
+    @Test
+    public void busyWorkerKeepsOnlyTheLatestFrame() throws Exception {
+        final CountDownLatch firstStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final CountDownLatch secondDone = new CountDownLatch(1);
+        final List<Long> timestamps = new CopyOnWriteArrayList<Long>();
+        final List<Integer> lumas = new CopyOnWriteArrayList<Integer>();
+        AnalyzerEngine engine = new AnalyzerEngine(new AnalyzerEngine.Listener() {
+            @Override
+            public void onAnalyzerResult(String analyzer, long timestampNanos, float[] values) {
+            }
+        });
+        engine.addAnalyzer(new StubAnalyzer("blocking") {
+            @Override
+            public float[] analyze(byte[] nv21, int width, int height, long timestampNanos) {
+                timestamps.add(timestampNanos);
+                lumas.add(nv21[0] & 0xFF);
+                if (timestamps.size() == 1) {
+                    firstStarted.countDown();
+                    await(releaseFirst);
+                } else {
+                    secondDone.countDown();
+                }
+                return null;
+            }
+        }, 1000, SECOND);
+        engine.start();
+        try {
+            engine.onFrame(frame(1), 4, 4, SECOND);
+            assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+            // the worker is busy: each frame replaces the one waiting before it
+            engine.onFrame(frame(2), 4, 4, 2 * SECOND);
+            engine.onFrame(frame(3), 4, 4, 3 * SECOND);
+            engine.onFrame(frame(4), 4, 4, 4 * SECOND);
+            assertEquals(2, engine.getDroppedFrames());
+
+            releaseFirst.countDown();
+            assertTrue(secondDone.await(5, TimeUnit.SECONDS));
+            assertEquals(2, timestamps.size());
+            assertEquals(4 * SECOND, (long) timestamps.get(1));
+            assertEquals(4, (int) lumas.get(1));
+        } finally {
+            releaseFirst.countDown();
+            engine.stop();
+        }
+    }
+
+    private static byte[] frame(int luma) {
+        byte[] nv21 = new byte[4 * 4 * 3 / 2];
+        Arrays.fill(nv21, (byte) luma);
+        return nv21;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class StubAnalyzer implements FrameAnalyzer {
+        private final String name;
+
+        StubAnalyzer(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public float[] analyze(byte[] nv21, int width, int height, long timestampNanos) {
+            return null;
+        }
+
+        @Override
+        public void reset() {
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.cordovaplugincamerapreview;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CapturePipelineTest {
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private final CountDownLatch decodeStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseDecode = new CountDownLatch(1);
+    private final List<Integer> aborted = new CopyOnWriteArrayList<Integer>();
+    private final List<Integer> processed = new CopyOnWriteArrayList<Integer>();
+    private final List<Integer> failed = new CopyOnWriteArrayList<Integer>();
+    private volatile boolean failEncode;
+
+    // Blocks the first decode until releaseDecode opens, so the queue can be filled.
+    private final CapturePipeline.PictureProcessor<String> processor = new CapturePipeline.PictureProcessor<String>() {
+        @Override
+        public String decode(CaptureRequest request) throws Exception {
+            decodeStarted.countDown();
+            assertTrue(releaseDecode.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            return "picture " + request.sequence;
+        }
+
+        @Override
+        public String transform(String picture, CaptureRequest request) {
+            return picture;
+        }
+
+        @Override
+        public EncodeResult encode(String picture, CaptureRequest request, OutputStream output) throws Exception {
+            if (failEncode) {
+                throw new IOException("encode failed");
+            }
+            byte[] bytes = picture.getBytes("UTF-8");
+            output.write(bytes);
+            return new EncodeResult(EncoderOptions.Format.JPEG, EncoderOptions.DEFAULT_QUALITY, bytes.length);
+        }
+
+        @Override
+        public void recycle(String picture) {
+        }
+    };
+
+    private final CapturePipeline.Sink sink = new CapturePipeline.Sink() {
+        @Override
+        public OutputStream open(CaptureRequest request) {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public Object finish(CaptureRequest request, OutputStream stream) {
+            return stream.toString();
+        }
+
+        @Override
+        public void abort(CaptureRequest request, OutputStream stream) {
+            aborted.add(request.sequence);
+        }
+    };
+
+    private class RecordingListener implements CapturePipeline.Listener {
+        final CountDownLatch done;
+
+        RecordingListener(int expected) {
+            done = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onCaptureProcessed(CaptureRequest request, Object picture, EncodeResult encoded, CaptureTimings timings) {
+            processed.add(request.sequence);
+            done.countDown();
+        }
+
+        @Override
+        public void onCaptureFailed(CaptureRequest request, Throwable error) {
+            failed.add(request.sequence);
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void fullQueueDropsOldestWaitingShot() throws Exception {
+        RecordingListener listener = new RecordingListener(3);
+        CapturePipeline<String> pipeline = new CapturePipeline<String>(processor, sink, listener, 1, 1);
+
+        assertTrue(pipeline.submit(request(1)));
+        assertTrue(decodeStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(pipeline.submit(request(2)));
+        assertTrue(pipeline.isQueueFull());
+        assertTrue(pipeline.submit(request(3), true));
+        assertEquals(list(2), failed);
+
+        releaseDecode.countDown();
+        assertTrue(listener.done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(list(1, 3), processed);
+        assertEquals(list(2), failed);
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void fullQueueRejectsNewShotWithoutDropOldest() throws Exception {
+        RecordingListener listener = new RecordingListener(3);
+        CapturePipeline<String> pipeline = new CapturePipeline<String>(processor, sink, listener, 1, 1);
+
+        assertTrue(pipeline.submit(request(1)));
+        assertTrue(decodeStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertTrue(pipeline.submit(request(2)));
+        assertFalse(pipeline.submit(request(3)));
+        assertEquals(list(3), failed);
+
+        releaseDecode.countDown();
+        assertTrue(listener.done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(list(1, 2), processed);
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void encodeFailureAbortsSinkAndReportsOnce() throws Exception {
+        releaseDecode.countDown();
+        failEncode = true;
+        RecordingListener listener = new RecordingListener(1);
+        CapturePipeline<String> pipeline = new CapturePipeline<String>(processor, sink, listener);
+
+        assertTrue(pipeline.submit(request(1)));
+        assertTrue(listener.done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        pipeline.shutdown();
+        assertEquals(list(1), aborted);
+        assertEquals(list(1), failed);
+        assertTrue(processed.isEmpty());
+    }
+
+    @Test
+    public void throwingListenerDoesNotAbortDeliveredPicture() throws Exception {
+        releaseDecode.countDown();
+        RecordingListener listener = new RecordingListener(2) {
+            @Override
+            public void onCaptureProcessed(CaptureRequest request, Object picture, EncodeResult encoded, CaptureTimings timings) {
+                super.onCaptureProcessed(request, picture, encoded, timings);
+                if (request.sequence == 1) {
+                    throw new IllegalStateException("listener failed");
+                }
+            }
+        };
+        CapturePipeline<String> pipeline = new CapturePipeline<String>(processor, sink, listener);
+
+        // the second shot runs after the first one has fully returned
+        assertTrue(pipeline.submit(request(1)));
+        assertTrue(pipeline.submit(request(2)));
+        assertTrue(listener.done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        pipeline.shutdown();
+        assertEquals(list(1, 2), processed);
+        assertTrue(failed.isEmpty());
+        assertTrue(aborted.isEmpty());
+    }
+
+    private static CaptureRequest request(int sequence) {
+        return new CaptureRequest(new byte[0], 0, 0, 0, 0, 0, false, OutputMode.BASE64, EncoderOptions.DEFAULT, sequence);
+    }
+
+    private static List<Integer> list(Integer... values) {
+        return Arrays.asList(values);
+    }
+}
@@ -0,0 +1,147 @@
+package com.cordovaplugincamerapreview;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Known answers of the frame analyzers on synthetic NV21 frames.
+ */
+public class FrameAnalyzerTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final float DELTA = 1e-4f;
+
+    @Test
+    public void sharpnessOfUniformFrameIsZero() {
+        float[] result = new SharpnessAnalyzer().analyze(uniform(128), WIDTH, HEIGHT, 0);
+        assertEquals(0f, result[0], DELTA);
+    }
+
+    @Test
+    public void sharpnessOfCheckerboard() {
+        byte[] nv21 = frame();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                nv21[y * WIDTH + x] = (byte) ((x + y) % 2 == 0 ? 255 : 0);
+            }
+        }
+        // every Laplacian is +-4 * 255, so the variance is 1020^2
+        assertEquals(1020 * 1020, SharpnessAnalyzer.laplacianVariance(nv21, WIDTH, HEIGHT, 1), DELTA);
+    }
+
+    @Test
+    public void blurredEdgeScoresLowerThanSharpEdge() {
+        byte[] sharp = frame();
+        byte[] blurred = frame();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                sharp[y * WIDTH + x] = (byte) (x % 16 < 8 ? 0 : 255);
+                // the same stripes as a linear ramp over 8 pixels
+                int phase = x % 16;
+                blurred[y * WIDTH + x] = (byte) (phase < 8 ? phase * 255 / 7 : (15 - phase) * 255 / 7);
+            }
+        }
+        SharpnessAnalyzer analyzer = new SharpnessAnalyzer();
+        float sharpScore = analyzer.analyze(sharp, WIDTH, HEIGHT, 0)[0];
+        float blurredScore = analyzer.analyze(blurred, WIDTH, HEIGHT, 0)[0];
+        assertTrue(sharpScore + " > " + blurredScore, sharpScore > 10 * blurredScore);
+    }
+
+    @Test
+    public void exposureOfUniformFrame() {
+        float[] result = new ExposureAnalyzer().analyze(uniform(128), WIDTH, HEIGHT, 0);
+        assertEquals(128f, result[0], DELTA);
+        assertEquals(0f, result[1], DELTA);
+        assertEquals(0f, result[2], DELTA);
+        for (int bin = 0; bin < ExposureAnalyzer.BINS; bin++) {
+            assertEquals(bin == 8 ? 1f : 0f, result[3 + bin], DELTA);
+        }
+    }
+
+    @Test
+    public void exposureOfHalfBlackHalfWhiteFrame() {
+        byte[] nv21 = frame();
+        Arrays.fill(nv21, WIDTH * HEIGHT / 2, WIDTH * HEIGHT, (byte) 255);
+        float[] result = new ExposureAnalyzer().analyze(nv21, WIDTH, HEIGHT, 0);
+        assertEquals(127.5f, result[0], DELTA);
+        assertEquals(0.5f, result[1], DELTA);
+        assertEquals(0.5f, result[2], DELTA);
+        assertEquals(0.5f, result[3], DELTA);
+        assertEquals(0.5f, result[3 + ExposureAnalyzer.BINS - 1], DELTA);
+    }
+
+    @Test
+    public void motionNeedsTwoFrames() {
+        MotionAnalyzer analyzer = new MotionAnalyzer();
+        assertNull(analyzer.analyze(uniform(100), WIDTH, HEIGHT, 0));
+        float[] result = analyzer.analyze(uniform(100), WIDTH, HEIGHT, 1);
+        assertEquals(0f, result[0], DELTA);
+        assertEquals(0f, result[1], DELTA);
+
+        analyzer.reset();
+        assertNull(analyzer.analyze(uniform(100), WIDTH, HEIGHT, 2));
+    }
+
+    @Test
+    public void motionOfHalfTheFrame() {
+        MotionAnalyzer analyzer = new MotionAnalyzer();
+        analyzer.analyze(uniform(0), WIDTH, HEIGHT, 0);
+        byte[] nv21 = frame();
+        for (int y = 0; y < HEIGHT; y++) {
+            Arrays.fill(nv21, y * WIDTH, y * WIDTH + WIDTH / 2, (byte) 255);
+        }
+        float[] result = analyzer.analyze(nv21, WIDTH, HEIGHT, 1);
+        assertEquals(0.5f, result[0], DELTA);
+        assertEquals(0.5f, result[1], DELTA);
+
+        // a small change stays under the block threshold
+        analyzer.analyze(uniform(5), WIDTH, HEIGHT, 2);
+        result = analyzer.analyze(uniform(10), WIDTH, HEIGHT, 3);
+        assertEquals(5 / 255f, result[0], DELTA);
+        assertEquals(0f, result[1], DELTA);
+    }
+
+    @Test
+    public void documentEdgesOfBrightRectangle() {
+        byte[] nv21 = uniform(30);
+        int left = WIDTH / 4;
+        int top = HEIGHT / 4;
+        int right = WIDTH * 3 / 4;
+        int bottom = HEIGHT * 3 / 4;
+        for (int y = top; y < bottom; y++) {
+            Arrays.fill(nv21, y * WIDTH + left, y * WIDTH + right, (byte) 220);
+        }
+        float[] result = new DocumentEdgeAnalyzer().analyze(nv21, WIDTH, HEIGHT, 0);
+        assertNotNull(result);
+        // sides land within a grid cell or two of the rectangle
+        assertEquals(0.25f, result[0], 2f / 64);
+        assertEquals(0.25f, result[1], 2f / 48);
+        assertEquals(0.75f, result[2], 2f / 64);
+        assertEquals(0.75f, result[3], 2f / 48);
+        assertTrue("confidence " + result[4], result[4] > 0.8f);
+    }
+
+    @Test
+    public void noDocumentInUniformFrame() {
+        assertNull(new DocumentEdgeAnalyzer().analyze(uniform(128), WIDTH, HEIGHT, 0));
+    }
+
+    // Black luma, neutral chroma.
+    private static byte[] frame() {
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(nv21, WIDTH * HEIGHT, nv21.length, (byte) 128);
+        return nv21;
+    }
+
+    private static byte[] uniform(int luma) {
+        byte[] nv21 = frame();
+        Arrays.fill(nv21, 0, WIDTH * HEIGHT, (byte) luma);
+        return nv21;
+    }
+}
@@ -0,0 +1,199 @@
+package com.cordovaplugincamerapreview;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JpegOrientationTest {
+    private static final int TAG_IMAGE_WIDTH = 0x0100;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final byte[] SOI = {(byte) 0xFF, (byte) 0xD8};
+    private static final byte[] JFIF = {
+            (byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0
+    };
+    // start of scan, a few bytes of entropy coded data, end of image
+    private static final byte[] SCAN = {
+            (byte) 0xFF, (byte) 0xDA, 0, 2, 0x12, 0x34, 0x56, (byte) 0xFF, (byte) 0xD9
+    };
+
+    @Test
+    public void fromTransform() {
+        assertEquals(1, JpegOrientation.fromTransform(0, false));
+        assertEquals(6, JpegOrientation.fromTransform(90, false));
+        assertEquals(3, JpegOrientation.fromTransform(180, false));
+        assertEquals(8, JpegOrientation.fromTransform(270, false));
+        assertEquals(2, JpegOrientation.fromTransform(0, true));
+        assertEquals(7, JpegOrientation.fromTransform(90, true));
+        assertEquals(4, JpegOrientation.fromTransform(180, true));
+        assertEquals(5, JpegOrientation.fromTransform(270, true));
+
+        assertEquals(8, JpegOrientation.fromTransform(-90, false));
+        assertEquals(6, JpegOrientation.fromTransform(450, false));
+    }
+
+    @Test
+    public void exifSegmentIsInsertedAfterJfifSegment() throws IOException {
+        byte[] jpeg = concat(SOI, JFIF, SCAN);
+        assertTrue(JpegOrientation.canWrite(jpeg));
+
+        byte[] written = write(jpeg, 6);
+        int insertAt = SOI.length + JFIF.length;
+        int segmentLength = written.length - jpeg.length;
+        assertArrayEquals(Arrays.copyOf(jpeg, insertAt), Arrays.copyOf(written, insertAt));
+        assertArrayEquals(SCAN, Arrays.copyOfRange(written, insertAt + segmentLength, written.length));
+        assertEquals(0xFF, written[insertAt] & 0xFF);
+        assertEquals(0xE1, written[insertAt + 1] & 0xFF);
+        assertEquals(segmentLength - 2, ((written[insertAt + 2] & 0xFF) << 8) | (written[insertAt + 3] & 0xFF));
+
+        // the inserted segment is found and patched in place by the next write
+        assertTrue(JpegOrientation.canWrite(written));
+        byte[] rewritten = write(written, 3);
+        assertEquals(written.length, rewritten.length);
+        assertEquals(1, countDifferences(written, rewritten));
+    }
+
+    @Test
+    public void exifSegmentIsInsertedAfterSoiWithoutJfif() throws IOException {
+        byte[] jpeg = concat(SOI, SCAN);
+        byte[] written = write(jpeg, 8);
+        assertEquals(0xE1, written[3] & 0xFF);
+        assertArrayEquals(SCAN, Arrays.copyOfRange(written, written.length - SCAN.length, written.length));
+    }
+
+    @Test
+    public void littleEndianOrientationIsOverwrittenInPlace() throws IOException {
+        byte[] jpeg = concat(SOI, exif(true, TAG_IMAGE_WIDTH, TAG_ORIENTATION), SCAN);
+        assertTrue(JpegOrientation.canWrite(jpeg));
+
+        byte[] written = write(jpeg, 6);
+        int value = indexOf(jpeg, new byte[]{0x12, 0x01, 3, 0, 1, 0, 0, 0}) + 8;
+        assertEquals(jpeg.length, written.length);
+        assertEquals(6, written[value]);
+        assertEquals(0, written[value + 1]);
+        assertEquals(1, countDifferences(jpeg, written));
+    }
+
+    @Test
+    public void bigEndianOrientationIsOverwrittenInPlace() throws IOException {
+        byte[] jpeg = concat(SOI, JFIF, exif(false, TAG_IMAGE_WIDTH, TAG_ORIENTATION), SCAN);
+        assertTrue(JpegOrientation.canWrite(jpeg));
+
+        byte[] written = write(jpeg, 5);
+        int value = indexOf(jpeg, new byte[]{0x01, 0x12, 0, 3, 0, 0, 0, 1}) + 8;
+        assertEquals(jpeg.length, written.length);
+        assertEquals(0, written[value]);
+        assertEquals(5, written[value + 1]);
+        assertEquals(1, countDifferences(jpeg, written));
+    }
+
+    @Test
+    public void exifWithoutOrientationCannotBeWritten() {
+        byte[] jpeg = concat(SOI, exif(false, TAG_IMAGE_WIDTH), SCAN);
+        assertFalse(JpegOrientation.canWrite(jpeg));
+        try {
+            write(jpeg, 6);
+            fail("wrote an orientation without a tag to overwrite");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void notAJpegCannotBeWritten() {
+        assertFalse(JpegOrientation.canWrite(new byte[]{'P', 'N', 'G', 0, 0, 0}));
+        assertFalse(JpegOrientation.canWrite(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE1, 0, 40}));
+    }
+
+    private static byte[] write(byte[] jpeg, int orientation) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int length = JpegOrientation.write(jpeg, orientation, output);
+        assertEquals(output.size(), length);
+        return output.toByteArray();
+    }
+
+    // APP1 Exif segment whose IFD0 has one SHORT entry with value 1 for each tag.
+    private static byte[] exif(boolean littleEndian, int... tags) {
+        ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        tiff.write(littleEndian ? 'I' : 'M');
+        tiff.write(littleEndian ? 'I' : 'M');
+        writeShort(tiff, 42, littleEndian);
+        writeInt(tiff, 8, littleEndian);
+        writeShort(tiff, tags.length, littleEndian);
+        for (int tag : tags) {
+            writeShort(tiff, tag, littleEndian);
+            writeShort(tiff, 3, littleEndian);
+            writeInt(tiff, 1, littleEndian);
+            writeShort(tiff, 1, littleEndian);
+            writeShort(tiff, 0, littleEndian);
+        }
+        writeInt(tiff, 0, littleEndian);
+
+        ByteArrayOutputStream segment = new ByteArrayOutputStream();
+        segment.write(0xFF);
+        segment.write(0xE1);
+        writeShort(segment, 2 + 6 + tiff.size(), false);
+        segment.write('E');
+        segment.write('x');
+        segment.write('i');
+        segment.write('f');
+        segment.write(0);
+        segment.write(0);
+        byte[] body = tiff.toByteArray();
+        segment.write(body, 0, body.length);
+        return segment.toByteArray();
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int value, boolean littleEndian) {
+        if (littleEndian) {
+            out.write(value);
+            out.write(value >> 8);
+        } else {
+            out.write(value >> 8);
+            out.write(value);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value, boolean littleEndian) {
+        if (littleEndian) {
+            writeShort(out, value, true);
+            writeShort(out, value >>> 16, true);
+        } else {
+            writeShort(out, value >>> 16, false);
+            writeShort(out, value, false);
+        }
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part, 0, part.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            if (Arrays.equals(pattern, Arrays.copyOfRange(data, i, i + pattern.length))) {
+                return i;
+            }
+        }
+        throw new AssertionError("pattern not found");
+    }
+
+    private static int countDifferences(byte[] a, byte[] b) {
+        int differences = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                differences++;
+            }
+        }
+        return differences;
+    }
+}
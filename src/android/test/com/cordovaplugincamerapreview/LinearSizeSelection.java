@@ -0,0 +1,67 @@
+package com.cordovaplugincamerapreview;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The size selection Preview did before {@link SizeIndex}: sort a copy of the
+ * camera's list and scan it. Kept as the reference the index is tested and
+ * benchmarked against.
+ */
+final class LinearSizeSelection {
+    private LinearSizeSelection() {
+    }
+
+    // Largest size among those whose ratio is closest to targetRatio.
+    static CameraSize bestAspect(List<CameraSize> supportedSizes, double targetRatio) {
+        CameraSize optimalSize = null;
+        double minDiff = Double.MAX_VALUE;
+
+        List<CameraSize> sizes = new ArrayList<CameraSize>(supportedSizes);
+        Collections.sort(sizes, Collections.reverseOrder(new Comparator<CameraSize>() {
+            @Override
+            public int compare(CameraSize lhs, CameraSize rhs) {
+                int left = lhs.width * lhs.height;
+                int right = rhs.width * rhs.height;
+                return left < right ? -1 : (left > right ? 1 : 0);
+            }
+        }));
+
+        for (CameraSize size : sizes) {
+            double ratio = (double) size.width / size.height;
+            if (Math.abs(ratio - targetRatio) < minDiff) {
+                optimalSize = size;
+                minDiff = Math.abs(ratio - targetRatio);
+            }
+        }
+        return optimalSize;
+    }
+
+    // Closest height within the ratio tolerance, or among all sizes; ties go to the first in list order.
+    static CameraSize optimal(List<CameraSize> sizes, double targetRatio, double tolerance, int targetHeight) {
+        CameraSize optimalSize = null;
+        double minDiff = Double.MAX_VALUE;
+
+        for (CameraSize size : sizes) {
+            double ratio = (double) size.width / size.height;
+            if (Math.abs(ratio - targetRatio) > tolerance) continue;
+            if (Math.abs(size.height - targetHeight) < minDiff) {
+                optimalSize = size;
+                minDiff = Math.abs(size.height - targetHeight);
+            }
+        }
+
+        if (optimalSize == null) {
+            minDiff = Double.MAX_VALUE;
+            for (CameraSize size : sizes) {
+                if (Math.abs(size.height - targetHeight) < minDiff) {
+                    optimalSize = size;
+                    minDiff = Math.abs(size.height - targetHeight);
+                }
+            }
+        }
+        return optimalSize;
+    }
+}
@@ -0,0 +1,79 @@
+package com.cordovaplugincamerapreview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PreviewRingBufferTest {
+    private static final long FRAME = 33000000L;
+
+    @Test
+    public void closestFrameIsHandedOut() {
+        PreviewRingBuffer buffer = new PreviewRingBuffer(4);
+        for (int i = 1; i <= 6; i++) {
+            buffer.onFrame(frame(i), 4, 4, i * FRAME);
+        }
+        PreviewRingBuffer.Frame frame = buffer.acquireClosest(4 * FRAME + 1000);
+        assertEquals(4 * FRAME, frame.timestampNanos);
+        assertEquals(4, frame.data[0]);
+    }
+
+    @Test
+    public void pinnedFrameIsNotOverwritten() {
+        PreviewRingBuffer buffer = new PreviewRingBuffer(2);
+        buffer.onFrame(frame(1), 4, 4, FRAME);
+        buffer.onFrame(frame(2), 4, 4, 2 * FRAME);
+        PreviewRingBuffer.Frame pinned = buffer.acquireClosest(2 * FRAME);
+        buffer.onFrame(frame(3), 4, 4, 3 * FRAME);
+        buffer.onFrame(frame(4), 4, 4, 4 * FRAME);
+        assertEquals(2, pinned.data[0]);
+
+        buffer.release(pinned);
+        buffer.release(buffer.acquireClosest(4 * FRAME));
+        buffer.onFrame(frame(5), 4, 4, 5 * FRAME);
+        assertEquals(5, pinned.data[0]);
+    }
+
+    @Test
+    public void staleFramesAreNotHandedOut() {
+        PreviewRingBuffer buffer = new PreviewRingBuffer(4);
+        buffer.onFrame(frame(1), 4, 4, FRAME);
+        buffer.onFrame(frame(2), 4, 4, 2 * FRAME);
+        assertNotNull(buffer.acquireClosest((2 + PreviewRingBuffer.MAX_AGE_FRAMES) * FRAME));
+        assertNull(buffer.acquireClosest((2 + PreviewRingBuffer.MAX_AGE_FRAMES) * FRAME + 1));
+    }
+
+    @Test
+    public void frameRateIsNeededBeforeHandingOutFrames() {
+        PreviewRingBuffer buffer = new PreviewRingBuffer(4);
+        assertNull(buffer.acquireClosest(FRAME));
+        buffer.onFrame(frame(1), 4, 4, FRAME);
+        assertNull(buffer.acquireClosest(FRAME));
+    }
+
+    @Test
+    public void clearForgetsFramesButKeepsPinnedOnes() {
+        PreviewRingBuffer buffer = new PreviewRingBuffer(2);
+        buffer.onFrame(frame(1), 4, 4, FRAME);
+        buffer.onFrame(frame(2), 4, 4, 2 * FRAME);
+        PreviewRingBuffer.Frame pinned = buffer.acquireClosest(FRAME);
+        buffer.clear();
+        assertNull(buffer.acquireClosest(2 * FRAME));
+
+        // new frames skip the pinned slot
+        buffer.onFrame(frame(3), 4, 4, 10 * FRAME);
+        buffer.onFrame(frame(4), 4, 4, 11 * FRAME);
+        assertEquals(1, pinned.data[0]);
+        PreviewRingBuffer.Frame frame = buffer.acquireClosest(11 * FRAME);
+        assertEquals(11 * FRAME, frame.timestampNanos);
+        assertEquals(4, frame.data[0]);
+    }
+
+    private static byte[] frame(int luma) {
+        byte[] nv21 = new byte[4 * 4 * 3 / 2];
+        nv21[0] = (byte) luma;
+        return nv21;
+    }
+}
@@ -0,0 +1,133 @@
+package com.cordovaplugincamerapreview;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SizeIndexTest {
+    private static final double TOLERANCE = 0.1;
+    // aspect ratios cameras report, far enough apart to never share a bucket
+    private static final int[][] RATIOS = {{4, 3}, {16, 9}, {3, 2}, {1, 1}, {5, 4}, {11, 9}, {2, 1}, {3, 4}};
+
+    @Test
+    public void emptyIndex() {
+        SizeIndex index = new SizeIndex(Collections.<CameraSize>emptyList());
+        assertTrue(index.isEmpty());
+        assertNull(index.largestClosestRatio(4 / 3d));
+        assertNull(index.closestHeight(4 / 3d, TOLERANCE, 480));
+    }
+
+    @Test
+    public void sameRatioGivesLargest() {
+        List<CameraSize> sizes = sizes(320, 240, 1280, 960, 640, 480, 1920, 1080);
+        assertEquals(new CameraSize(1280, 960), new SizeIndex(sizes).largestClosestRatio(4 / 3d));
+        assertEquals(LinearSizeSelection.bestAspect(sizes, 4 / 3d), new SizeIndex(sizes).largestClosestRatio(4 / 3d));
+    }
+
+    @Test
+    public void equallyCloseRatiosGiveLargerSize() {
+        // 1.5 is exactly between 1:1 and 2:1
+        List<CameraSize> sizes = sizes(400, 400, 600, 300);
+        assertEquals(new CameraSize(600, 300), new SizeIndex(sizes).largestClosestRatio(1.5));
+        assertEquals(LinearSizeSelection.bestAspect(sizes, 1.5), new SizeIndex(sizes).largestClosestRatio(1.5));
+
+        sizes = sizes(800, 800, 600, 300);
+        assertEquals(new CameraSize(800, 800), new SizeIndex(sizes).largestClosestRatio(1.5));
+        assertEquals(LinearSizeSelection.bestAspect(sizes, 1.5), new SizeIndex(sizes).largestClosestRatio(1.5));
+    }
+
+    @Test
+    public void noSizeWithinToleranceFallsBackToAllSizes() {
+        List<CameraSize> sizes = sizes(480, 480, 720, 720, 1080, 1080);
+        SizeIndex index = new SizeIndex(sizes);
+        assertEquals(new CameraSize(720, 720), index.closestHeight(16 / 9d, TOLERANCE, 700));
+        assertEquals(LinearSizeSelection.optimal(sizes, 16 / 9d, TOLERANCE, 700), index.closestHeight(16 / 9d, TOLERANCE, 700));
+    }
+
+    @Test
+    public void sizeWithinToleranceBeatsCloserHeight() {
+        List<CameraSize> sizes = sizes(720, 720, 640, 480);
+        assertEquals(new CameraSize(640, 480), new SizeIndex(sizes).closestHeight(4 / 3d, TOLERANCE, 720));
+    }
+
+    /**
+     * Changed with the index: of two sizes equally far from the target height
+     * the taller one wins. The linear scan kept the first in list order.
+     */
+    @Test
+    public void heightTieGoesToTallerSize() {
+        List<CameraSize> sizes = sizes(640, 480, 800, 600);
+        assertEquals(new CameraSize(800, 600), new SizeIndex(sizes).closestHeight(4 / 3d, TOLERANCE, 540));
+        assertEquals(new CameraSize(640, 480), LinearSizeSelection.optimal(sizes, 4 / 3d, TOLERANCE, 540));
+
+        // the same without a size inside the tolerance
+        sizes = sizes(500, 500, 700, 700);
+        assertEquals(new CameraSize(700, 700), new SizeIndex(sizes).closestHeight(16 / 9d, TOLERANCE, 600));
+        assertEquals(new CameraSize(500, 500), LinearSizeSelection.optimal(sizes, 16 / 9d, TOLERANCE, 600));
+    }
+
+    @Test
+    public void largestClosestRatioMatchesLinearScan() {
+        Random random = new Random(42);
+        for (int run = 0; run < 2000; run++) {
+            List<CameraSize> sizes = randomSizes(random);
+            SizeIndex index = new SizeIndex(sizes);
+            double target = 0.5 + random.nextDouble() * 2;
+            assertEquals("target " + target + " in " + sizes, LinearSizeSelection.bestAspect(sizes, target), index.largestClosestRatio(target));
+        }
+    }
+
+    // Compared by height distance and tolerance, since height ties are broken differently.
+    @Test
+    public void closestHeightMatchesLinearScan() {
+        Random random = new Random(7);
+        for (int run = 0; run < 2000; run++) {
+            List<CameraSize> sizes = randomSizes(random);
+            SizeIndex index = new SizeIndex(sizes);
+            double targetRatio = 0.5 + random.nextDouble() * 2;
+            int targetHeight = 100 + random.nextInt(2000);
+
+            CameraSize expected = LinearSizeSelection.optimal(sizes, targetRatio, TOLERANCE, targetHeight);
+            CameraSize actual = index.closestHeight(targetRatio, TOLERANCE, targetHeight);
+            String message = "ratio " + targetRatio + ", height " + targetHeight + " in " + sizes;
+            assertEquals(message, Math.abs(expected.height - targetHeight), Math.abs(actual.height - targetHeight));
+            assertEquals(message, withinTolerance(expected, targetRatio), withinTolerance(actual, targetRatio));
+        }
+    }
+
+    private static boolean withinTolerance(CameraSize size, double targetRatio) {
+        return Math.abs(size.ratio() - targetRatio) <= TOLERANCE;
+    }
+
+    private static List<CameraSize> randomSizes(Random random) {
+        return randomSizes(random, 1 + random.nextInt(30));
+    }
+
+    // Distinct sizes in random order, all with one of the common aspect ratios.
+    static List<CameraSize> randomSizes(Random random, int count) {
+        Set<CameraSize> sizes = new LinkedHashSet<CameraSize>();
+        while (sizes.size() < count) {
+            int[] ratio = RATIOS[random.nextInt(RATIOS.length)];
+            int scale = 8 + random.nextInt(240);
+            sizes.add(new CameraSize(ratio[0] * scale, ratio[1] * scale));
+        }
+        return new ArrayList<CameraSize>(sizes);
+    }
+
+    private static List<CameraSize> sizes(int... dimensions) {
+        List<CameraSize> sizes = new ArrayList<CameraSize>();
+        for (int i = 0; i < dimensions.length; i += 2) {
+            sizes.add(new CameraSize(dimensions[i], dimensions[i + 1]));
+        }
+        return sizes;
+    }
+}
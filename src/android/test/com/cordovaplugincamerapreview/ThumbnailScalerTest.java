@@ -0,0 +1,74 @@
+package com.cordovaplugincamerapreview;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ThumbnailScalerTest {
+    private static final int GRAY_100 = argb(100, 100, 100);
+    // luma 100 with V = 128 + 50: r = 100 + (359 * 50 >> 8), g = 100 - (183 * 50 >> 8)
+    private static final int RED_100 = argb(170, 65, 100);
+
+    @Test
+    public void edgesSplitTheSourceEvenly() {
+        assertArrayEquals(new int[]{0, 3, 6}, ThumbnailScaler.edges(6, 2));
+        assertArrayEquals(new int[]{0, 1, 3, 5}, ThumbnailScaler.edges(5, 3));
+        assertArrayEquals(new int[]{0, 4, 8, 12}, ThumbnailScaler.edges(12, 3));
+    }
+
+    @Test
+    public void lumaIsAveragedOverEachBox() {
+        byte[] nv21 = frame(4, 2);
+        byte[] luma = {10, 20, 30, 40, 50, 60, 70, 80};
+        System.arraycopy(luma, 0, nv21, 0, luma.length);
+        assertArrayEquals(new int[]{argb(35, 35, 35), argb(55, 55, 55)}, scale(nv21, 4, 2, 2, 1));
+    }
+
+    @Test
+    public void oddBoxEndsIncludeTheHalfCoveredChromaColumn() {
+        // 6x2 frame: three chroma columns, the middle one red; boxes are luma columns 0-2 and 3-5
+        byte[] nv21 = frame(6, 2);
+        Arrays.fill(nv21, 0, 12, (byte) 100);
+        nv21[12 + 2] = (byte) 228;
+        // both boxes overlap the middle column and average it with a neutral one
+        assertArrayEquals(new int[]{RED_100, RED_100}, scale(nv21, 6, 2, 2, 1));
+    }
+
+    @Test
+    public void oddBoxEndsIncludeTheHalfCoveredChromaRow() {
+        // 2x6 frame: three chroma rows, the middle one red; boxes are luma rows 0-2 and 3-5
+        byte[] nv21 = frame(2, 6);
+        Arrays.fill(nv21, 0, 12, (byte) 100);
+        nv21[12 + 2] = (byte) 228;
+        assertArrayEquals(new int[]{RED_100, RED_100}, scale(nv21, 2, 6, 1, 2));
+    }
+
+    @Test
+    public void evenBoxesKeepTheirOwnChroma() {
+        byte[] nv21 = frame(4, 2);
+        Arrays.fill(nv21, 0, 8, (byte) 100);
+        nv21[8 + 2] = (byte) 228;
+        // the second chroma sample is red at full strength: r = 100 + (359 * 100 >> 8)
+        assertArrayEquals(new int[]{GRAY_100, argb(240, 29, 100)}, scale(nv21, 4, 2, 2, 1));
+    }
+
+    private static int[] scale(byte[] nv21, int width, int height, int outWidth, int outHeight) {
+        int[] argb = new int[outWidth * outHeight];
+        ThumbnailScaler.boxFilter(nv21, width, height, outWidth, outHeight,
+                ThumbnailScaler.edges(width, outWidth), ThumbnailScaler.edges(height, outHeight), argb);
+        return argb;
+    }
+
+    // Black luma, neutral chroma.
+    private static byte[] frame(int width, int height) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        Arrays.fill(nv21, width * height, nv21.length, (byte) 128);
+        return nv21;
+    }
+
+    private static int argb(int r, int g, int b) {
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+}
@@ -0,0 +1,112 @@
+package com.cordovaplugincamerapreview;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransformPlannerTest {
+
+    @Test
+    public void identityWithoutViewOrLimits() {
+        TransformPlanner.Plan plan = TransformPlanner.plan(4000, 3000, 0, false, 0, 0, 0, 0);
+        assertCrop(plan, 0, 0, 4000, 3000);
+        assertOutput(plan, 4000, 3000);
+        assertEquals(1, plan.sampleSize);
+        assertFalse(plan.isRotated());
+        assertTrue(plan.isLossless(4000, 3000));
+    }
+
+    @Test
+    public void identityWhenViewMatchesAndLimitsAreLarger() {
+        TransformPlanner.Plan plan = TransformPlanner.plan(4000, 3000, 0, false, 800, 600, 8000, 8000);
+        assertCrop(plan, 0, 0, 4000, 3000);
+        assertOutput(plan, 4000, 3000);
+        assertEquals(1, plan.sampleSize);
+        assertTrue(plan.isLossless(4000, 3000));
+    }
+
+    @Test
+    public void rotationOnlyIsLossless() {
+        TransformPlanner.Plan plan = TransformPlanner.plan(4000, 3000, -90, true, 0, 0, 0, 0);
+        assertEquals(270, plan.rotation);
+        assertTrue(plan.mirror);
+        assertCrop(plan, 0, 0, 4000, 3000);
+        assertOutput(plan, 3000, 4000);
+        assertEquals(4000, plan.getUnrotatedOutputWidth());
+        assertEquals(3000, plan.getUnrotatedOutputHeight());
+        assertTrue(plan.isLossless(4000, 3000));
+    }
+
+    @Test
+    public void rotatedPictureIsCroppedToPortraitView() {
+        // a 9:16 view on a 3:4 picture keeps the full height and crops the sides,
+        // which are the top and bottom of the landscape sensor image
+        TransformPlanner.Plan plan = TransformPlanner.plan(4000, 3000, 90, false, 1080, 1920, 0, 0);
+        assertEquals(90, plan.rotation);
+        assertTrue(plan.isRotated());
+        assertCrop(plan, 0, 375, 4000, 2250);
+        assertOutput(plan, 2250, 4000);
+        assertEquals(1, plan.sampleSize);
+        assertFalse(plan.isLossless(4000, 3000));
+    }
+
+    @Test
+    public void unrotatedPictureIsCroppedToWideView() {
+        TransformPlanner.Plan plan = TransformPlanner.plan(4000, 3000, 0, false, 1920, 1080, 0, 0);
+        assertCrop(plan, 0, 375, 4000, 2250);
+        assertOutput(plan, 4000, 2250);
+    }
+
+    @Test
+    public void sampleSizeStillDecodesTheOutputSize() {
+        TransformPlanner.Plan plan = TransformPlanner.plan(4000, 3000, 0, false, 0, 0, 1000, 1000);
+        assertOutput(plan, 1000, 750);
+        assertEquals(4, plan.sampleSize);
+
+        plan = TransformPlanner.plan(4000, 3000, 0, false, 0, 0, 1001, 1001);
+        assertOutput(plan, 1001, 751);
+        assertEquals(2, plan.sampleSize);
+    }
+
+    @Test
+    public void limitsAreSwappedToMatchPictureOrientation() {
+        TransformPlanner.Plan plan = TransformPlanner.plan(4000, 3000, 0, false, 0, 0, 1000, 2000);
+        assertOutput(plan, 1333, 1000);
+        assertEquals(2, plan.sampleSize);
+
+        plan = TransformPlanner.plan(4000, 3000, 90, false, 0, 0, 2000, 1000);
+        assertOutput(plan, 1000, 1333);
+        assertEquals(1333, plan.getUnrotatedOutputWidth());
+        assertEquals(2, plan.sampleSize);
+    }
+
+    @Test
+    public void cropAndLimitsCombine() {
+        TransformPlanner.Plan plan = TransformPlanner.plan(4000, 3000, 90, false, 1080, 1920, 540, 960);
+        assertCrop(plan, 0, 375, 4000, 2250);
+        assertOutput(plan, 540, 960);
+        assertEquals(4, plan.sampleSize);
+    }
+
+    @Test
+    public void computeSampleSize() {
+        assertEquals(1, TransformPlanner.computeSampleSize(4000, 3000, 4000, 3000));
+        assertEquals(1, TransformPlanner.computeSampleSize(4000, 3000, 2001, 1));
+        assertEquals(2, TransformPlanner.computeSampleSize(4000, 3000, 2000, 1500));
+        assertEquals(2048, TransformPlanner.computeSampleSize(4000, 3000, 1, 1));
+    }
+
+    private static void assertCrop(TransformPlanner.Plan plan, int left, int top, int width, int height) {
+        assertEquals(plan.toString(), left, plan.cropLeft);
+        assertEquals(plan.toString(), top, plan.cropTop);
+        assertEquals(plan.toString(), width, plan.cropWidth);
+        assertEquals(plan.toString(), height, plan.cropHeight);
+    }
+
+    private static void assertOutput(TransformPlanner.Plan plan, int width, int height) {
+        assertEquals(plan.toString(), width, plan.outputWidth);
+        assertEquals(plan.toString(), height, plan.outputHeight);
+    }
+}
@@ -10,6 +10,10 @@ CameraPreview.setOnPictureTakenHandler = function(onSuccess, onError) {
   exec(onSuccess, onError, PLUGIN_NAME, "setOnPictureTakenHandler", []);
 };
 
+CameraPreview.setOnPreviewMovedHandler = function(onMoved, onError) {
+  exec(onMoved, onError, PLUGIN_NAME, "setOnPreviewMovedHandler", []);
+};
+
 CameraPreview.setFlashMode = function(flashMode, onSuccess, onError) {
   exec(onSuccess, onError, PLUGIN_NAME, "setFlashMode", [flashMode]);
 };
@@ -18,6 +22,15 @@ CameraPreview.setFocusMode = function(focusMode, onSuccess, onError) {
   exec(onSuccess, onError, PLUGIN_NAME, "setFocusMode", [focusMode]);
 };
 
+CameraPreview.configure = function(settings, onSuccess, onError) {
+  exec(onSuccess, onError, PLUGIN_NAME, "configure", [settings || {}]);
+};
+
+CameraPreview.getCapabilities = function(options, onSuccess, onError) {
+  options = options || {};
+  exec(onSuccess, onError, PLUGIN_NAME, "getCapabilities", [options.backend || "auto"]);
+};
+
 CameraPreview.setOnLogHandler = function(onSuccess, onError) {
   exec(onSuccess, onError, PLUGIN_NAME, "wLog", []);
 };
@@ -51,8 +64,14 @@ CameraPreview.startCamera = function(options,onSuccess, onError){
   if(typeof(options.alpha) === 'undefined'){
     options.alpha = 1;
   }
+  if(typeof(options.backend) === 'undefined'){
+    options.backend = 'auto';
+  }
+  if(typeof(options.previewMode) === 'undefined'){
+    options.previewMode = 'surface';
+  }
 
-  exec(onSuccess, onError, PLUGIN_NAME, "startCamera", [options.x, options.y, options.width, options.height, options.camera, options.tapPhoto, options.previewDrag, options.toBack, options.alpha]);
+  exec(onSuccess, onError, PLUGIN_NAME, "startCamera", [options.x, options.y, options.width, options.height, options.camera, options.tapPhoto, options.previewDrag, options.toBack, options.alpha, options.backend, options.previewMode]);
 };
 
 CameraPreview.stopCamera = function(onSuccess, onError){
@@ -61,17 +80,97 @@ CameraPreview.stopCamera = function(onSuccess, onError){
 
 CameraPreview.takePicture = function(dim, onSuccess, onError){
   dim = dim || {};
-  exec(onSuccess, onError, PLUGIN_NAME, "takePicture", [dim.maxWidth || 0, dim.maxHeight || 0]);
+  exec(onSuccess, onError, PLUGIN_NAME, "takePicture", [dim.maxWidth || 0, dim.maxHeight || 0, dim.outputType || CameraPreview.OutputType.BASE64, dim.format || CameraPreview.Format.JPEG, dim.quality == null ? null : dim.quality, dim.targetSize || 0, dim.sharpestWithin || 0]);
+};
+
+CameraPreview.takeBurst = function(options, onSuccess, onError){
+  options = options || {};
+  exec(onSuccess, onError, PLUGIN_NAME, "takeBurst", [options.count || 1, options.interval || 0, options.maxWidth || 0, options.maxHeight || 0, options.outputType || CameraPreview.OutputType.BASE64, options.overflow || CameraPreview.BurstOverflow.WAIT, options.format || CameraPreview.Format.JPEG, options.quality == null ? null : options.quality, options.targetSize || 0]);
+};
+
+CameraPreview.stopBurst = function(onSuccess, onError){
+  exec(onSuccess, onError, PLUGIN_NAME, "stopBurst", []);
+};
+
+CameraPreview.setZeroShutterLag = function(enabled, frameCount, onSuccess, onError){
+  exec(onSuccess, onError, PLUGIN_NAME, "setZeroShutterLag", [!!enabled, frameCount || 4]);
+};
+
+CameraPreview.setPoolBudget = function(budget, onSuccess, onError){
+  budget = budget || {};
+  exec(onSuccess, onError, PLUGIN_NAME, "setPoolBudget", [budget.bitmapBytes >= 0 ? budget.bitmapBytes : -1, budget.bufferBytes >= 0 ? budget.bufferBytes : -1, budget.directFrames > 0 ? budget.directFrames : -1, budget.leakDeadlineMs >= 0 ? budget.leakDeadlineMs : -1]);
+};
+
+CameraPreview.getPoolStats = function(onSuccess, onError){
+  exec(onSuccess, onError, PLUGIN_NAME, "getPoolStats", []);
+};
+
+CameraPreview.setMetricsEnabled = function(enabled, onSuccess, onError){
+  exec(onSuccess, onError, PLUGIN_NAME, "setMetricsEnabled", [!!enabled]);
+};
+
+CameraPreview.getMetrics = function(options, onSuccess, onError){
+  options = options || {};
+  exec(onSuccess, onError, PLUGIN_NAME, "getMetrics", [!!options.reset]);
+};
+
+CameraPreview.startMetricsPush = function(interval, onMetrics, onError){
+  exec(onMetrics, onError, PLUGIN_NAME, "startMetricsPush", [interval || 5000]);
+};
+
+CameraPreview.stopMetricsPush = function(onSuccess, onError){
+  exec(onSuccess, onError, PLUGIN_NAME, "stopMetricsPush", []);
 };
 
 CameraPreview.setColorEffect = function(effect, onSuccess, onError){
   exec(onSuccess, onError, PLUGIN_NAME, "setColorEffect", [effect]);
 };
 
+CameraPreview.startFrameStream = function(options, onFrame, onError){
+  options = options || {};
+  exec(onFrame, onError, PLUGIN_NAME, "startFrameStream", [options.fps || 5, options.maxWidth || 160]);
+};
+
+CameraPreview.stopFrameStream = function(onSuccess, onError){
+  exec(onSuccess, onError, PLUGIN_NAME, "stopFrameStream", []);
+};
+
+CameraPreview.startThumbnailStream = function(options, onThumbnail, onError){
+  options = options || {};
+  exec(function(data, width, height, sequence){
+    try {
+      onThumbnail(data, width, height, sequence);
+    } finally {
+      exec(null, null, PLUGIN_NAME, "thumbnailAck", []);
+    }
+  }, onError, PLUGIN_NAME, "startThumbnailStream", [options.fps || 2, options.maxWidth || 160, options.maxHeight || 120, options.format || "jpeg", options.quality || 70]);
+};
+
+CameraPreview.stopThumbnailStream = function(onSuccess, onError){
+  exec(onSuccess, onError, PLUGIN_NAME, "stopThumbnailStream", []);
+};
+
+CameraPreview.startAnalyzers = function(analyzers, onResult, onError){
+  exec(onResult, onError, PLUGIN_NAME, "startAnalyzers", [analyzers || []]);
+};
+
+CameraPreview.stopAnalyzers = function(onSuccess, onError){
+  exec(onSuccess, onError, PLUGIN_NAME, "stopAnalyzers", []);
+};
+
 CameraPreview.switchCamera = function(onSuccess, onError){
   exec(onSuccess, onError, PLUGIN_NAME, "switchCamera", []);
 };
 
+CameraPreview.standby = function(options, onSuccess, onError){
+  options = options || {};
+  exec(onSuccess, onError, PLUGIN_NAME, "standby", [options.idleTimeout]);
+};
+
+CameraPreview.resume = function(onSuccess, onError){
+  exec(onSuccess, onError, PLUGIN_NAME, "resume", []);
+};
+
 CameraPreview.hide = function(onSuccess, onError){
   exec(onSuccess, onError, PLUGIN_NAME, "hideCamera", []);
 };
@@ -91,5 +190,8 @@ CameraPreview.focus = function() {
 
 CameraPreview.FlashMode = {OFF: 0, ON: 1, AUTO: 2};
 CameraPreview.FocusMode = {AUTO: 0, CONTINUOUS: 1};
+CameraPreview.OutputType = {BASE64: 'base64', FILE: 'file', ARRAY_BUFFER: 'arraybuffer'};
+CameraPreview.Format = {JPEG: 'jpeg', WEBP: 'webp'};
+CameraPreview.BurstOverflow = {WAIT: 'wait', DROP_OLDEST: 'dropOldest'};
 
 module.exports = CameraPreview;